@@ -0,0 +1,412 @@
+package com.worldheatmap;
+
+import java.util.Arrays;
+
+/**
+ * Tile storage shared between several heatmap types: one tile index that maps each visited tile
+ * to a row number, and one value column per heatmap type, indexed by that row.
+ * <p>
+ * Many heatmap types (TYPE_A, TYPE_B, XP_GAINED, NPC_DAMAGE_GIVEN, ...) are incremented at the same
+ * tiles, so sharing the index means the coordinates of a tile are only stored once, and a tick that
+ * updates several types only has to look the tile up once (see HeatmapNew.incrementAll).
+ * <p>
+ * Rows are never removed from the index. A tile that is zero in a column is simply absent from that
+ * column's heatmap. Each column can be iterated, saved and rendered on its own.
+ * <p>
+ * A column keeps its values in pages of {@link #PAGE_SIZE} rows, which are only allocated once a value in them is
+ * set. A sparse column (TRADES, WORLD_HOPS, ...) still costs a page per tile it has at worst, since its tiles are
+ * scattered among the rows of the busier columns, so sharing the index only saves memory when many of the enabled
+ * types cover the same tiles.
+ * <p>
+ * Writes to any column must be synchronized on the ColumnarTileStore, since they can add rows to the shared index.
+ */
+public class ColumnarTileStore
+{
+	private static final float LOAD_FACTOR = 0.6f;
+	// Object header and fields of a ColumnarTileStore and of a Column
+	private static final long SHALLOW_SIZE = 32;
+	private static final long COLUMN_SHALLOW_SIZE = 24;
+	private static final long SNAPSHOT_SHALLOW_SIZE = 32;
+	// Rows per page of a column's values
+	static final int PAGE_SIZE = 256;
+	private static final int PAGE_SHIFT = 8;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	// Tile index: packed tile key -> row
+	private long[] indexKeys;
+	private int[] indexRows;
+	private int indexMask;
+
+	// Packed tile key of each row
+	private long[] rowKeys = new long[64];
+	private int rowCount = 0;
+
+	public ColumnarTileStore()
+	{
+		allocateIndex(128);
+	}
+
+	private void allocateIndex(int capacity)
+	{
+		indexKeys = new long[capacity];
+		Arrays.fill(indexKeys, TileKey.NONE);
+		indexRows = new int[capacity];
+		indexMask = capacity - 1;
+	}
+
+	private int indexSlot(long key)
+	{
+		long h = key * 0x9E3779B97F4A7C15L;
+		int slot = (int) (h ^ (h >>> 32)) & indexMask;
+		while (indexKeys[slot] != key && indexKeys[slot] != TileKey.NONE)
+		{
+			slot = (slot + 1) & indexMask;
+		}
+		return slot;
+	}
+
+	/**
+	 * @return the row of the tile, or -1 if no column has ever stored it
+	 */
+	public int findRow(int x, int y, int z)
+	{
+		long key = TileKey.pack(x, y, z);
+		int slot = indexSlot(key);
+		return indexKeys[slot] == key ? indexRows[slot] : -1;
+	}
+
+	/**
+	 * @return the row of the tile, adding it to the index if it isn't there yet
+	 */
+	public int rowFor(int x, int y, int z)
+	{
+		long key = TileKey.pack(x, y, z);
+		int slot = indexSlot(key);
+		if (indexKeys[slot] == key)
+		{
+			return indexRows[slot];
+		}
+
+		if (rowCount == rowKeys.length)
+		{
+			rowKeys = Arrays.copyOf(rowKeys, rowKeys.length * 2);
+		}
+		int row = rowCount++;
+		rowKeys[row] = key;
+		indexKeys[slot] = key;
+		indexRows[slot] = row;
+
+		if (rowCount > indexKeys.length * LOAD_FACTOR)
+		{
+			allocateIndex(indexKeys.length * 2);
+			for (int i = 0; i < rowCount; i++)
+			{
+				int newSlot = indexSlot(rowKeys[i]);
+				indexKeys[newSlot] = rowKeys[i];
+				indexRows[newSlot] = i;
+			}
+		}
+		return row;
+	}
+
+	public int getRowCount()
+	{
+		return rowCount;
+	}
+
+	/**
+	 * Returns the heap memory used by the shared tile index, in bytes, which no column counts as its own
+	 */
+	public long getIndexMemoryUsage()
+	{
+		return SHALLOW_SIZE + TileStore.arraySize(indexKeys.length, 8) + TileStore.arraySize(indexRows.length, 4) + TileStore.arraySize(rowKeys.length, 8);
+	}
+
+	/**
+	 * Creates a new, empty value column backed by this store's tile index
+	 */
+	public Column newColumn()
+	{
+		return new Column();
+	}
+
+	/**
+	 * The values of one heatmap type, indexed by the store's rows
+	 */
+	public class Column implements TileStore
+	{
+		// Pages of values, indexed by row / PAGE_SIZE. Null where no value of the page has been set
+		private long[][] pages = new long[0][];
+		private int pageCount = 0;
+		private int size = 0;
+		// Set while the page directory is shared with a snapshot, so it must be copied before it's next written to
+		private boolean shared = false;
+		// Which pages the column has copied (or allocated) since its last snapshot, so can write to in place.
+		// Null if the column has never been snapshotted
+		private boolean[] ownedPages;
+
+		public ColumnarTileStore getStore()
+		{
+			return ColumnarTileStore.this;
+		}
+
+		public long getAt(int row)
+		{
+			int page = row >>> PAGE_SHIFT;
+			return page < pages.length && pages[page] != null ? pages[page][row & PAGE_MASK] : 0;
+		}
+
+		/**
+		 * Sets the value at the given row of the tile index
+		 *
+		 * @return the previous value
+		 */
+		public long setAt(int row, long value)
+		{
+			int pageIndex = row >>> PAGE_SHIFT;
+			long[] page = pageIndex < pages.length ? pages[pageIndex] : null;
+			if (page == null)
+			{
+				if (value == 0)
+				{
+					return 0;
+				}
+				unshare();
+				if (pageIndex >= pages.length)
+				{
+					int length = Math.max(pageIndex + 1, pages.length * 2);
+					pages = Arrays.copyOf(pages, length);
+					if (ownedPages != null)
+					{
+						ownedPages = Arrays.copyOf(ownedPages, length);
+					}
+				}
+				page = new long[PAGE_SIZE];
+				pages[pageIndex] = page;
+				pageCount++;
+				if (ownedPages != null)
+				{
+					ownedPages[pageIndex] = true;
+				}
+			}
+
+			long oldValue = page[row & PAGE_MASK];
+			if (oldValue == value)
+			{
+				return oldValue;
+			}
+			unshare();
+			if (ownedPages != null && !ownedPages[pageIndex])
+			{
+				page = page.clone();
+				pages[pageIndex] = page;
+				ownedPages[pageIndex] = true;
+			}
+			page[row & PAGE_MASK] = value;
+			if (oldValue == 0 && value != 0)
+			{
+				size++;
+			}
+			else if (oldValue != 0 && value == 0)
+			{
+				size--;
+			}
+			return oldValue;
+		}
+
+		/**
+		 * Copies the page directory if it's shared with a snapshot. The pages themselves are then copied one by one as they're written to
+		 */
+		private void unshare()
+		{
+			if (shared)
+			{
+				pages = pages.clone();
+				ownedPages = new boolean[pages.length];
+				shared = false;
+			}
+		}
+
+		@Override
+		public long get(int x, int y, int z)
+		{
+			int row = findRow(x, y, z);
+			return row == -1 ? 0 : getAt(row);
+		}
+
+		@Override
+		public long put(int x, int y, int z, long value)
+		{
+			int row = value == 0 ? findRow(x, y, z) : rowFor(x, y, z);
+			return row == -1 ? 0 : setAt(row, value);
+		}
+
+		@Override
+		public int size()
+		{
+			return size;
+		}
+
+		/**
+		 * Only counts this column's own values, not the shared tile index. Pages shared with a snapshot are counted by both
+		 */
+		@Override
+		public long getMemoryUsage()
+		{
+			return COLUMN_SHALLOW_SIZE + TileStore.arraySize(pages.length, 4) + (ownedPages == null ? 0 : TileStore.arraySize(ownedPages.length, 1))
+				+ pageCount * TileStore.arraySize(PAGE_SIZE, 8);
+		}
+
+		@Override
+		public TileCursor cursor()
+		{
+			return columnCursor(rowKeys, pages);
+		}
+
+		/**
+		 * Shares the column's pages (copied on the column's next write to each) and the rows of the index
+		 * that exist so far, which never change once added.
+		 */
+		@Override
+		public TileStore snapshot()
+		{
+			shared = true;
+			return new Snapshot(rowKeys, pages, pageCount, size);
+		}
+	}
+
+	private static TileCursor columnCursor(long[] rowKeys, long[][] pages)
+	{
+		return new TileCursor()
+		{
+			private int pageIndex = 0;
+			private int offset = -1;
+			private long[] page = pages.length == 0 ? null : pages[0];
+
+			@Override
+			public boolean next()
+			{
+				while (pageIndex < pages.length)
+				{
+					if (page != null)
+					{
+						while (++offset < PAGE_SIZE)
+						{
+							if (page[offset] != 0)
+							{
+								return true;
+							}
+						}
+					}
+					offset = -1;
+					page = ++pageIndex < pages.length ? pages[pageIndex] : null;
+				}
+				return false;
+			}
+
+			private long key()
+			{
+				return rowKeys[(pageIndex << PAGE_SHIFT) | offset];
+			}
+
+			@Override
+			public int getX()
+			{
+				return TileKey.getX(key());
+			}
+
+			@Override
+			public int getY()
+			{
+				return TileKey.getY(key());
+			}
+
+			@Override
+			public int getPlane()
+			{
+				return TileKey.getPlane(key());
+			}
+
+			@Override
+			public long getValue()
+			{
+				return page[offset];
+			}
+		};
+	}
+
+	/**
+	 * A frozen copy of a column. Snapshots are mostly just iterated, so the first get() or put()
+	 * copies the tiles into a TileHashMap of its own rather than keeping a copy of the whole index.
+	 */
+	private static class Snapshot implements TileStore
+	{
+		// Never written to
+		private final long[] rowKeys;
+		private final long[][] pages;
+		private final int pageCount;
+		private final int size;
+		private TileHashMap tiles;
+
+		Snapshot(long[] rowKeys, long[][] pages, int pageCount, int size)
+		{
+			this.rowKeys = rowKeys;
+			this.pages = pages;
+			this.pageCount = pageCount;
+			this.size = size;
+		}
+
+		private TileHashMap tiles()
+		{
+			if (tiles == null)
+			{
+				tiles = new TileHashMap();
+				TileCursor tile = columnCursor(rowKeys, pages);
+				while (tile.next())
+				{
+					tiles.put(tile.getX(), tile.getY(), tile.getPlane(), tile.getValue());
+				}
+			}
+			return tiles;
+		}
+
+		@Override
+		public long get(int x, int y, int z)
+		{
+			return tiles().get(x, y, z);
+		}
+
+		@Override
+		public long put(int x, int y, int z, long value)
+		{
+			return tiles().put(x, y, z, value);
+		}
+
+		@Override
+		public int size()
+		{
+			return tiles == null ? size : tiles.size();
+		}
+
+		/**
+		 * Only counts the values, since the row keys belong to the live store's index
+		 */
+		@Override
+		public long getMemoryUsage()
+		{
+			return tiles == null ? SNAPSHOT_SHALLOW_SIZE + TileStore.arraySize(pages.length, 4) + pageCount * TileStore.arraySize(PAGE_SIZE, 8) : tiles.getMemoryUsage();
+		}
+
+		@Override
+		public TileCursor cursor()
+		{
+			return tiles == null ? columnCursor(rowKeys, pages) : tiles.cursor();
+		}
+
+		@Override
+		public TileStore snapshot()
+		{
+			return tiles == null ? new Snapshot(rowKeys, pages, pageCount, size) : tiles.snapshot();
+		}
+	}
+}
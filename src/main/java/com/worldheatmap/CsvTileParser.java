@@ -0,0 +1,222 @@
+package com.worldheatmap;
+
+import java.io.IOException;
+import java.io.Reader;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Parses the tile lines of a CSV heatmap ("x,y,z,value", or "x,y,value" before V1.6.1) straight out
+ * of a char buffer, without allocating anything per line.
+ * <p>
+ * Lines are judged the way String.split(",") and Integer/Long.parseLong used to judge them: trailing
+ * empty fields are ignored, any other field count is logged as an invalid line, and a field that isn't
+ * a valid number just counts as an error.
+ */
+@Slf4j
+class CsvTileParser
+{
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int MAX_COLUMNS = 4;
+
+	private final Reader reader;
+	private final HeatmapNew heatmap;
+	private char[] buffer = new char[BUFFER_SIZE];
+	private int limit = 0;
+	// Start and end (exclusive) of each of the line's first fields
+	private final int[] fieldStarts = new int[MAX_COLUMNS];
+	private final int[] fieldEnds = new int[MAX_COLUMNS];
+	private int errorCount = 0;
+
+	private CsvTileParser(Reader reader, HeatmapNew heatmap)
+	{
+		this.reader = reader;
+		this.heatmap = heatmap;
+	}
+
+	/**
+	 * Reads tile lines until the end of the reader, setting them in the heatmap
+	 *
+	 * @return The number of lines that couldn't be parsed
+	 */
+	static int parseTiles(Reader reader, HeatmapNew heatmap) throws IOException
+	{
+		CsvTileParser parser = new CsvTileParser(reader, heatmap);
+		parser.parse();
+		return parser.errorCount;
+	}
+
+	private void parse() throws IOException
+	{
+		int pos = 0;
+		boolean skipLineFeed = false;
+		while (true)
+		{
+			// Find the end of the line
+			int lineEnd = pos;
+			while (lineEnd < limit && buffer[lineEnd] != '\n' && buffer[lineEnd] != '\r')
+			{
+				lineEnd++;
+			}
+
+			if (lineEnd == limit)
+			{
+				// The line continues past the buffered chars, so move it to the front and read more
+				int carried = limit - pos;
+				if (carried == buffer.length)
+				{
+					char[] grown = new char[buffer.length * 2];
+					System.arraycopy(buffer, pos, grown, 0, carried);
+					buffer = grown;
+				}
+				else
+				{
+					System.arraycopy(buffer, pos, buffer, 0, carried);
+				}
+				pos = 0;
+				limit = carried;
+				int read = reader.read(buffer, limit, buffer.length - limit);
+				if (read > 0)
+				{
+					limit += read;
+					if (skipLineFeed && buffer[0] == '\n')
+					{
+						pos = 1;
+					}
+					skipLineFeed = false;
+					continue;
+				}
+				// End of input: a last line without a line terminator still counts, an empty one doesn't
+				if (carried > 0)
+				{
+					parseLine(0, carried);
+				}
+				return;
+			}
+
+			parseLine(pos, lineEnd);
+			// "\r\n" ends a single line
+			if (buffer[lineEnd] == '\r')
+			{
+				if (lineEnd + 1 < limit)
+				{
+					pos = buffer[lineEnd + 1] == '\n' ? lineEnd + 2 : lineEnd + 1;
+				}
+				else
+				{
+					pos = lineEnd + 1;
+					skipLineFeed = true;
+				}
+			}
+			else
+			{
+				pos = lineEnd + 1;
+				skipLineFeed = false;
+			}
+		}
+	}
+
+	private void parseLine(int start, int end)
+	{
+		// Split into fields, counting the fields up to the last non-empty one like String.split does
+		int fieldCount = 0;
+		int columnCount = 0;
+		int fieldStart = start;
+		for (int i = start; i <= end; i++)
+		{
+			if (i == end || buffer[i] == ',')
+			{
+				if (fieldCount < MAX_COLUMNS)
+				{
+					fieldStarts[fieldCount] = fieldStart;
+					fieldEnds[fieldCount] = i;
+				}
+				fieldCount++;
+				if (i > fieldStart)
+				{
+					columnCount = fieldCount;
+				}
+				fieldStart = i + 1;
+			}
+		}
+		// An empty line splits into one empty field
+		if (start == end)
+		{
+			columnCount = 1;
+		}
+
+		try
+		{
+			if (columnCount == 3)
+			{
+				// x, y, val (pre-V1.6.1)
+				heatmap.set(parseInt(0), parseInt(1), 0, parseLong(2));
+			}
+			else if (columnCount == 4)
+			{
+				// x, y, z, val
+				heatmap.set(parseInt(0), parseInt(1), parseInt(2), parseLong(3));
+			}
+			else
+			{
+				log.error("Invalid line in heatmap file: {}", new String(buffer, start, end - start));
+				errorCount++;
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			errorCount++;
+		}
+	}
+
+	private int parseInt(int field)
+	{
+		long value = parseLong(field);
+		if (value != (int) value)
+		{
+			throw new NumberFormatException();
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Parses the field as a signed decimal long, accepting what Long.parseLong accepts for ASCII input
+	 */
+	private long parseLong(int field)
+	{
+		int i = fieldStarts[field];
+		int end = fieldEnds[field];
+		if (i == end)
+		{
+			throw new NumberFormatException();
+		}
+		boolean negative = false;
+		char first = buffer[i];
+		if (first == '-' || first == '+')
+		{
+			negative = first == '-';
+			if (++i == end)
+			{
+				throw new NumberFormatException();
+			}
+		}
+		// Accumulate negatively, since Long.MIN_VALUE has no positive counterpart
+		long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long multiplyLimit = limit / 10;
+		long result = 0;
+		for (; i < end; i++)
+		{
+			int digit = buffer[i] - '0';
+			if (digit < 0 || digit > 9 || result < multiplyLimit)
+			{
+				throw new NumberFormatException();
+			}
+			result *= 10;
+			if (result < limit + digit)
+			{
+				throw new NumberFormatException();
+			}
+			result -= digit;
+		}
+		return negative ? result : -result;
+	}
+}
@@ -0,0 +1,505 @@
+package com.worldheatmap;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Just enough of the zip format to write a .heatmaps file in one pass: new entries are deflated as
+ * they're streamed in, and entries carried over from another .heatmaps file are copied as they are,
+ * still compressed.
+ * <p>
+ * The jar: FileSystem that HeatmapFileManager used to write with rewrites the whole archive each time
+ * it is closed, and can't copy an entry without inflating and deflating it again.
+ * ZIP64 archives (over 4 GB or 65535 entries) are not supported.
+ */
+public class HeatmapArchive
+{
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int END_SIGNATURE = 0x06054b50;
+	private static final int END_RECORD_SIZE = 22;
+	private static final int METHOD_STORED = 0;
+	private static final int METHOD_DEFLATED = 8;
+	private static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+	private static final int FLAG_UTF8 = 1 << 11;
+	private static final int VERSION_NEEDED = 20;
+
+	private HeatmapArchive()
+	{
+	}
+
+	/**
+	 * An entry of an existing archive, as listed in its central directory
+	 */
+	static class Entry
+	{
+		final String name;
+		final int flags;
+		final int method;
+		final int dosTime;
+		final long crc;
+		final long compressedSize;
+		final long size;
+		final long localHeaderOffset;
+
+		Entry(String name, int flags, int method, int dosTime, long crc, long compressedSize, long size, long localHeaderOffset)
+		{
+			this.name = name;
+			this.flags = flags;
+			this.method = method;
+			this.dosTime = dosTime;
+			this.crc = crc;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.localHeaderOffset = localHeaderOffset;
+		}
+	}
+
+	/**
+	 * Lists the entries of the archive from its central directory, without reading their contents
+	 *
+	 * @throws IOException If the file isn't a zip archive this class can read
+	 */
+	static List<Entry> readEntries(FileChannel channel) throws IOException
+	{
+		// The end record is at the very end, unless followed by an archive comment of up to 64 KB
+		long fileSize = channel.size();
+		int tailSize = (int) Math.min(fileSize, END_RECORD_SIZE + 0xFFFF);
+		ByteBuffer tail = readFully(channel, fileSize - tailSize, tailSize);
+		int end = -1;
+		for (int i = tailSize - END_RECORD_SIZE; i >= 0; i--)
+		{
+			if (tail.getInt(i) == END_SIGNATURE)
+			{
+				end = i;
+				break;
+			}
+		}
+		if (end == -1)
+		{
+			throw new IOException("Not a zip archive");
+		}
+		int entryCount = tail.getShort(end + 10) & 0xFFFF;
+		long directorySize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+		long directoryOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+		if (entryCount == 0xFFFF || directoryOffset == 0xFFFFFFFFL)
+		{
+			throw new IOException("ZIP64 archives are not supported");
+		}
+
+		// The central directory lies before the end record, so a corrupt size can't make it any bigger than the file
+		long endOffset = fileSize - tailSize + end;
+		if (directoryOffset + directorySize > endOffset)
+		{
+			throw new IOException("Corrupt zip end record");
+		}
+
+		ByteBuffer directory = readFully(channel, directoryOffset, (int) directorySize);
+		List<Entry> entries = new ArrayList<>(Math.min(entryCount, (int) directorySize / 46));
+		int pos = 0;
+		for (int i = 0; i < entryCount; i++)
+		{
+			if (pos + 46 > directory.limit() || directory.getInt(pos) != CENTRAL_HEADER_SIGNATURE)
+			{
+				throw new IOException("Corrupt zip central directory");
+			}
+			int flags = directory.getShort(pos + 8) & 0xFFFF;
+			int method = directory.getShort(pos + 10) & 0xFFFF;
+			int dosTime = directory.getInt(pos + 12);
+			long crc = directory.getInt(pos + 16) & 0xFFFFFFFFL;
+			long compressedSize = directory.getInt(pos + 20) & 0xFFFFFFFFL;
+			long size = directory.getInt(pos + 24) & 0xFFFFFFFFL;
+			int nameLength = directory.getShort(pos + 28) & 0xFFFF;
+			int extraLength = directory.getShort(pos + 30) & 0xFFFF;
+			int commentLength = directory.getShort(pos + 32) & 0xFFFF;
+			long localHeaderOffset = directory.getInt(pos + 42) & 0xFFFFFFFFL;
+			if (pos + 46 + nameLength > directory.limit())
+			{
+				throw new IOException("Corrupt zip central directory");
+			}
+			byte[] name = new byte[nameLength];
+			directory.position(pos + 46);
+			directory.get(name);
+			entries.add(new Entry(new String(name, StandardCharsets.UTF_8), flags, method, dosTime, crc, compressedSize, size, localHeaderOffset));
+			pos += 46 + nameLength + extraLength + commentLength;
+		}
+		return entries;
+	}
+
+	private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining())
+		{
+			if (channel.read(buffer, position + buffer.position()) < 0)
+			{
+				throw new IOException("Unexpected end of zip archive");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static long dataOffset(FileChannel channel, Entry entry) throws IOException
+	{
+		// The data starts after the entry's local header, whose name and extra field lengths may differ from the central directory's
+		ByteBuffer localHeader = readFully(channel, entry.localHeaderOffset, 30);
+		if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE)
+		{
+			throw new IOException("Corrupt zip entry " + entry.name);
+		}
+		return entry.localHeaderOffset + 30 + (localHeader.getShort(26) & 0xFFFF) + (localHeader.getShort(28) & 0xFFFF);
+	}
+
+	/**
+	 * Opens the uncompressed contents of an entry. The returned stream reads from the channel, which must stay open meanwhile.
+	 */
+	static InputStream openEntry(FileChannel channel, Entry entry) throws IOException
+	{
+		if (entry.method != METHOD_DEFLATED && entry.method != METHOD_STORED)
+		{
+			throw new IOException("Unsupported compression method " + entry.method + " for zip entry " + entry.name);
+		}
+		long dataOffset = dataOffset(channel, entry);
+		InputStream data = new InputStream()
+		{
+			private long remaining = entry.compressedSize;
+
+			@Override
+			public int read() throws IOException
+			{
+				byte[] b = new byte[1];
+				return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException
+			{
+				if (remaining == 0)
+				{
+					return -1;
+				}
+				int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), dataOffset + entry.compressedSize - remaining);
+				if (read < 0)
+				{
+					throw new IOException("Unexpected end of zip entry " + entry.name);
+				}
+				remaining -= read;
+				return read;
+			}
+		};
+		return entry.method == METHOD_STORED ? data : new InflaterInputStream(data, new Inflater(true), 1 << 16);
+	}
+
+	/**
+	 * Writes a new zip archive front to back
+	 */
+	static class Writer implements Closeable
+	{
+		private final Path target;
+		private final FileChannel channel;
+		private final OutputStream out;
+		// CRC-32 of every byte written, to check the file against once it's written
+		private final CRC32 fileCrc = new CRC32();
+		private final List<Entry> written = new ArrayList<>();
+		private long position = 0;
+		private final byte[] header = new byte[46];
+		private final ByteBuffer headerBuffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+		private boolean entryOpen = false;
+
+		Writer(Path target) throws IOException
+		{
+			this.target = target;
+			channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+			out = new BufferedOutputStream(new CheckedOutputStream(Channels.newOutputStream(channel), fileCrc), 1 << 16);
+		}
+
+		private void write(byte[] bytes, int length) throws IOException
+		{
+			out.write(bytes, 0, length);
+			position += length;
+		}
+
+		private void writeLocalHeader(String name, int flags, int method, int dosTime, long crc, long compressedSize, long size) throws IOException
+		{
+			byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+			headerBuffer.clear();
+			headerBuffer.putInt(LOCAL_HEADER_SIGNATURE)
+				.putShort((short) VERSION_NEEDED)
+				.putShort((short) (flags | FLAG_UTF8))
+				.putShort((short) method)
+				.putInt(dosTime)
+				.putInt((int) crc)
+				.putInt((int) compressedSize)
+				.putInt((int) size)
+				.putShort((short) nameBytes.length)
+				.putShort((short) 0);
+			write(header, 30);
+			write(nameBytes, nameBytes.length);
+		}
+
+		/**
+		 * Starts a new deflated entry. Close the returned stream to finish the entry before starting the next one.
+		 */
+		OutputStream newEntry(String name) throws IOException
+		{
+			if (entryOpen)
+			{
+				throw new IllegalStateException("Previous entry not closed");
+			}
+			entryOpen = true;
+			long localHeaderOffset = position;
+			int dosTime = toDosTime(LocalDateTime.now());
+			// Sizes and CRC aren't known yet, so they follow the data in a data descriptor
+			writeLocalHeader(name, FLAG_DATA_DESCRIPTOR, METHOD_DEFLATED, dosTime, 0, 0, 0);
+
+			long dataStart = position;
+			CRC32 crc = new CRC32();
+			Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			OutputStream counting = new FilterOutputStream(out)
+			{
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException
+				{
+					out.write(b, off, len);
+					position += len;
+				}
+
+				@Override
+				public void write(int b) throws IOException
+				{
+					out.write(b);
+					position++;
+				}
+
+				@Override
+				public void close()
+				{
+					// Leave the archive open
+				}
+			};
+			return new DeflaterOutputStream(counting, deflater, 1 << 16)
+			{
+				private long size = 0;
+				private boolean closed = false;
+
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException
+				{
+					crc.update(b, off, len);
+					size += len;
+					super.write(b, off, len);
+				}
+
+				@Override
+				public void write(int b) throws IOException
+				{
+					write(new byte[]{(byte) b}, 0, 1);
+				}
+
+				@Override
+				public void close() throws IOException
+				{
+					if (closed)
+					{
+						return;
+					}
+					closed = true;
+					finish();
+					deflater.end();
+					long compressedSize = position - dataStart;
+					headerBuffer.clear();
+					headerBuffer.putInt(DATA_DESCRIPTOR_SIGNATURE).putInt((int) crc.getValue()).putInt((int) compressedSize).putInt((int) size);
+					Writer.this.write(header, 16);
+					checkZip32(size, compressedSize);
+					written.add(new Entry(name, FLAG_DATA_DESCRIPTOR | FLAG_UTF8, METHOD_DEFLATED, dosTime, crc.getValue(), compressedSize, size, localHeaderOffset));
+					entryOpen = false;
+				}
+			};
+		}
+
+		/**
+		 * @return The CRC-32 of the uncompressed contents of the entry written last
+		 */
+		long getLastEntryCrc()
+		{
+			return written.get(written.size() - 1).crc;
+		}
+
+		/**
+		 * Copies an entry from another archive without decompressing it
+		 *
+		 * @param source The other archive
+		 * @param entry  The entry, as listed by readEntries()
+		 */
+		void copyEntry(FileChannel source, Entry entry) throws IOException
+		{
+			if (entryOpen)
+			{
+				throw new IllegalStateException("Previous entry not closed");
+			}
+			long dataOffset = dataOffset(source, entry);
+
+			long localHeaderOffset = position;
+			// The sizes are known, so the copy doesn't need the source's data descriptor, if it had one
+			int flags = entry.flags & ~FLAG_DATA_DESCRIPTOR;
+			writeLocalHeader(entry.name, flags, entry.method, entry.dosTime, entry.crc, entry.compressedSize, entry.size);
+			byte[] chunk = new byte[1 << 16];
+			ByteBuffer chunkBuffer = ByteBuffer.wrap(chunk);
+			long copied = 0;
+			while (copied < entry.compressedSize)
+			{
+				chunkBuffer.clear();
+				chunkBuffer.limit((int) Math.min(chunk.length, entry.compressedSize - copied));
+				int read = source.read(chunkBuffer, dataOffset + copied);
+				if (read < 0)
+				{
+					throw new IOException("Unexpected end of zip entry " + entry.name);
+				}
+				write(chunk, read);
+				copied += read;
+			}
+			written.add(new Entry(entry.name, flags | FLAG_UTF8, entry.method, entry.dosTime, entry.crc, entry.compressedSize, entry.size, localHeaderOffset));
+		}
+
+		/**
+		 * Writes the central directory, completing the archive
+		 */
+		void finish() throws IOException
+		{
+			long directoryOffset = position;
+			for (Entry entry : written)
+			{
+				byte[] nameBytes = entry.name.getBytes(StandardCharsets.UTF_8);
+				headerBuffer.clear();
+				headerBuffer.putInt(CENTRAL_HEADER_SIGNATURE)
+					.putShort((short) VERSION_NEEDED)
+					.putShort((short) VERSION_NEEDED)
+					.putShort((short) entry.flags)
+					.putShort((short) entry.method)
+					.putInt(entry.dosTime)
+					.putInt((int) entry.crc)
+					.putInt((int) entry.compressedSize)
+					.putInt((int) entry.size)
+					.putShort((short) nameBytes.length)
+					.putShort((short) 0)
+					.putShort((short) 0)
+					.putShort((short) 0)
+					.putShort((short) 0)
+					.putInt(0)
+					.putInt((int) entry.localHeaderOffset);
+				write(header, 46);
+				write(nameBytes, nameBytes.length);
+			}
+			long directorySize = position - directoryOffset;
+			if (written.size() >= 0xFFFF)
+			{
+				throw new IOException("Too many zip entries");
+			}
+			checkZip32(directoryOffset, directorySize);
+			headerBuffer.clear();
+			headerBuffer.putInt(END_SIGNATURE)
+				.putShort((short) 0)
+				.putShort((short) 0)
+				.putShort((short) written.size())
+				.putShort((short) written.size())
+				.putInt((int) directorySize)
+				.putInt((int) directoryOffset)
+				.putShort((short) 0);
+			write(header, END_RECORD_SIZE);
+			out.flush();
+		}
+
+		/**
+		 * Forces the finished archive to the disk, so that it survives a crash once it's moved into place
+		 */
+		void sync() throws IOException
+		{
+			channel.force(true);
+		}
+
+		/**
+		 * Reads the finished archive back, checking that it's exactly what was written and that its entries can be listed
+		 *
+		 * @throws IOException If the archive can't be read back, or doesn't match
+		 */
+		void verify() throws IOException
+		{
+			try (FileChannel in = FileChannel.open(target, StandardOpenOption.READ))
+			{
+				if (in.size() != position)
+				{
+					throw new IOException("Archive is " + in.size() + " bytes rather than the " + position + " written");
+				}
+				CRC32 crc = new CRC32();
+				ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+				long offset = 0;
+				while (offset < position)
+				{
+					buffer.clear();
+					int read = in.read(buffer, offset);
+					if (read < 0)
+					{
+						throw new IOException("Unexpected end of archive");
+					}
+					buffer.flip();
+					crc.update(buffer);
+					offset += read;
+				}
+				if (crc.getValue() != fileCrc.getValue())
+				{
+					throw new IOException("Archive doesn't match what was written");
+				}
+				if (readEntries(in).size() != written.size())
+				{
+					throw new IOException("Archive doesn't list the entries written");
+				}
+			}
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			out.close();
+		}
+	}
+
+	private static void checkZip32(long a, long b) throws IOException
+	{
+		if (a >= 0xFFFFFFFFL || b >= 0xFFFFFFFFL)
+		{
+			throw new IOException("Heatmap archive too large");
+		}
+	}
+
+	private static int toDosTime(LocalDateTime time)
+	{
+		return (time.getYear() - 1980) << 25
+			| time.getMonthValue() << 21
+			| time.getDayOfMonth() << 16
+			| time.getHour() << 11
+			| time.getMinute() << 5
+			| time.getSecond() >> 1;
+	}
+}
@@ -0,0 +1,731 @@
+package com.worldheatmap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Deduplicated store of heatmap backups, kept in a directory next to the .heatmaps files.
+ * <p>
+ * Each heatmap is split into one chunk per 64x64 region of a plane, holding that region's tiles, and every distinct
+ * chunk is stored once in an append-only pack file, keyed by its SHA-256 hash. A heatmap's list of regions and their
+ * chunks' hashes is a chunk too, so a backup itself is a small file naming each heatmap's metadata and list chunk.
+ * Storage thus grows with the regions that changed between backups, rather than with the number of backups.
+ * <p>
+ * Where each chunk is in the pack is kept in an index file next to it, which is appended to as chunks are added, so
+ * that opening the store only has to read the pack past the indexed chunks. Chunks that no backup names any more
+ * (after backups have been deleted or replaced) are dropped by rewriting the pack, once they take up a quarter of it.
+ */
+@Slf4j
+class HeatmapBackupStore implements Closeable
+{
+	static final String DIRECTORY_NAME = "Backups";
+	static final String BACKUP_EXTENSION = ".backup";
+	private static final String PACK_FILE_NAME = "chunks.pack";
+	private static final String INDEX_FILE_NAME = "chunks.idx";
+	private static final int PACK_MAGIC = 0x57484350; // "WHCP"
+	private static final int INDEX_MAGIC = 0x57484349; // "WHCI"
+	private static final int BACKUP_MAGIC = 0x5748424B; // "WHBK"
+	private static final int FORMAT_VERSION = 1;
+	private static final int PACK_HEADER_LENGTH = 8;
+	private static final int HASH_LENGTH = 32;
+	// The chunk's hash, then its raw and stored (deflated) lengths
+	private static final int CHUNK_HEADER_LENGTH = HASH_LENGTH + 8;
+	// The magic number, format version, and number of backups as of the last backup
+	private static final int INDEX_HEADER_LENGTH = 12;
+	// A chunk's hash, then its offset in the pack and stored length
+	private static final int INDEX_RECORD_LENGTH = HASH_LENGTH + 12;
+	// A region holds up to 64x64 tiles, each taking up to two 10 byte varints
+	private static final int MAX_REGION_CHUNK_LENGTH = 10 + 64 * 64 * 20;
+
+	private final File directory;
+	private FileChannel pack;
+	private long packSize;
+	private FileChannel index;
+	private long indexSize;
+	// Index records of the chunks added since the index was last written to
+	private final ByteArrayOutputStream newIndexRecords = new ByteArrayOutputStream();
+	// How many backups there were after the last backup, to tell when some have been deleted since
+	private int recordedBackupCount;
+	// Where each stored chunk is in the pack, by hash
+	private final Map<ByteBuffer, ChunkLocation> chunks = new HashMap<>();
+	private final MessageDigest digest;
+	private final Deflater deflater = new Deflater();
+	private final Inflater inflater = new Inflater();
+	private final byte[] regionChunk = new byte[MAX_REGION_CHUNK_LENGTH];
+	private byte[] deflated = new byte[MAX_REGION_CHUNK_LENGTH];
+	// What the last backup added to the pack
+	private int chunksAdded;
+	private long bytesAdded;
+
+	private static class ChunkLocation
+	{
+		final long offset;
+		final int storedLength;
+
+		ChunkLocation(long offset, int storedLength)
+		{
+			this.offset = offset;
+			this.storedLength = storedLength;
+		}
+	}
+
+	private HeatmapBackupStore(File directory, FileChannel pack, FileChannel index) throws IOException
+	{
+		this.directory = directory;
+		this.pack = pack;
+		this.index = index;
+		try
+		{
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Opens the backup store in the given directory, creating it if it doesn't exist
+	 */
+	static HeatmapBackupStore open(File directory) throws IOException
+	{
+		directory.mkdirs();
+		FileChannel pack = FileChannel.open(new File(directory, PACK_FILE_NAME).toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		FileChannel index = null;
+		HeatmapBackupStore store;
+		try
+		{
+			index = FileChannel.open(new File(directory, INDEX_FILE_NAME).toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			store = new HeatmapBackupStore(directory, pack, index);
+			store.indexPack();
+		}
+		catch (IOException e)
+		{
+			pack.close();
+			if (index != null)
+			{
+				index.close();
+			}
+			throw e;
+		}
+		return store;
+	}
+
+	/**
+	 * Finds the offset of each chunk in the pack, from the index and then by reading the chunks past the indexed ones,
+	 * cutting off the last chunk if it was only partly written
+	 */
+	private void indexPack() throws IOException
+	{
+		long size = pack.size();
+		if (size < PACK_HEADER_LENGTH)
+		{
+			ByteBuffer header = ByteBuffer.allocate(PACK_HEADER_LENGTH).putInt(PACK_MAGIC).putInt(FORMAT_VERSION);
+			header.flip();
+			writeFully(pack, header, 0);
+			pack.truncate(PACK_HEADER_LENGTH);
+			packSize = PACK_HEADER_LENGTH;
+			resetIndex();
+			return;
+		}
+		ByteBuffer header = readFully(pack, 0, PACK_HEADER_LENGTH);
+		if (header.getInt() != PACK_MAGIC || header.getInt() != FORMAT_VERSION)
+		{
+			throw new IOException("Not a heatmap backup pack, or of an unknown version");
+		}
+
+		long offset = readIndex(size);
+		ByteBuffer chunkHeader = ByteBuffer.allocate(CHUNK_HEADER_LENGTH);
+		while (offset + CHUNK_HEADER_LENGTH <= size)
+		{
+			chunkHeader.clear();
+			readFully(pack, chunkHeader, offset);
+			chunkHeader.flip();
+			byte[] hash = new byte[HASH_LENGTH];
+			chunkHeader.get(hash);
+			chunkHeader.getInt();
+			int storedLength = chunkHeader.getInt();
+			if (storedLength < 0 || offset + CHUNK_HEADER_LENGTH + storedLength > size)
+			{
+				break;
+			}
+			addChunk(hash, offset, storedLength);
+			offset += CHUNK_HEADER_LENGTH + storedLength;
+		}
+		if (offset != size)
+		{
+			log.warn("Discarding {} bytes of partly written chunks at the end of heatmap backup pack in '{}'", size - offset, directory);
+			pack.truncate(offset);
+		}
+		packSize = offset;
+		writeNewIndexRecords();
+	}
+
+	/**
+	 * Reads the chunks' locations from the index, as far as they agree with the pack
+	 *
+	 * @param size The size of the pack
+	 * @return The offset in the pack after the last indexed chunk
+	 */
+	private long readIndex(long size) throws IOException
+	{
+		long fileSize = index.size();
+		if (fileSize < INDEX_HEADER_LENGTH)
+		{
+			resetIndex();
+			return PACK_HEADER_LENGTH;
+		}
+		ByteBuffer buffer = readFully(index, 0, (int) fileSize);
+		if (buffer.getInt() != INDEX_MAGIC || buffer.getInt() != FORMAT_VERSION)
+		{
+			log.warn("Heatmap backup index in '{}' is of an unknown version, so it will be rebuilt", directory);
+			resetIndex();
+			return PACK_HEADER_LENGTH;
+		}
+		recordedBackupCount = buffer.getInt();
+
+		// Chunks are indexed in the order they were added, so each must follow the previous one in the pack
+		long offset = PACK_HEADER_LENGTH;
+		int recordCount = 0;
+		while (buffer.remaining() >= INDEX_RECORD_LENGTH)
+		{
+			byte[] hash = new byte[HASH_LENGTH];
+			buffer.get(hash);
+			long chunkOffset = buffer.getLong();
+			int storedLength = buffer.getInt();
+			if (chunkOffset != offset || storedLength < 0 || offset + CHUNK_HEADER_LENGTH + storedLength > size)
+			{
+				break;
+			}
+			chunks.put(ByteBuffer.wrap(hash), new ChunkLocation(offset, storedLength));
+			offset += CHUNK_HEADER_LENGTH + storedLength;
+			recordCount++;
+		}
+		indexSize = INDEX_HEADER_LENGTH + (long) recordCount * INDEX_RECORD_LENGTH;
+		if (indexSize != fileSize)
+		{
+			index.truncate(indexSize);
+		}
+		return offset;
+	}
+
+	/**
+	 * Empties the index, for the chunks to be indexed again from the pack
+	 */
+	private void resetIndex() throws IOException
+	{
+		index.truncate(0);
+		recordedBackupCount = getBackups(directory).size();
+		ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_LENGTH).putInt(INDEX_MAGIC).putInt(FORMAT_VERSION).putInt(recordedBackupCount);
+		header.flip();
+		writeFully(index, header, 0);
+		indexSize = INDEX_HEADER_LENGTH;
+	}
+
+	private void addChunk(byte[] hash, long offset, int storedLength)
+	{
+		chunks.put(ByteBuffer.wrap(hash), new ChunkLocation(offset, storedLength));
+		newIndexRecords.write(hash, 0, HASH_LENGTH);
+		byte[] location = ByteBuffer.allocate(12).putLong(offset).putInt(storedLength).array();
+		newIndexRecords.write(location, 0, location.length);
+	}
+
+	/**
+	 * Appends the records of the chunks added since it was last written to to the index. The chunks must be on disk
+	 * already, so that the index never names a chunk that a crash could lose.
+	 */
+	private void writeNewIndexRecords() throws IOException
+	{
+		if (newIndexRecords.size() == 0)
+		{
+			return;
+		}
+		writeFully(index, ByteBuffer.wrap(newIndexRecords.toByteArray()), indexSize);
+		indexSize += newIndexRecords.size();
+		newIndexRecords.reset();
+	}
+
+	private void writeRecordedBackupCount(int backupCount) throws IOException
+	{
+		recordedBackupCount = backupCount;
+		ByteBuffer count = ByteBuffer.allocate(4).putInt(backupCount);
+		count.flip();
+		writeFully(index, count, 8);
+	}
+
+	/**
+	 * Backs up the given heatmaps, replacing any backup of the same name. The heatmaps mustn't be modified meanwhile, so pass snapshots.
+	 *
+	 * @param name The backup's name, without extension
+	 * @return The backup's file
+	 */
+	File backup(Collection<HeatmapNew> heatmaps, String name) throws IOException
+	{
+		chunksAdded = 0;
+		bytesAdded = 0;
+		File backupFile = new File(directory, name + BACKUP_EXTENSION);
+		// Replacing a backup, or deleting some since the last backup, may have left chunks that no backup names
+		boolean mayHaveGarbage = backupFile.exists() || getBackups(directory).size() < recordedBackupCount;
+
+		ByteArrayOutputStream backup = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(backup);
+		out.writeInt(BACKUP_MAGIC);
+		out.writeByte(FORMAT_VERSION);
+		out.writeInt(heatmaps.size());
+		for (HeatmapNew heatmap : heatmaps)
+		{
+			out.writeUTF(heatmap.getHeatmapType().toString());
+			out.writeLong(heatmap.getUserID());
+			out.writeInt(heatmap.getGameTimeTicks());
+			out.writeInt(heatmap.getAccountType());
+			out.writeInt(heatmap.getCurrentCombatLevel());
+			out.writeBoolean(heatmap.getSeasonalType() != null);
+			if (heatmap.getSeasonalType() != null)
+			{
+				out.writeUTF(heatmap.getSeasonalType());
+			}
+			out.write(putRegionChunks(heatmap));
+		}
+		out.flush();
+
+		// The backup and the index may only name chunks that have made it to disk
+		pack.force(false);
+		writeNewIndexRecords();
+		File tempFile = new File(directory, name + BACKUP_EXTENSION + ".tmp");
+		try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+		{
+			ByteBuffer buffer = ByteBuffer.wrap(backup.toByteArray());
+			while (buffer.hasRemaining())
+			{
+				channel.write(buffer);
+			}
+			channel.force(false);
+		}
+		Files.move(tempFile.toPath(), backupFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		bytesAdded += backupFile.length();
+		writeRecordedBackupCount(getBackups(directory).size());
+
+		if (mayHaveGarbage)
+		{
+			collectGarbage();
+		}
+		return backupFile;
+	}
+
+	/**
+	 * Rewrites the pack without the chunks that no backup names, if they take up at least a quarter of it.
+	 * Does nothing if any backup can't be read, since then it's unknown which chunks it needs.
+	 */
+	void collectGarbage() throws IOException
+	{
+		Set<ByteBuffer> live = new HashSet<>();
+		for (File backupFile : getBackups(directory))
+		{
+			try
+			{
+				for (byte[] listHash : readListHashes(backupFile))
+				{
+					if (!live.add(ByteBuffer.wrap(listHash)))
+					{
+						continue;
+					}
+					ByteBuffer list = getChunk(listHash);
+					long regionCount = HeatmapBinaryFormat.readVarLong(list);
+					for (long i = 0; i < regionCount; i++)
+					{
+						HeatmapBinaryFormat.readVarLong(list);
+						byte[] hash = new byte[HASH_LENGTH];
+						list.get(hash);
+						live.add(ByteBuffer.wrap(hash));
+					}
+				}
+			}
+			catch (IOException e)
+			{
+				log.warn("Not dropping unused heatmap backup chunks, since backup '{}' couldn't be read: {}", backupFile.getName(), e.toString());
+				return;
+			}
+		}
+
+		List<ChunkLocation> liveChunks = new ArrayList<>();
+		long liveSize = PACK_HEADER_LENGTH;
+		for (Map.Entry<ByteBuffer, ChunkLocation> chunk : chunks.entrySet())
+		{
+			if (live.contains(chunk.getKey()))
+			{
+				liveChunks.add(chunk.getValue());
+				liveSize += CHUNK_HEADER_LENGTH + chunk.getValue().storedLength;
+			}
+		}
+		if (packSize - liveSize < packSize / 4)
+		{
+			return;
+		}
+
+		// Copy the live chunks to a new pack, in their order in the old one
+		liveChunks.sort((c1, c2) -> Long.compare(c1.offset, c2.offset));
+		File packFile = new File(directory, PACK_FILE_NAME);
+		File indexFile = new File(directory, INDEX_FILE_NAME);
+		File tempPackFile = new File(directory, PACK_FILE_NAME + ".tmp");
+		File tempIndexFile = new File(directory, INDEX_FILE_NAME + ".tmp");
+		ByteBuffer newIndex = ByteBuffer.allocate(INDEX_HEADER_LENGTH + liveChunks.size() * INDEX_RECORD_LENGTH);
+		newIndex.putInt(INDEX_MAGIC).putInt(FORMAT_VERSION).putInt(recordedBackupCount);
+		try (FileChannel newPack = FileChannel.open(tempPackFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+		{
+			ByteBuffer header = ByteBuffer.allocate(PACK_HEADER_LENGTH).putInt(PACK_MAGIC).putInt(FORMAT_VERSION);
+			header.flip();
+			writeFully(newPack, header, 0);
+			long offset = PACK_HEADER_LENGTH;
+			for (ChunkLocation chunk : liveChunks)
+			{
+				ByteBuffer record = readFully(pack, chunk.offset, CHUNK_HEADER_LENGTH + chunk.storedLength);
+				newIndex.put(record.array(), 0, HASH_LENGTH).putLong(offset).putInt(chunk.storedLength);
+				writeFully(newPack, record, offset);
+				offset += CHUNK_HEADER_LENGTH + chunk.storedLength;
+			}
+			newPack.force(false);
+		}
+		try (FileChannel channel = FileChannel.open(tempIndexFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+		{
+			newIndex.flip();
+			writeFully(channel, newIndex, 0);
+		}
+
+		// Without an index, a crash between the two moves just has the new pack indexed from scratch
+		long oldPackSize = packSize;
+		pack.close();
+		index.close();
+		Files.delete(indexFile.toPath());
+		Files.move(tempPackFile.toPath(), packFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		Files.move(tempIndexFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		pack = FileChannel.open(packFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+		index = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+		chunks.clear();
+		indexPack();
+		log.info("Dropped {} KB of heatmap backup chunks that no backup in '{}' names any more", (oldPackSize - packSize) / 1024, directory);
+	}
+
+	/**
+	 * Stores the heatmap's region chunks, and then the list of them
+	 *
+	 * @return The hash of the list chunk
+	 */
+	private byte[] putRegionChunks(HeatmapNew heatmap) throws IOException
+	{
+		HeatmapBinaryFormat.SortedTiles tiles = HeatmapBinaryFormat.sortedTiles(heatmap);
+		long[] keys = tiles.keys;
+		int regionCount = 0;
+		for (int i = 0; i < tiles.count; i++)
+		{
+			if (i == 0 || keys[i] >>> 12 != keys[i - 1] >>> 12)
+			{
+				regionCount++;
+			}
+		}
+
+		// The list chunk holds the region count, then each region's key (as a delta from the previous one) and chunk hash
+		byte[] list = new byte[10 + regionCount * (10 + HASH_LENGTH)];
+		int listLength = HeatmapBinaryFormat.writeVarLong(list, 0, regionCount);
+		long previousRegion = 0;
+		int start = 0;
+		while (start < tiles.count)
+		{
+			long region = keys[start] >>> 12;
+			int end = start;
+			while (end < tiles.count && keys[end] >>> 12 == region)
+			{
+				end++;
+			}
+
+			// The region chunk holds the tile count, then each tile's index within the region (as a delta) and value
+			int length = HeatmapBinaryFormat.writeVarLong(regionChunk, 0, end - start);
+			long previousIndex = 0;
+			for (int i = start; i < end; i++)
+			{
+				long index = keys[i] & 0xFFF;
+				length = HeatmapBinaryFormat.writeVarLong(regionChunk, length, index - previousIndex);
+				length = HeatmapBinaryFormat.writeVarLong(regionChunk, length, tiles.values[i]);
+				previousIndex = index;
+			}
+			byte[] hash = putChunk(regionChunk, length);
+
+			listLength = HeatmapBinaryFormat.writeVarLong(list, listLength, region - previousRegion);
+			System.arraycopy(hash, 0, list, listLength, HASH_LENGTH);
+			listLength += HASH_LENGTH;
+			previousRegion = region;
+			start = end;
+		}
+		return putChunk(list, listLength);
+	}
+
+	/**
+	 * Stores the chunk in the pack, unless a chunk with the same content already is
+	 *
+	 * @return The chunk's hash
+	 */
+	private byte[] putChunk(byte[] chunk, int length) throws IOException
+	{
+		digest.update(chunk, 0, length);
+		byte[] hash = digest.digest();
+		ByteBuffer key = ByteBuffer.wrap(hash);
+		if (chunks.containsKey(key))
+		{
+			return hash;
+		}
+
+		deflater.reset();
+		deflater.setInput(chunk, 0, length);
+		deflater.finish();
+		int storedLength = 0;
+		while (!deflater.finished())
+		{
+			if (storedLength == deflated.length)
+			{
+				deflated = Arrays.copyOf(deflated, deflated.length * 2);
+			}
+			storedLength += deflater.deflate(deflated, storedLength, deflated.length - storedLength);
+		}
+
+		ByteBuffer record = ByteBuffer.allocate(CHUNK_HEADER_LENGTH + storedLength);
+		record.put(hash).putInt(length).putInt(storedLength).put(deflated, 0, storedLength);
+		record.flip();
+		writeFully(pack, record, packSize);
+		addChunk(hash, packSize, storedLength);
+		packSize += CHUNK_HEADER_LENGTH + storedLength;
+		chunksAdded++;
+		bytesAdded += CHUNK_HEADER_LENGTH + storedLength;
+		return hash;
+	}
+
+	/**
+	 * Reads a chunk from the pack, checking it against its hash
+	 */
+	private ByteBuffer getChunk(byte[] hash) throws IOException
+	{
+		ChunkLocation location = chunks.get(ByteBuffer.wrap(hash));
+		if (location == null)
+		{
+			throw new IOException("Heatmap backup chunk is missing from the pack");
+		}
+		ByteBuffer record = readFully(pack, location.offset, CHUNK_HEADER_LENGTH + location.storedLength);
+		record.position(HASH_LENGTH);
+		int length = record.getInt();
+		int storedLength = record.getInt();
+
+		byte[] chunk = new byte[length];
+		inflater.reset();
+		inflater.setInput(record.array(), CHUNK_HEADER_LENGTH, storedLength);
+		try
+		{
+			int inflated = 0;
+			while (inflated < length && !inflater.finished())
+			{
+				int n = inflater.inflate(chunk, inflated, length - inflated);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+				{
+					break;
+				}
+				inflated += n;
+			}
+			if (inflated != length)
+			{
+				throw new EOFException("Truncated heatmap backup chunk");
+			}
+		}
+		catch (DataFormatException e)
+		{
+			throw new IOException("Corrupt heatmap backup chunk", e);
+		}
+		if (!MessageDigest.isEqual(hash, digest.digest(chunk)))
+		{
+			throw new IOException("Heatmap backup chunk doesn't match its hash");
+		}
+		return ByteBuffer.wrap(chunk);
+	}
+
+	/**
+	 * Reads the heatmaps of a backup. Their journal sequences are unknown, so that no journaled changes get replayed onto them.
+	 */
+	Map<HeatmapNew.HeatmapType, HeatmapNew> read(File backupFile) throws IOException
+	{
+		Map<HeatmapNew.HeatmapType, HeatmapNew> heatmaps = new EnumMap<>(HeatmapNew.HeatmapType.class);
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(backupFile.toPath())))
+		{
+			if (in.readInt() != BACKUP_MAGIC || in.readUnsignedByte() != FORMAT_VERSION)
+			{
+				throw new IOException("Not a heatmap backup, or of an unknown version");
+			}
+			int heatmapCount = in.readInt();
+			for (int i = 0; i < heatmapCount; i++)
+			{
+				String allegedHeatmapType = in.readUTF();
+				long userID = in.readLong();
+				int gameTimeTicks = in.readInt();
+				int accountType = in.readInt();
+				int currentCombatLevel = in.readInt();
+				String seasonalType = in.readBoolean() ? in.readUTF() : null;
+				byte[] listHash = new byte[HASH_LENGTH];
+				in.readFully(listHash);
+
+				HeatmapNew.HeatmapType heatmapType;
+				try
+				{
+					heatmapType = HeatmapNew.HeatmapType.valueOf(allegedHeatmapType);
+				}
+				catch (IllegalArgumentException e)
+				{
+					log.debug("Skipping backed up heatmap of unknown type '{}'", allegedHeatmapType);
+					continue;
+				}
+				HeatmapNew heatmap = new HeatmapNew(heatmapType, userID, accountType, seasonalType, currentCombatLevel);
+				readRegionChunks(heatmap, listHash);
+				heatmap.setGameTimeTicks(gameTimeTicks);
+				heatmap.setJournalSequence(HeatmapNew.UNKNOWN_JOURNAL_SEQUENCE);
+				heatmaps.put(heatmapType, heatmap);
+			}
+		}
+		return heatmaps;
+	}
+
+	private void readRegionChunks(HeatmapNew heatmap, byte[] listHash) throws IOException
+	{
+		ByteBuffer list = getChunk(listHash);
+		long regionCount = HeatmapBinaryFormat.readVarLong(list);
+		long region = 0;
+		byte[] hash = new byte[HASH_LENGTH];
+		for (long i = 0; i < regionCount; i++)
+		{
+			region += HeatmapBinaryFormat.readVarLong(list);
+			list.get(hash);
+			ByteBuffer chunk = getChunk(hash);
+			long tileCount = HeatmapBinaryFormat.readVarLong(chunk);
+			long index = 0;
+			for (long j = 0; j < tileCount; j++)
+			{
+				index += HeatmapBinaryFormat.readVarLong(chunk);
+				long value = HeatmapBinaryFormat.readVarLong(chunk);
+				long key = region << 12 | index;
+				heatmap.set(HeatmapBinaryFormat.sortKeyX(key), HeatmapBinaryFormat.sortKeyY(key), HeatmapBinaryFormat.sortKeyPlane(key), value);
+			}
+		}
+	}
+
+	/**
+	 * Reads the hashes of the list chunks of a backup's heatmaps
+	 */
+	private static List<byte[]> readListHashes(File backupFile) throws IOException
+	{
+		List<byte[]> listHashes = new ArrayList<>();
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(backupFile.toPath())))
+		{
+			if (in.readInt() != BACKUP_MAGIC || in.readUnsignedByte() != FORMAT_VERSION)
+			{
+				throw new IOException("Not a heatmap backup, or of an unknown version");
+			}
+			int heatmapCount = in.readInt();
+			for (int i = 0; i < heatmapCount; i++)
+			{
+				in.readUTF();
+				in.skipBytes(8 + 4 + 4 + 4);
+				if (in.readBoolean())
+				{
+					in.readUTF();
+				}
+				byte[] listHash = new byte[HASH_LENGTH];
+				in.readFully(listHash);
+				listHashes.add(listHash);
+			}
+		}
+		return listHashes;
+	}
+
+	/**
+	 * @return The backups in the given backup store directory, oldest first by name
+	 */
+	static List<File> getBackups(File directory)
+	{
+		File[] files = directory.listFiles((dir, name) -> name.endsWith(BACKUP_EXTENSION));
+		List<File> backups = files == null ? new ArrayList<>() : new ArrayList<>(Arrays.asList(files));
+		backups.sort((f1, f2) -> f1.getName().compareTo(f2.getName()));
+		return backups;
+	}
+
+	/**
+	 * @return The number of chunks that the last backup added to the pack
+	 */
+	int getChunksAdded()
+	{
+		return chunksAdded;
+	}
+
+	/**
+	 * @return The bytes of disk space that the last backup took up, including its own file
+	 */
+	long getBytesAdded()
+	{
+		return bytesAdded;
+	}
+
+	private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		readFully(channel, buffer, position);
+		buffer.flip();
+		return buffer;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			int n = channel.read(buffer, position);
+			if (n < 0)
+			{
+				throw new EOFException("Truncated heatmap backup pack");
+			}
+			position += n;
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			position += channel.write(buffer, position);
+		}
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		deflater.end();
+		inflater.end();
+		pack.close();
+		index.close();
+	}
+}
@@ -0,0 +1,382 @@
+package com.worldheatmap;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+/**
+ * Compact binary encoding of a heatmap, stored as the "TYPE_HEATMAP.bin" entries of .heatmaps files.
+ * <p>
+ * Layout: the magic number and format version, the heatmap's metadata, the tile count, and then
+ * one (key delta, value) pair of unsigned varints per tile. Tiles are sorted by plane, then 64x64
+ * region, then Morton (Z-order) index within the region, so consecutive tiles are usually close
+ * together and their key deltas fit in a byte or two.
+ */
+public class HeatmapBinaryFormat
+{
+	private static final int MAGIC = 0x57484D42; // "WHMB"
+	private static final int FORMAT_VERSION = 1;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private HeatmapBinaryFormat()
+	{
+	}
+
+	/**
+	 * Returns the sort key of a tile: 16 bits of plane, 18 bits each of region x and y, then the tile's 12 bit
+	 * Morton index within the region. Can be turned back into the tile's coordinates.
+	 */
+	static long sortKey(int x, int y, int z)
+	{
+		return ((long) (z & 0xFFFF) << 48)
+			| ((long) ((x >> 6) & 0x3FFFF) << 30)
+			| ((long) ((y >> 6) & 0x3FFFF) << 12)
+			| interleave(x & 63, y & 63);
+	}
+
+	private static int interleave(int localX, int localY)
+	{
+		int morton = 0;
+		for (int bit = 0; bit < 6; bit++)
+		{
+			morton |= ((localX >> bit) & 1) << (2 * bit);
+			morton |= ((localY >> bit) & 1) << (2 * bit + 1);
+		}
+		return morton;
+	}
+
+	private static int deinterleave(int morton)
+	{
+		int value = 0;
+		for (int bit = 0; bit < 6; bit++)
+		{
+			value |= ((morton >> (2 * bit)) & 1) << bit;
+		}
+		return value;
+	}
+
+	static int sortKeyX(long key)
+	{
+		int x = (int) ((key >>> 30) & 0x3FFFF) << 6 | deinterleave((int) key & 0xFFF);
+		return x << 8 >> 8;
+	}
+
+	static int sortKeyY(long key)
+	{
+		int y = (int) ((key >>> 12) & 0x3FFFF) << 6 | deinterleave((int) key >> 1 & 0x7FF);
+		return y << 8 >> 8;
+	}
+
+	static int sortKeyPlane(long key)
+	{
+		return (short) (key >>> 48);
+	}
+
+	/**
+	 * Returns the heatmap's tiles as sort keys and values, in order of their keys, straight from its cursor so that
+	 * no tile has to be looked up. The heatmap must not be modified meanwhile, so pass a snapshot.
+	 */
+	static SortedTiles sortedTiles(HeatmapNew heatmap)
+	{
+		int capacity = Math.max(heatmap.getTileCount(), 16);
+		long[] keys = new long[capacity];
+		long[] values = new long[capacity];
+		int tileCount = 0;
+		TileCursor tile = heatmap.cursor();
+		while (tile.next())
+		{
+			if (tileCount == keys.length)
+			{
+				keys = Arrays.copyOf(keys, keys.length * 2);
+				values = Arrays.copyOf(values, values.length * 2);
+			}
+			keys[tileCount] = sortKey(tile.getX(), tile.getY(), tile.getPlane());
+			values[tileCount] = tile.getValue();
+			tileCount++;
+		}
+		sortByKey(keys, values, tileCount);
+		return new SortedTiles(keys, values, tileCount);
+	}
+
+	/**
+	 * Sorts the first count keys as unsigned longs, moving the values along with them. A byte-wise radix sort,
+	 * which skips the bytes that all the keys share (such as the plane's, usually).
+	 */
+	static void sortByKey(long[] keys, long[] values, int count)
+	{
+		long[] keysOut = new long[count];
+		long[] valuesOut = new long[count];
+		int[] offsets = new int[257];
+		for (int shift = 0; shift < 64; shift += 8)
+		{
+			Arrays.fill(offsets, 0);
+			for (int i = 0; i < count; i++)
+			{
+				offsets[(int) (keys[i] >>> shift & 0xFF) + 1]++;
+			}
+			if (count == 0 || offsets[(int) (keys[0] >>> shift & 0xFF) + 1] == count)
+			{
+				continue;
+			}
+			for (int b = 0; b < 256; b++)
+			{
+				offsets[b + 1] += offsets[b];
+			}
+			for (int i = 0; i < count; i++)
+			{
+				int to = offsets[(int) (keys[i] >>> shift & 0xFF)]++;
+				keysOut[to] = keys[i];
+				valuesOut[to] = values[i];
+			}
+			System.arraycopy(keysOut, 0, keys, 0, count);
+			System.arraycopy(valuesOut, 0, values, 0, count);
+		}
+	}
+
+	/**
+	 * A heatmap's tiles in order of their sort keys, see sortedTiles()
+	 */
+	static class SortedTiles
+	{
+		final long[] keys;
+		final long[] values;
+		final int count;
+
+		SortedTiles(long[] keys, long[] values, int count)
+		{
+			this.keys = keys;
+			this.values = values;
+			this.count = count;
+		}
+	}
+
+	/**
+	 * Writes the heatmap in binary format. The heatmap must not be modified meanwhile, so pass a snapshot.
+	 */
+	static void write(HeatmapNew heatmap, OutputStream out) throws IOException
+	{
+		// Gather and sort the tiles
+		SortedTiles tiles = sortedTiles(heatmap);
+		int tileCount = tiles.count;
+
+		// Header
+		DataOutputStream header = new DataOutputStream(out);
+		header.writeInt(MAGIC);
+		header.writeByte(FORMAT_VERSION);
+		header.writeInt(HeatmapNew.getHeatmapVersion());
+		header.writeUTF(heatmap.getHeatmapType().toString());
+		header.writeLong(heatmap.getUserID());
+		header.writeInt(heatmap.getGameTimeTicks());
+		header.writeInt(heatmap.getAccountType());
+		header.writeInt(heatmap.getCurrentCombatLevel());
+		header.writeBoolean(heatmap.getSeasonalType() != null);
+		if (heatmap.getSeasonalType() != null)
+		{
+			header.writeUTF(heatmap.getSeasonalType());
+		}
+		header.writeInt(tileCount);
+		header.flush();
+
+		// Tiles
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int pos = 0;
+		long previousKey = 0;
+		for (int i = 0; i < tileCount; i++)
+		{
+			if (pos > BUFFER_SIZE - 20)
+			{
+				out.write(buffer, 0, pos);
+				pos = 0;
+			}
+			long key = tiles.keys[i];
+			pos = writeVarLong(buffer, pos, key - previousKey);
+			pos = writeVarLong(buffer, pos, tiles.values[i]);
+			previousKey = key;
+		}
+		out.write(buffer, 0, pos);
+		out.flush();
+	}
+
+	/**
+	 * Writes the value as an unsigned varint of up to 10 bytes
+	 *
+	 * @return The position after it
+	 */
+	static int writeVarLong(byte[] buffer, int pos, long value)
+	{
+		while ((value & ~0x7FL) != 0)
+		{
+			buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[pos++] = (byte) value;
+		return pos;
+	}
+
+	/**
+	 * Reads an unsigned varint written by writeVarLong()
+	 *
+	 * @throws IOException If the varint is malformed or runs past the buffer's limit
+	 */
+	static long readVarLong(ByteBuffer buffer) throws IOException
+	{
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7)
+		{
+			if (!buffer.hasRemaining())
+			{
+				throw new EOFException("Truncated varint");
+			}
+			int b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0)
+			{
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	/**
+	 * Reads just the heatmap version that a heatmap in binary format was written with, without reading its tiles
+	 *
+	 * @throws IOException If the data isn't a heatmap in a known version of the format
+	 */
+	static int readHeatmapVersion(InputStream in) throws IOException
+	{
+		return openHeader(in).readInt();
+	}
+
+	/**
+	 * Reads just the game time that a heatmap in binary format was written with, without reading its tiles
+	 *
+	 * @throws IOException If the data isn't a heatmap in a known version of the format
+	 */
+	static int readGameTimeTicks(InputStream in) throws IOException
+	{
+		DataInputStream header = openHeader(in);
+		header.readInt(); // Heatmap version
+		header.readUTF(); // Heatmap type
+		header.readLong(); // User ID
+		return header.readInt();
+	}
+
+	/**
+	 * Checks the magic number and format version at the start of a heatmap in binary format
+	 *
+	 * @return The rest of the header, from the heatmap version on
+	 * @throws IOException If the data isn't a heatmap in a known version of the format
+	 */
+	private static DataInputStream openHeader(InputStream in) throws IOException
+	{
+		DataInputStream header = new DataInputStream(in);
+		if (header.readInt() != MAGIC)
+		{
+			throw new IOException("Not a binary heatmap");
+		}
+		int formatVersion = header.readUnsignedByte();
+		if (formatVersion != FORMAT_VERSION)
+		{
+			throw new IOException("Unsupported binary heatmap format version " + formatVersion);
+		}
+		return header;
+	}
+
+	/**
+	 * Reads a heatmap in binary format.
+	 *
+	 * @param in               The entry's input stream
+	 * @param tileStoreFactory Creates the tile storage for the heatmap's type, or null to use the type's default storage layout
+	 * @throws IOException If the data isn't a heatmap in a known version of the format, or is truncated
+	 */
+	static HeatmapNew read(InputStream in, @Nullable Function<HeatmapNew.HeatmapType, TileStore> tileStoreFactory) throws IOException
+	{
+		DataInputStream header = openHeader(in);
+		int heatmapVersion = header.readInt();
+		String allegedHeatmapType = header.readUTF();
+		long userID = header.readLong();
+		int gameTimeTicks = header.readInt();
+		int accountType = header.readInt();
+		int currentCombatLevel = header.readInt();
+		String seasonalType = header.readBoolean() ? header.readUTF() : null;
+		int tileCount = header.readInt();
+
+		HeatmapNew.HeatmapType heatmapType;
+		try
+		{
+			heatmapType = HeatmapNew.HeatmapType.valueOf(allegedHeatmapType);
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new IOException("Invalid Heatmap type " + allegedHeatmapType);
+		}
+
+		TileStore tiles = tileStoreFactory == null ? heatmapType.getStorageLayout().create() : tileStoreFactory.apply(heatmapType);
+		HeatmapNew heatmap = new HeatmapNew(heatmapType, userID, accountType, seasonalType, currentCombatLevel, tiles);
+		heatmap.setVersionReadFrom(heatmapVersion);
+		heatmap.setGameTimeTicks(gameTimeTicks);
+
+		VarLongReader reader = new VarLongReader(in);
+		long key = 0;
+		for (int i = 0; i < tileCount; i++)
+		{
+			key += reader.next();
+			long value = reader.next();
+			heatmap.set(sortKeyX(key), sortKeyY(key), sortKeyPlane(key), value);
+		}
+		return heatmap;
+	}
+
+	/**
+	 * Reads unsigned varints through a buffer of its own
+	 */
+	private static class VarLongReader
+	{
+		private final InputStream in;
+		private final byte[] buffer = new byte[BUFFER_SIZE];
+		private int pos = 0;
+		private int limit = 0;
+
+		VarLongReader(InputStream in)
+		{
+			this.in = in;
+		}
+
+		private int nextByte() throws IOException
+		{
+			if (pos == limit)
+			{
+				limit = in.read(buffer, 0, BUFFER_SIZE);
+				pos = 0;
+				if (limit <= 0)
+				{
+					limit = 0;
+					throw new EOFException("Truncated binary heatmap");
+				}
+			}
+			return buffer[pos++];
+		}
+
+		long next() throws IOException
+		{
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7)
+			{
+				int b = nextByte();
+				value |= (long) (b & 0x7F) << shift;
+				if (b >= 0)
+				{
+					return value;
+				}
+			}
+			throw new IOException("Malformed varint in binary heatmap");
+		}
+	}
+}
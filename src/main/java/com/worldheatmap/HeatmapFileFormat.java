@@ -0,0 +1,29 @@
+package com.worldheatmap;
+
+/**
+ * How heatmap data is encoded inside .heatmaps files
+ */
+public enum HeatmapFileFormat
+{
+	/**
+	 * Compact binary entries, see HeatmapBinaryFormat
+	 */
+	BINARY("Binary"),
+	/**
+	 * One "x,y,z,value" line per tile, as written by plugin versions before binary entries existed
+	 */
+	CSV("CSV");
+
+	private final String name;
+
+	HeatmapFileFormat(String name)
+	{
+		this.name = name;
+	}
+
+	@Override
+	public String toString()
+	{
+		return name;
+	}
+}
@@ -1,14 +1,20 @@
 package com.worldheatmap;
 
 import java.awt.Color;
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.URI;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
+import java.nio.file.FileSystemNotFoundException;
 import java.nio.file.FileSystems;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
@@ -19,20 +25,32 @@ import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 
 import net.runelite.api.ChatMessageType;
@@ -50,12 +68,74 @@ public class HeatmapFileManager
 	protected final static DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm");
 	private final WorldHeatmapPlugin plugin;
 	private final WorldHeatmapConfig config;
+	private final HeatmapsFileIndex fileIndex = new HeatmapsFileIndex(dateFormat);
+	private static final int DECODER_THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+	// Decodes the entries of .heatmaps files being read, for every read. Its threads exit when idle, so it needs no shutdown
+	private final ThreadPoolExecutor decoderPool = createDecoderPool();
+
+	/**
+	 * Zip entry holding the state of each heatmap that isn't part of its entry: its current game time, since the
+	 * entries of heatmaps that were copied unchanged from a previous file still hold the game time they were encoded
+	 * with, and the last HeatmapJournal record it includes. Each line is only valid for the heatmap entry with the
+	 * given CRC, so it is ignored if the heatmap's entry has since been rewritten by an older version of the plugin.
+	 */
+	static final String STATE_ENTRY_NAME = "HEATMAP_STATE.csv";
+
+	// What the heatmap entries of the .heatmaps file most recently written or read hold, so that saves can copy the
+	// entries of heatmaps that haven't changed since, rather than encoding them again. Guarded by this
+	private File recordedFile;
+	private long recordedFileSize;
+	private long recordedFileLastModified;
+	private final Map<HeatmapNew.HeatmapType, RecordedEntry> recordedEntries = new EnumMap<>(HeatmapNew.HeatmapType.class);
+
+	private static class RecordedEntry {
+		final HeatmapNew.Generation generation;
+		final HeatmapFileFormat format;
+
+		RecordedEntry(HeatmapNew.Generation generation, HeatmapFileFormat format) {
+			this.generation = generation;
+			this.format = format;
+		}
+	}
+
+	private static class HeatmapState {
+		final long entryCrc;
+		final int gameTimeTicks;
+		final long journalSequence;
+
+		HeatmapState(long entryCrc, int gameTimeTicks, long journalSequence) {
+			this.entryCrc = entryCrc;
+			this.gameTimeTicks = gameTimeTicks;
+			this.journalSequence = journalSequence;
+		}
+
+		HeatmapState(long entryCrc, HeatmapNew heatmap) {
+			this(entryCrc, heatmap.getGameTimeTicks(), heatmap.getJournalSequence());
+		}
+	}
 
 	public HeatmapFileManager(WorldHeatmapPlugin plugin){
 		this.plugin = plugin;
 		this.config = plugin.config;
 	}
 
+	private static ThreadPoolExecutor createDecoderPool() {
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(DECODER_THREAD_COUNT, DECODER_THREAD_COUNT, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+			Thread thread = new Thread(runnable, "World Heatmap loader");
+			thread.setDaemon(true);
+			return thread;
+		});
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	/**
+	 * @return The name of the zip entry holding the heatmap type's data in the given format
+	 */
+	static String getEntryName(HeatmapNew.HeatmapType heatmapType, HeatmapFileFormat format) {
+		return "/" + heatmapType.toString() + (format == HeatmapFileFormat.BINARY ? "_HEATMAP.bin" : "_HEATMAP.csv");
+	}
+
 	/**
 	 * Return a File in the correct directory, either named after the current time or the latest file in the directory,
 	 * whichever comes last. If they are equal, returns a new file named mustReturnNewFile minutes later than the
@@ -139,10 +219,18 @@ public class HeatmapFileManager
      * @return the file with the most recent date in its filename, or null if no such file exists
      */
     public File getLatestFile(long accountHash, String seasonalType) {
+		return getLatestFile(getHeatmapsDirectory(accountHash, seasonalType));
+	}
+
+	/**
+	 * Returns the directory holding the .heatmaps files (and the heatmap journal) of the given user ID and seasonal type
+	 * @param accountHash the user ID/account hash
+	 * @param seasonalType the seasonal type, or empty string if not seasonal
+	 */
+	public File getHeatmapsDirectory(long accountHash, String seasonalType) {
 		boolean isSeasonal = !seasonalType.isBlank();
-		// currentDir may be normal or seasonal
-        File currentDir = new File(HEATMAP_FILES_DIR, accountHash + (isSeasonal ? "_" + seasonalType : ""));
-		return getLatestFile(currentDir);
+		// The directory may be normal or seasonal
+		return new File(HEATMAP_FILES_DIR, accountHash + (isSeasonal ? "_" + seasonalType : ""));
 	}
 
 	/**
@@ -151,12 +239,7 @@ public class HeatmapFileManager
 	 * @return the file with the most recent date in its filename, or null if no such file exists
 	 */
 	private File getLatestFile(File path) {
-		// If the latest file is found, return it
-		File[] files = getSortedFiles(path);
-		if (files.length == 0) {
-			return null;
-		}
-		return files[0];
+		return fileIndex.getLatestFile(path);
 	}
 
 	/**
@@ -172,57 +255,114 @@ public class HeatmapFileManager
 		carryOverV1_0Files(username, accountHash, normalDir);
 		carryOverV1_2Files(accountHash, normalDir);
 
-		// Perform V1.6.0 file naming scheme fix on normal directory if necessary
-		Long latestHeatmapVersion = getLatestHeatmapVersion(normalDir);
+		// The manifest says which fixes are due, without having to read the latest file.
+		// Without one, the version has to be read from the latest file's entries
+		HeatmapsManifest manifest = HeatmapsManifest.read(normalDir);
+		boolean manifestChanged = false;
+		if (manifest == null) {
+			Integer latestHeatmapVersion;
+			try {
+				latestHeatmapVersion = getLatestHeatmapVersion(normalDir);
+			} catch (IOException e) {
+				log.error("Could not read the heatmap version of the latest file in '{}', so no fixes were checked for: {}", normalDir, e.toString());
+				return;
+			}
+			if (latestHeatmapVersion == null) {
+				// No data yet, so nothing to fix. The manifest is written on the first login that finds some
+				return;
+			}
+			if (latestHeatmapVersion == -1) {
+				log.error("Could not read the heatmap version of any entry of the latest file in '{}', so no fixes were checked for", normalDir);
+				return;
+			}
+			manifest = new HeatmapsManifest(latestHeatmapVersion);
+			manifestChanged = true;
+		}
 
-		if (latestHeatmapVersion != null && latestHeatmapVersion <= 101) {
+		// Perform V1.6.0 file naming scheme fix on normal directory if necessary
+		if (manifest.isMigrationDue(HeatmapsManifest.Migration.FILE_NAMING_SCHEME_FIX)) {
 			fileNamingSchemeFix(normalDir);
+			manifest.setMigrationApplied(HeatmapsManifest.Migration.FILE_NAMING_SCHEME_FIX);
+			manifestChanged = true;
 		}
 
 		// Perform V.1.6.1 fix for deaths being counted as teleports
-		if (latestHeatmapVersion != null && latestHeatmapVersion <= 102) {
-			deathsAsTeleportsFix(accountHash, "");
+		if (manifest.isMigrationDue(HeatmapsManifest.Migration.DEATHS_AS_TELEPORTS_FIX)) {
+			// It's only retried if the normal directory's fix failed, as it used to be
+			boolean fixed = deathsAsTeleportsFix(accountHash, "");
 			deathsAsTeleportsFix(accountHash, "LEAGUES_V");
 			deathsAsTeleportsFix(accountHash, "LEAGUES_VI");
+			if (fixed) {
+				manifest.setMigrationApplied(HeatmapsManifest.Migration.DEATHS_AS_TELEPORTS_FIX);
+				manifestChanged = true;
+			}
+		}
+
+		if (manifestChanged) {
+			boolean allApplied = Arrays.stream(HeatmapsManifest.Migration.values()).noneMatch(manifest::isMigrationDue);
+			if (allApplied) {
+				manifest.setDataVersion(HeatmapNew.getHeatmapVersion());
+			}
+			try {
+				manifest.write(normalDir);
+			} catch (IOException e) {
+				log.error("Could not write heatmaps manifest to '{}': {}", normalDir, e.toString());
+			}
 		}
 	}
 
 	/*
 	 * Subtracts DEATHS from TELEPORTED_FROM heatmap in latest file,
+	 * returning whether the fix was applied (or there was nothing to fix)
 	 */
-	private void deathsAsTeleportsFix(long accountHash, String seasonalType)
+	private boolean deathsAsTeleportsFix(long accountHash, String seasonalType)
 	{
 		File latestFile = getLatestFile(accountHash, seasonalType);
 		if (latestFile == null) {
-			return;
+			return true;
 		}
 		File newFile = getCurrentFile(accountHash, seasonalType);
 
 		try {
 			log.info("Performing death-teleport fix for account {} (seasonal type: \"{}\") on file {}", accountHash, seasonalType, latestFile.getName());
-			// Read all heatmap types (because we want to rewrite even the ones not needing to be modified, to update their version)
-			HashMap<HeatmapNew.HeatmapType, HeatmapNew> heatmaps = readHeatmapsFromFile(latestFile, List.of(HeatmapNew.HeatmapType.values()), false);
+			// Only the two types involved are read. The others are copied over as they are, since the manifest
+			// rather than their version now records that the fix was applied
+			HashMap<HeatmapNew.HeatmapType, HeatmapNew> heatmaps = readHeatmapsFromFile(latestFile, List.of(HeatmapNew.HeatmapType.DEATHS, HeatmapNew.HeatmapType.TELEPORTED_FROM), false);
 			HeatmapNew deaths = heatmaps.get(HeatmapNew.HeatmapType.DEATHS);
 
 			HeatmapNew teleportedFrom = heatmaps.get(HeatmapNew.HeatmapType.TELEPORTED_FROM);
 
-			if (teleportedFrom != null && deaths != null && deaths.getTileCount() > 0) {
-				teleportedFrom.subtract(deaths, 0);
+			if (teleportedFrom == null || deaths == null || deaths.getTileCount() == 0) {
+				return true;
 			}
+			teleportedFrom.subtract(deaths, 0);
 
-			writeHeatmapsToFile(heatmaps.values(), newFile, false);
+			if (!writeHeatmapsToFile(List.of(teleportedFrom), newFile, latestFile, false)) {
+				return false;
+			}
 
 			// Write new, fixed TELEPORTED_FROM image
 			File teleportedFromImageFile = getNewImageFile(accountHash, HeatmapNew.HeatmapType.TELEPORTED_FROM, seasonalType);
-			plugin.executor.execute(() -> HeatmapImage.writeHeatmapImage(heatmaps.get(HeatmapNew.HeatmapType.TELEPORTED_FROM), teleportedFromImageFile, config.isWriteFullImageEnabled(), config.isBlueMapEnabled(), config.heatmapAlpha(), config.heatmapSensitivity(), config.speedMemoryTradeoff(), new WorldHeatmapPlugin.HeatmapProgressListener(plugin, HeatmapNew.HeatmapType.TELEPORTED_FROM)));
+			plugin.executor.execute(() -> HeatmapImage.writeHeatmapImage(teleportedFrom, teleportedFromImageFile, config.isWriteFullImageEnabled(), config.isBlueMapEnabled(), config.heatmapAlpha(), config.heatmapSensitivity(), config.speedMemoryTradeoff(), config.imageStripsInFlight(), new WorldHeatmapPlugin.HeatmapProgressListener(plugin, HeatmapNew.HeatmapType.TELEPORTED_FROM)));
 
 			// If enabled, trigger heatmap data upload to server.
 			// Theoretically this could fix most of the public data.
 			if (config.isUploadEnabled()) {
-				heatmaps.remove(HeatmapNew.HeatmapType.UNKNOWN); // I forget where this even comes from
-
 				plugin.executor.execute(() -> {
-					boolean uploadSuccessful = Utils.uploadHeatmaps(heatmaps, plugin.okHttpClient);
+					// Uploading takes every type, so they're only all read for it
+					HashMap<HeatmapNew.HeatmapType, HeatmapNew> fixedHeatmaps;
+					if (!newFile.exists()) {
+						log.error("Fixed heatmaps file '{}' was moved before it could be uploaded", newFile.getName());
+						return;
+					}
+					try {
+						fixedHeatmaps = readHeatmapsFromFile(newFile, List.of(HeatmapNew.HeatmapType.values()), false);
+					} catch (FileNotFoundException e) {
+						log.error("Could not read fixed heatmaps file '{}' to upload it", newFile.getName());
+						return;
+					}
+					fixedHeatmaps.remove(HeatmapNew.HeatmapType.UNKNOWN); // I forget where this even comes from
+					boolean uploadSuccessful = Utils.uploadHeatmaps(fixedHeatmaps, plugin.okHttpClient);
 					if (uploadSuccessful) {
 						log.info("Successfully uploaded heatmaps after applying deaths as teleports fix for account {} (seasonal type: \"{}\")", accountHash, seasonalType);
 					}
@@ -231,11 +371,11 @@ public class HeatmapFileManager
 					}
 				});
 			}
-
+			return true;
 		} catch (Exception e) {
 			log.error("Error applying deaths as teleports fix for account {} (seasonal type: \"{}\": {}", accountHash, seasonalType, e.toString());
+			return false;
 		}
-
 	}
 
 	/**
@@ -282,6 +422,7 @@ public class HeatmapFileManager
 				if (getLatestFile(newDir) == newFile) {
 					File newFile2 = new File(newDir, dateFormat.format(lastModified.plusMinutes(1)) + HEATMAP_EXTENSION);
 					Files.copy(newFile.toPath(), newFile2.toPath());
+					fileIndex.fileWritten(newFile2);
 					newFile2.setLastModified(lastModified.plusMinutes(1).toInstant().toEpochMilli());
 				}
 			} catch (IOException e) {
@@ -381,6 +522,7 @@ public class HeatmapFileManager
 				File newFile2 = new File(newDir, dateFormat.format(latestModified.plusMinutes(1)) + HEATMAP_EXTENSION);
 				try {
 					Files.copy(newFile.toPath(), newFile2.toPath());
+					fileIndex.fileWritten(newFile2);
 					newFile2.setLastModified(latestModified.plusMinutes(1).toInstant().toEpochMilli());
 				} catch (IOException e) {
 					log.error("Failed to make extra copy of converted legacy shmeatmap file: {}", e.toString());
@@ -394,59 +536,22 @@ public class HeatmapFileManager
 	}
 
     /**
-	 * Returns an array of files in the given directory whose filenames are parseable date strings, sorted by date.
+	 * Returns the files in the given directory whose filenames are parseable date strings within the given range, sorted by date.
 	 * @param path the directory to search
-	 * @return an array of files with parseable dates in their filenames, sorted by date (most recent first)
-     */
-	private File[] getSortedFiles(File path) {
-		File[] files = path.listFiles(File::isFile);
-		if (files == null || files.length == 0) {
-			return new File[0];
-		}
-
-		files = Arrays.stream(files)
-			.filter(file -> {
-				String name = file.getName();
-				int pos = name.lastIndexOf(".heatmaps");
-				if (pos == -1) {
-					return false;
-				}
-				name = name.substring(0, pos);
-				try {
-					LocalDateTime.parse(name, dateFormat);
-					return true;
-				} catch (Exception e) {
-					return false;
-				}
-			})
-			.toArray(File[]::new);
-
-		Arrays.sort(files, (f1, f2) -> {
-			try {
-				String n1 = f1.getName();
-				String n2 = f2.getName();
-				int pos1 = n1.lastIndexOf(".heatmaps");
-				int pos2 = n2.lastIndexOf(".heatmaps");
-				n1 = n1.substring(0, pos1);
-				n2 = n2.substring(0, pos2);
-
-				LocalDateTime d1 = LocalDateTime.parse(n1, dateFormat);
-				LocalDateTime d2 = LocalDateTime.parse(n2, dateFormat);
-				return d2.compareTo(d1);
-			} catch (Exception e) {
-				return 0;
-			}
-		});
-
-		return files;
+	 * @param from the earliest date to include, or null for no limit
+	 * @param to the date to include files up to, but not including, or null for no limit
+	 * @return the files with parseable dates in their filenames within the range, sorted by date (most recent first)
+	 */
+	protected List<File> getSortedFiles(File path, @Nullable LocalDateTime from, @Nullable LocalDateTime to) {
+		return fileIndex.getFiles(path, from, to);
 	}
 
-	protected void writeHeatmapsToFile(Collection<HeatmapNew> heatmapsToWrite, File heatmapsFile, @Nullable File previousHeatmapsFile) {
-		writeHeatmapsToFile(heatmapsToWrite, heatmapsFile, previousHeatmapsFile, true);
+	protected boolean writeHeatmapsToFile(Collection<HeatmapNew> heatmapsToWrite, File heatmapsFile, @Nullable File previousHeatmapsFile) {
+		return writeHeatmapsToFile(heatmapsToWrite, heatmapsFile, previousHeatmapsFile, true);
 	}
 
-	protected void writeHeatmapsToFile(Collection<HeatmapNew> heatmapsToWrite, File heatmapsFile) {
-		writeHeatmapsToFile(heatmapsToWrite, heatmapsFile, null, true);
+	protected boolean writeHeatmapsToFile(Collection<HeatmapNew> heatmapsToWrite, File heatmapsFile) {
+		return writeHeatmapsToFile(heatmapsToWrite, heatmapsFile, null, true);
 	}
 
 	/**
@@ -454,9 +559,10 @@ public class HeatmapFileManager
 	 * and unprovided heatmaps already in the file will remain.
 	 * @param heatmapsToWrite The heatmaps to write
 	 * @param heatmapsFile The .heatmaps file
+	 * @return Whether the heatmaps were saved
 	 */
-	protected void writeHeatmapsToFile(Collection<HeatmapNew> heatmapsToWrite, File heatmapsFile, boolean verbose) {
-		writeHeatmapsToFile(heatmapsToWrite, heatmapsFile, null, verbose);
+	protected boolean writeHeatmapsToFile(Collection<HeatmapNew> heatmapsToWrite, File heatmapsFile, boolean verbose) {
+		return writeHeatmapsToFile(heatmapsToWrite, heatmapsFile, null, verbose);
 	}
 
 	/**
@@ -466,8 +572,9 @@ public class HeatmapFileManager
 	 * @param heatmapsToWrite The heatmaps to write
 	 * @param heatmapsFile The .heatmaps file
 	 * @param previousHeatmapsFile The previous .heatmaps file.
+	 * @return Whether the heatmaps were saved
 	 */
-	protected void writeHeatmapsToFile(Collection<HeatmapNew> heatmapsToWrite, File heatmapsFile, @Nullable File previousHeatmapsFile, boolean verbose) {
+	protected synchronized boolean writeHeatmapsToFile(Collection<HeatmapNew> heatmapsToWrite, File heatmapsFile, @Nullable File previousHeatmapsFile, boolean verbose) {
 		// Preamble
 		if (verbose) {
 			log.info("Saving heatmaps to file '{}'...", heatmapsFile.getName());
@@ -483,44 +590,381 @@ public class HeatmapFileManager
 			}
 		}
 
-		// Copy previousHeatmapsFile to heatmapsFile (if it exists)
-		// in order to carry over unprovided heatmaps before updating
-		if (previousHeatmapsFile != null && previousHeatmapsFile.exists()) {
-			try {
-				Files.copy(previousHeatmapsFile.toPath(), heatmapsFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-			} catch (IOException e) {
-				log.error("Error copying latest heatmaps file to new location");
-				return;
+		// Unprovided heatmaps are carried over from previousHeatmapsFile if it exists, otherwise from heatmapsFile itself
+		File carryOverFile = previousHeatmapsFile != null && previousHeatmapsFile.exists() ? previousHeatmapsFile : heatmapsFile;
+		HeatmapFileFormat format = config.heatmapFileFormat() == null ? HeatmapFileFormat.BINARY : config.heatmapFileFormat();
+
+		// Heatmaps that haven't changed since they were written to (or read from) carryOverFile are copied instead of encoded again
+		boolean carryOverFileRecorded = carryOverFile.exists() && isRecordedFile(carryOverFile);
+		List<HeatmapNew> heatmapsToEncode = new ArrayList<>();
+		Map<HeatmapNew.HeatmapType, HeatmapNew> unchangedHeatmaps = new EnumMap<>(HeatmapNew.HeatmapType.class);
+		for (HeatmapNew heatmap : heatmapsToWrite) {
+			RecordedEntry recorded = carryOverFileRecorded ? recordedEntries.get(heatmap.getHeatmapType()) : null;
+			if (recorded != null && recorded.format == format && recorded.generation.equals(heatmap.getGeneration())) {
+				unchangedHeatmaps.put(heatmap.getHeatmapType(), heatmap);
+			}
+			else {
+				heatmapsToEncode.add(heatmap);
 			}
 		}
 
-		// Zip reading params
-		Map<String, String> env = new HashMap<>();
-		env.put("create", "true");
-		URI uri = URI.create("jar:" + heatmapsFile.toURI());
+		// Entries being replaced, in either format (e.g. CSV entries being converted to binary). An unchanged heatmap's
+		// entry in the other format is dropped too, since it was read from the one being copied
+		Set<String> replacedEntries = new HashSet<>();
+		for (HeatmapNew heatmap : heatmapsToEncode) {
+			for (HeatmapFileFormat entryFormat : HeatmapFileFormat.values()) {
+				replacedEntries.add(getEntryName(heatmap.getHeatmapType(), entryFormat).substring(1));
+			}
+		}
+		for (HeatmapNew.HeatmapType type : unchangedHeatmaps.keySet()) {
+			for (HeatmapFileFormat entryFormat : HeatmapFileFormat.values()) {
+				if (entryFormat != format) {
+					replacedEntries.add(getEntryName(type, entryFormat).substring(1));
+				}
+			}
+		}
+		replacedEntries.add(STATE_ENTRY_NAME);
+
+		// Write the whole archive to a temporary file in one pass, then move it into place
+		File tempFile = new File(heatmapsFile.getParent(), heatmapsFile.getName() + ".tmp");
+		long encodeNanos = 0;
+		long copyNanos = 0;
+		long syncNanos = 0;
+		long verifyNanos = 0;
+		int entriesCopied = 0;
+		try (HeatmapArchive.Writer archive = new HeatmapArchive.Writer(tempFile.toPath())) {
+			Map<HeatmapNew.HeatmapType, HeatmapState> states = new EnumMap<>(HeatmapNew.HeatmapType.class);
+			for (HeatmapNew heatmap : heatmapsToEncode) {
+				long encodeStart = System.nanoTime();
+				try (OutputStream os = archive.newEntry(getEntryName(heatmap.getHeatmapType(), format).substring(1))) {
+					if (format == HeatmapFileFormat.BINARY) {
+						HeatmapBinaryFormat.write(heatmap, os);
+					}
+					else {
+						OutputStreamWriter osw = new OutputStreamWriter(os, StandardCharsets.UTF_8);
+						heatmap.toCSV(osw);
+						osw.flush();
+					}
+				}
+				states.put(heatmap.getHeatmapType(), new HeatmapState(archive.getLastEntryCrc(), heatmap));
+				encodeNanos += System.nanoTime() - encodeStart;
+				loggingOutput.append(heatmap.getHeatmapType() + " (" + heatmap.getTileCount() + " tiles), ");
+			}
+			for (HeatmapNew heatmap : unchangedHeatmaps.values()) {
+				loggingOutput.append(heatmap.getHeatmapType() + " (unchanged), ");
+			}
 
-		for (HeatmapNew heatmap : heatmapsToWrite) {
-			// Write the heatmap file, overwriting zip entries that already exist
-			try (FileSystem fs = FileSystems.newFileSystem(uri, env)) {
-				Path zipEntryFile = fs.getPath("/" + heatmap.getHeatmapType().toString() + "_HEATMAP.csv");
-				try (OutputStreamWriter osw = new OutputStreamWriter(Files.newOutputStream(zipEntryFile), StandardCharsets.UTF_8)) {
-					heatmap.toCSV(osw);
-					osw.flush(); // Not sure if this is necessary
+			// Copy the remaining entries over as they are, without recompressing them
+			long copyStart = System.nanoTime();
+			if (carryOverFile.exists()) {
+				try (FileChannel source = FileChannel.open(carryOverFile.toPath(), StandardOpenOption.READ)) {
+					List<HeatmapArchive.Entry> entries = HeatmapArchive.readEntries(source);
+					Map<HeatmapNew.HeatmapType, HeatmapState> previousStates = readStateEntry(source, entries);
+					for (HeatmapArchive.Entry entry : entries) {
+						if (replacedEntries.contains(entry.name)) {
+							continue;
+						}
+						archive.copyEntry(source, entry);
+						entriesCopied++;
+
+						HeatmapNew.HeatmapType type = getEntryType(entry.name);
+						if (type == null) {
+							continue;
+						}
+						if (unchangedHeatmaps.containsKey(type)) {
+							states.put(type, new HeatmapState(entry.crc, unchangedHeatmaps.get(type)));
+						}
+						else if (previousStates.containsKey(type) && previousStates.get(type).entryCrc == entry.crc) {
+							states.put(type, previousStates.get(type));
+						}
+					}
 				}
-			} catch (IOException e) {
-                log.error("World Heatmap was not able to save heatmap type '{}' to file '{}'", heatmap.getHeatmapType(), heatmapsFile.getName());
-				e.printStackTrace();
-				return;
 			}
-			loggingOutput.append(heatmap.getHeatmapType() + " (" + heatmap.getTileCount() + " tiles), ");
+			copyNanos = System.nanoTime() - copyStart;
+
+			if (!states.isEmpty()) {
+				OutputStreamWriter osw = new OutputStreamWriter(archive.newEntry(STATE_ENTRY_NAME), StandardCharsets.UTF_8);
+				osw.write("heatmapType,entryCRC,gameTimeTicks,journalSequence\n");
+				for (Map.Entry<HeatmapNew.HeatmapType, HeatmapState> state : states.entrySet()) {
+					osw.write(state.getKey() + "," + state.getValue().entryCrc + "," + state.getValue().gameTimeTicks + "," + state.getValue().journalSequence + "\n");
+				}
+				osw.close();
+			}
+			archive.finish();
+
+			// Make sure the temporary file is intact and on disk before it replaces the previous one
+			long syncStart = System.nanoTime();
+			archive.sync();
+			syncNanos = System.nanoTime() - syncStart;
+			long verifyStart = System.nanoTime();
+			archive.verify();
+			verifyNanos = System.nanoTime() - verifyStart;
+		} catch (IOException e) {
+			log.error("World Heatmap was not able to save heatmaps to file '{}'", heatmapsFile.getName());
+			e.printStackTrace();
+			tempFile.delete();
+			return false;
+		}
+
+		long moveStart = System.nanoTime();
+		try {
+			moveAtomically(tempFile, heatmapsFile);
+			fileIndex.fileWritten(heatmapsFile);
+		} catch (IOException e) {
+			log.error("World Heatmap was not able to replace heatmap file '{}'", heatmapsFile.getName());
+			e.printStackTrace();
+			tempFile.delete();
+			return false;
 		}
+		long moveNanos = System.nanoTime() - moveStart;
+
+		// Record what the new file's entries hold. Entries copied from a recorded file hold what they held there
+		Map<HeatmapNew.HeatmapType, RecordedEntry> newRecordedEntries = new EnumMap<>(HeatmapNew.HeatmapType.class);
+		if (carryOverFileRecorded) {
+			newRecordedEntries.putAll(recordedEntries);
+		}
+		for (HeatmapNew heatmap : heatmapsToEncode) {
+			newRecordedEntries.put(heatmap.getHeatmapType(), new RecordedEntry(heatmap.getGeneration(), format));
+		}
+		setRecordedFile(heatmapsFile, newRecordedEntries);
 
 		if (verbose) {
 			log.info(loggingOutput.toString());
-			log.info("Finished writing '{}' heatmap file to disk after {} ms", heatmapsFile.getName(), (System.nanoTime() - startTime) / 1_000_000);
+			log.info("Finished writing '{}' heatmap file to disk after {} ms (encoding {} heatmaps: {} ms, copying {} carried over entries: {} ms, syncing to disk: {} ms, verifying: {} ms, replacing file: {} ms)",
+				heatmapsFile.getName(), (System.nanoTime() - startTime) / 1_000_000, heatmapsToEncode.size(), encodeNanos / 1_000_000, entriesCopied, copyNanos / 1_000_000,
+				syncNanos / 1_000_000, verifyNanos / 1_000_000, moveNanos / 1_000_000);
+		}
+		return true;
+	}
+
+	/**
+	 * Moves the file into place in a single step, so that a crash leaves either the old file or the new one. Then
+	 * syncs the directory where that's supported, so that the move itself survives a crash.
+	 */
+	static void moveAtomically(File source, File target) throws IOException {
+		try {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			log.warn("Atomic moves aren't supported for '{}', so it will be replaced non-atomically", target.getName());
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		try (FileChannel directory = FileChannel.open(target.getAbsoluteFile().getParentFile().toPath(), StandardOpenOption.READ)) {
+			directory.force(true);
+		} catch (IOException e) {
+			// Directories can't be opened or synced on some platforms, such as Windows, whose moves are durable anyway
+		}
+	}
+
+	/**
+	 * Makes sure that the latest .heatmaps file of the directory can be read. Newer files that can't (such as ones
+	 * cut short by a crash while an older version of the plugin was saving) are set aside with a ".corrupt" suffix,
+	 * so that the newest intact file gets loaded instead, or the newest backup if it was made after that file.
+	 * Also deletes the temporary files of interrupted saves.
+	 */
+	protected void recoverHeatmapsFiles(long accountHash, String seasonalType) {
+		File directory = getHeatmapsDirectory(accountHash, seasonalType);
+		File[] tempFiles = directory.listFiles((dir, name) -> name.endsWith(HEATMAP_EXTENSION + ".tmp"));
+		if (tempFiles != null) {
+			for (File tempFile : tempFiles) {
+				log.info("Deleting '{}', left by a save that was interrupted", tempFile.getName());
+				tempFile.delete();
+			}
+		}
+
+		File latestFile;
+		boolean setAside = false;
+		while ((latestFile = getLatestFile(directory)) != null && !isReadableHeatmapsFile(latestFile)) {
+			File corruptFile = new File(directory, latestFile.getName() + ".corrupt");
+			if (!renameHeatmapsFile(latestFile, corruptFile)) {
+				log.error("Heatmaps file '{}' is damaged, and could not be set aside", latestFile.getName());
+				return;
+			}
+			log.error("Heatmaps file '{}' is damaged, so it was renamed to '{}' and the previous file will be used instead", latestFile.getName(), corruptFile.getName());
+			setAside = true;
+		}
+
+		// If a backup was made since the newest intact file, restore it as the latest file instead
+		if (setAside) {
+			List<File> backups = HeatmapBackupStore.getBackups(new File(directory, HeatmapBackupStore.DIRECTORY_NAME));
+			if (!backups.isEmpty()) {
+				File newestBackup = backups.get(backups.size() - 1);
+				String backupName = newestBackup.getName().substring(0, newestBackup.getName().length() - HeatmapBackupStore.BACKUP_EXTENSION.length());
+				File restoredFile = new File(directory, backupName + HEATMAP_EXTENSION);
+				// Backups are named after their date in the same format as .heatmaps files, so their names sort alike
+				if ((latestFile == null || latestFile.getName().compareTo(restoredFile.getName()) < 0) && restoreBackup(newestBackup, restoredFile)) {
+					log.info("Restored backup '{}' as '{}', since it's newer than the newest intact heatmaps file", newestBackup.getName(), restoredFile.getName());
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return Whether the file is a complete zip archive, judging by whether its entries can be listed
+	 */
+	private static boolean isReadableHeatmapsFile(File heatmapsFile) {
+		try (FileChannel channel = FileChannel.open(heatmapsFile.toPath(), StandardOpenOption.READ)) {
+			HeatmapArchive.readEntries(channel);
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Records what the entries just read from the file hold, adding to what's recorded for the file if it's already the recorded file
+	 */
+	private synchronized void recordEntriesRead(File heatmapsFile, Map<HeatmapNew.HeatmapType, RecordedEntry> entriesRead) {
+		Map<HeatmapNew.HeatmapType, RecordedEntry> entries = new EnumMap<>(HeatmapNew.HeatmapType.class);
+		if (isRecordedFile(heatmapsFile)) {
+			entries.putAll(recordedEntries);
+		}
+		entries.putAll(entriesRead);
+		setRecordedFile(heatmapsFile, entries);
+	}
+
+	/**
+	 * Adds a backup of the given heatmaps to the deduplicated backup store of their directory. The types they
+	 * don't include are backed up from the latest .heatmaps file, like saving to a new file would carry them over.
+	 *
+	 * @param heatmapsToBackUp Snapshots of the heatmaps to back up, all of the same user ID and seasonal type
+	 * @return Whether the backup was made
+	 */
+	protected boolean backupHeatmaps(Collection<HeatmapNew> heatmapsToBackUp) {
+		if (heatmapsToBackUp.isEmpty()) {
+			return false;
+		}
+		long startTime = System.nanoTime();
+		HeatmapNew first = heatmapsToBackUp.iterator().next();
+		File heatmapsDirectory = getHeatmapsDirectory(first.getUserID(), first.getSeasonalType());
+
+		Map<HeatmapNew.HeatmapType, HeatmapNew> heatmaps = new EnumMap<>(HeatmapNew.HeatmapType.class);
+		File latestFile = getLatestFile(heatmapsDirectory);
+		if (latestFile != null && latestFile.exists()) {
+			List<HeatmapNew.HeatmapType> missingTypes = new ArrayList<>();
+			for (HeatmapNew.HeatmapType type : HeatmapNew.HeatmapType.values()) {
+				if (heatmapsToBackUp.stream().noneMatch(heatmap -> heatmap.getHeatmapType() == type)) {
+					missingTypes.add(type);
+				}
+			}
+			try {
+				heatmaps.putAll(readHeatmapsFromFile(latestFile, missingTypes, false));
+			} catch (FileNotFoundException e) {
+				log.error("Could not read the heatmaps to carry over into the backup from '{}'", latestFile.getName());
+			}
+		}
+		for (HeatmapNew heatmap : heatmapsToBackUp) {
+			heatmaps.put(heatmap.getHeatmapType(), heatmap);
+		}
+
+		File backupDirectory = new File(heatmapsDirectory, HeatmapBackupStore.DIRECTORY_NAME);
+		try (HeatmapBackupStore store = HeatmapBackupStore.open(backupDirectory)) {
+			File backupFile = store.backup(heatmaps.values(), formatDate(LocalDateTime.now()));
+			log.info("Backed up {} heatmaps to '{}' in {} ms, adding {} new chunks ({} KB)", heatmaps.size(), backupFile.getName(),
+				(System.nanoTime() - startTime) / 1_000_000, store.getChunksAdded(), store.getBytesAdded() / 1024);
+			return true;
+		} catch (IOException e) {
+			log.error("World Heatmap was not able to back up heatmaps to '{}': {}", backupDirectory, e.toString());
+			return false;
 		}
 	}
 
+	/**
+	 * Restores a backup from a backup store into a standard .heatmaps file
+	 *
+	 * @param backupFile The backup's file, in its backup store's directory
+	 * @param heatmapsFile The .heatmaps file to write, which shouldn't exist yet
+	 * @return Whether the backup was restored
+	 */
+	protected boolean restoreBackup(File backupFile, File heatmapsFile) {
+		Map<HeatmapNew.HeatmapType, HeatmapNew> heatmaps;
+		try (HeatmapBackupStore store = HeatmapBackupStore.open(backupFile.getParentFile())) {
+			heatmaps = store.read(backupFile);
+		} catch (IOException e) {
+			log.error("World Heatmap was not able to read heatmap backup '{}': {}", backupFile.getName(), e.toString());
+			return false;
+		}
+		return writeHeatmapsToFile(heatmaps.values(), heatmapsFile, false);
+	}
+
+	/**
+	 * Renames a .heatmaps file, keeping track of what its entries hold
+	 *
+	 * @return Whether the file was renamed
+	 */
+	protected synchronized boolean renameHeatmapsFile(File heatmapsFile, File newFile) {
+		boolean recorded = isRecordedFile(heatmapsFile);
+		if (!heatmapsFile.renameTo(newFile)) {
+			return false;
+		}
+		fileIndex.fileRenamed(heatmapsFile, newFile);
+		if (recorded) {
+			setRecordedFile(newFile, new EnumMap<>(recordedEntries));
+		}
+		return true;
+	}
+
+	/**
+	 * @return Whether the file is the recorded file, unmodified since it was recorded
+	 */
+	private boolean isRecordedFile(File file) {
+		return recordedFile != null
+			&& recordedFile.getAbsoluteFile().equals(file.getAbsoluteFile())
+			&& recordedFileSize == file.length()
+			&& recordedFileLastModified == file.lastModified();
+	}
+
+	private void setRecordedFile(File file, Map<HeatmapNew.HeatmapType, RecordedEntry> entries) {
+		recordedFile = file;
+		recordedFileSize = file.length();
+		recordedFileLastModified = file.lastModified();
+		recordedEntries.clear();
+		recordedEntries.putAll(entries);
+	}
+
+	/**
+	 * @return The heatmap type whose data the entry holds, in either format, or null if it isn't a heatmap entry
+	 */
+	@Nullable
+	private static HeatmapNew.HeatmapType getEntryType(String entryName) {
+		for (HeatmapNew.HeatmapType type : HeatmapNew.HeatmapType.values()) {
+			for (HeatmapFileFormat format : HeatmapFileFormat.values()) {
+				if (getEntryName(type, format).substring(1).equals(entryName)) {
+					return type;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the heatmap state entry from the given archive, if it has one
+	 */
+	private static Map<HeatmapNew.HeatmapType, HeatmapState> readStateEntry(FileChannel archive, List<HeatmapArchive.Entry> entries) throws IOException {
+		for (HeatmapArchive.Entry entry : entries) {
+			if (entry.name.equals(STATE_ENTRY_NAME)) {
+				try (BufferedReader reader = new BufferedReader(new InputStreamReader(HeatmapArchive.openEntry(archive, entry), StandardCharsets.UTF_8))) {
+					return parseStateEntry(reader);
+				}
+			}
+		}
+		return new EnumMap<>(HeatmapNew.HeatmapType.class);
+	}
+
+	private static Map<HeatmapNew.HeatmapType, HeatmapState> parseStateEntry(BufferedReader reader) throws IOException {
+		Map<HeatmapNew.HeatmapType, HeatmapState> states = new EnumMap<>(HeatmapNew.HeatmapType.class);
+		reader.readLine(); // Field names
+		String line;
+		while ((line = reader.readLine()) != null) {
+			String[] fields = line.split(",");
+			try {
+				states.put(HeatmapNew.HeatmapType.valueOf(fields[0]), new HeatmapState(Long.parseLong(fields[1]), Integer.parseInt(fields[2]), Long.parseLong(fields[3])));
+			} catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+				log.debug("Invalid line in heatmap state entry: {}", line);
+			}
+		}
+		return states;
+	}
+
 	/**
 	 * Loads the specified heatmap types from the given .heatmaps file.
 	 *
@@ -543,39 +987,216 @@ public class HeatmapFileManager
 	 * @throws FileNotFoundException If the file does not exist
 	 */
 	HashMap<HeatmapNew.HeatmapType, HeatmapNew> readHeatmapsFromFile(File heatmapsFile, Collection<HeatmapNew.HeatmapType> types, boolean verbose) throws FileNotFoundException {
-		Map<String, String> env = new HashMap<>();
-		env.put("create", "true");
+		return readHeatmapsFromFile(heatmapsFile, types, verbose, null);
+	}
+
+	/**
+	 * Loads the specified heatmap types from the given .heatmaps file.
+	 *
+	 * @param heatmapsFile     The .heatmaps file
+	 * @param types            The heatmap types to load
+	 * @param verbose          Whether to log the heatmap types loaded
+	 * @param tileStoreFactory Creates the tile storage for each heatmap type read, or null to use each type's default storage layout
+	 * @return HashMap of HeatmapNew objects
+	 * @throws FileNotFoundException If the file does not exist
+	 */
+	HashMap<HeatmapNew.HeatmapType, HeatmapNew> readHeatmapsFromFile(File heatmapsFile, Collection<HeatmapNew.HeatmapType> types, boolean verbose, @Nullable Function<HeatmapNew.HeatmapType, TileStore> tileStoreFactory) throws FileNotFoundException {
+		// Not created if it's missing, since an empty file would then pass for one without heatmaps
 		URI uri = URI.create("jar:" + heatmapsFile.toURI());
-		try (FileSystem fs = FileSystems.newFileSystem(uri, env)) {
+		try (FileSystem fs = FileSystems.newFileSystem(uri, new HashMap<>())) {
 			HashMap<HeatmapNew.HeatmapType, HeatmapNew> heatmapsRead = new HashMap<>();
+			Map<HeatmapNew.HeatmapType, RecordedEntry> entriesRead = new EnumMap<>(HeatmapNew.HeatmapType.class);
 			StringBuilder loggingOutput = new StringBuilder();
 			loggingOutput.append("Heatmap types loaded: ");
 
+			Map<HeatmapNew.HeatmapType, HeatmapState> states = new EnumMap<>(HeatmapNew.HeatmapType.class);
+			Path statePath = fs.getPath("/" + STATE_ENTRY_NAME);
+			if (Files.exists(statePath)) {
+				try (BufferedReader reader = Files.newBufferedReader(statePath, StandardCharsets.UTF_8)) {
+					states = parseStateEntry(reader);
+				} catch (IOException e) {
+					log.error("Error reading heatmap states from .heatmaps entry '{}'", statePath);
+				}
+			}
+
+			// Find each type's entry
+			List<Path> entryPaths = new ArrayList<>();
+			List<HeatmapNew.HeatmapType> entryTypes = new ArrayList<>();
 			for (HeatmapNew.HeatmapType curType : types) {
-				Path curHeatmapPath = fs.getPath("/" + curType.toString() + "_HEATMAP.csv");
-				if (!Files.exists(curHeatmapPath)) {
+				Path csvPath = fs.getPath(getEntryName(curType, HeatmapFileFormat.CSV));
+				Path binaryPath = fs.getPath(getEntryName(curType, HeatmapFileFormat.BINARY));
+				Path curHeatmapPath;
+				if (Files.exists(csvPath) && Files.exists(binaryPath)) {
+					HeatmapState state = states.get(curType);
+					int csvTicks = getEntryGameTimeTicks(csvPath.toString(), (Long) Files.getAttribute(csvPath, "zip:crc"), state, () -> Files.newInputStream(csvPath));
+					int binaryTicks = getEntryGameTimeTicks(binaryPath.toString(), (Long) Files.getAttribute(binaryPath, "zip:crc"), state, () -> Files.newInputStream(binaryPath));
+					curHeatmapPath = csvTicks > binaryTicks ? csvPath : binaryPath;
+				}
+				else if (Files.exists(csvPath)) {
+					curHeatmapPath = csvPath;
+				}
+				else if (Files.exists(binaryPath)) {
+					curHeatmapPath = binaryPath;
+				}
+				else {
 					continue;
 				}
-				try (InputStreamReader isr = new InputStreamReader(Files.newInputStream(curHeatmapPath), StandardCharsets.UTF_8);
-					 BufferedReader reader = new BufferedReader(isr)) {
-					HeatmapNew heatmap = HeatmapNew.fromCSV(reader);
-					heatmapsRead.put(heatmap.getHeatmapType(), heatmap);
-					loggingOutput.append(heatmap.getHeatmapType() + " (" + heatmap.getTileCount() + " tiles), ");
-				} catch (IOException e) {
-                    log.error("Error reading {} heatmap from .heatmaps entry '{}'", curType, curHeatmapPath);
+				entryPaths.add(curHeatmapPath);
+				entryTypes.add(curType);
+			}
+
+			// Decompress and parse the entries concurrently. Heatmaps that go in a shared store (columns of a
+			// ColumnarTileStore) are decoded into storage of their own, since the decoders would otherwise all wait on
+			// the store's lock, and then copied into the store a batch at a time on this thread
+			long decodeStart = System.nanoTime();
+			List<Callable<HeatmapNew>> decoders = new ArrayList<>();
+			List<TileStore> sharedStores = new ArrayList<>();
+			for (int i = 0; i < entryPaths.size(); i++) {
+				Path entryPath = entryPaths.get(i);
+				TileStore tiles = tileStoreFactory == null ? null : tileStoreFactory.apply(entryTypes.get(i));
+				boolean isShared = tiles instanceof ColumnarTileStore.Column;
+				sharedStores.add(isShared ? tiles : null);
+				decoders.add(() -> readHeatmapEntry(entryPath, tiles == null || isShared ? null : type -> tiles));
+			}
+			int threadCount = Math.min(decoders.size(), DECODER_THREAD_COUNT);
+			List<HeatmapNew> decoded = runConcurrently(decoders, threadCount);
+			for (int i = 0; i < decoded.size(); i++) {
+				if (decoded.get(i) != null && sharedStores.get(i) != null) {
+					decoded.set(i, decoded.get(i).copyTo(sharedStores.get(i)));
 				}
 			}
+
+			for (int i = 0; i < entryPaths.size(); i++) {
+				HeatmapNew heatmap = decoded.get(i);
+				if (heatmap == null) {
+					continue;
+				}
+				Path curHeatmapPath = entryPaths.get(i);
+				HeatmapState state = states.get(heatmap.getHeatmapType());
+				if (state != null && state.entryCrc == (Long) Files.getAttribute(curHeatmapPath, "zip:crc")) {
+					heatmap.setGameTimeTicks(state.gameTimeTicks);
+					heatmap.setJournalSequence(state.journalSequence);
+				}
+				else {
+					// Saved without a state, so it's unknown which journaled changes the heatmap includes
+					heatmap.setJournalSequence(HeatmapNew.UNKNOWN_JOURNAL_SEQUENCE);
+				}
+				heatmapsRead.put(heatmap.getHeatmapType(), heatmap);
+				entriesRead.put(heatmap.getHeatmapType(), new RecordedEntry(heatmap.getGeneration(), isBinaryEntry(curHeatmapPath) ? HeatmapFileFormat.BINARY : HeatmapFileFormat.CSV));
+				loggingOutput.append(heatmap.getHeatmapType() + " (" + heatmap.getTileCount() + " tiles), ");
+			}
+			loggingOutput.append("decoded in " + (System.nanoTime() - decodeStart) / 1_000_000 + " ms on " + threadCount + " threads");
 			if (verbose) {
 				log.info(loggingOutput.toString());
 			}
+			recordEntriesRead(heatmapsFile, entriesRead);
 			return heatmapsRead;
 		} catch (FileNotFoundException e) {
 			throw e;
+		} catch (FileSystemNotFoundException | NoSuchFileException e) {
+			throw new FileNotFoundException(heatmapsFile.toString());
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
+	private static boolean isBinaryEntry(Path entryPath) {
+		return entryPath.getFileName().toString().endsWith(".bin");
+	}
+
+	/**
+	 * Gets the game time of one of a type's entries, for choosing between its CSV and binary entries when a file has
+	 * both. Saving removes the entry in the format not being written, so both exist only if an older plugin version that
+	 * doesn't know binary entries has saved the file since, either with the CSV it read before or with a heatmap it
+	 * started afresh. Whichever entry has the most game time is the one played on last.
+	 *
+	 * @param entryName The entry's name
+	 * @param entryCrc  The entry's CRC
+	 * @param state     The type's state, whose game time is the entry's if their CRCs match, since the game time in a
+	 *                  copied entry's header may be older
+	 * @param openEntry Opens the entry
+	 * @return The game time, or -1 if the entry can't be read
+	 */
+	private static int getEntryGameTimeTicks(String entryName, long entryCrc, @Nullable HeatmapState state, Callable<InputStream> openEntry) {
+		if (state != null && state.entryCrc == entryCrc) {
+			return state.gameTimeTicks;
+		}
+		try (InputStream is = openEntry.call()) {
+			return entryName.endsWith(".bin")
+				? HeatmapBinaryFormat.readGameTimeTicks(is)
+				: HeatmapNew.readCSVGameTimeTicks(new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8)));
+		} catch (Exception e) {
+			log.error("Error reading game time from .heatmaps entry '{}'", entryName);
+			return -1;
+		}
+	}
+
+	/**
+	 * Reads a heatmap from a .heatmaps entry in either format
+	 *
+	 * @return The heatmap, or null if it couldn't be read
+	 */
+	@Nullable
+	private static HeatmapNew readHeatmapEntry(Path entryPath, @Nullable Function<HeatmapNew.HeatmapType, TileStore> tileStoreFactory) {
+		try (InputStream is = Files.newInputStream(entryPath)) {
+			if (isBinaryEntry(entryPath)) {
+				return HeatmapBinaryFormat.read(new BufferedInputStream(is), tileStoreFactory);
+			}
+			else {
+				return HeatmapNew.fromCSV(new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8)), tileStoreFactory);
+			}
+		} catch (IOException e) {
+			log.error("Error reading heatmap from .heatmaps entry '{}'", entryPath);
+			return null;
+		}
+	}
+
+	/**
+	 * Runs the tasks on the decoder pool, using up to the given number of its threads, or on this thread if that's one or fewer
+	 *
+	 * @return The tasks' results, in the same order
+	 * @throws IOException If interrupted while waiting for the tasks
+	 */
+	private <T> List<T> runConcurrently(List<Callable<T>> tasks, int threadCount) throws IOException {
+		List<T> results = new ArrayList<>(tasks.size());
+		if (threadCount <= 1) {
+			for (Callable<T> task : tasks) {
+				results.add(call(task));
+			}
+			return results;
+		}
+
+		List<Future<T>> futures = new ArrayList<>(tasks.size());
+		try {
+			for (Callable<T> task : tasks) {
+				futures.add(decoderPool.submit(task));
+			}
+			for (Future<T> future : futures) {
+				results.add(future.get());
+			}
+			return results;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while loading heatmaps", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			for (Future<T> future : futures) {
+				future.cancel(true);
+			}
+		}
+	}
+
+	private static <T> T call(Callable<T> task) {
+		try {
+			return task.call();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	/**
 	 * V1.6.0 fix for file naming scheme.
 	 * I think this fix is to address how previously, due to a syntax typo, the date format was using
@@ -629,9 +1250,17 @@ public class HeatmapFileManager
 				log.error("Could not rename file '{}' to '{}'", file.getName(), newFile.getName());
 			}
 		}
+		fileIndex.invalidate(directory);
 	}
 
-	private Long getLatestHeatmapVersion(File directory)
+	/**
+	 * Returns the latest heatmap version that the entries of the directory's latest .heatmaps file were written with,
+	 * reading just the start of each entry rather than decoding them
+	 *
+	 * @return The version, -1 if no entry could be read, or null if there is no .heatmaps file
+	 * @throws IOException If the file couldn't be read
+	 */
+	private Integer getLatestHeatmapVersion(File directory) throws IOException
 	{
 		// Get latest .heatmaps file in the directory
 		File latestHeatmap = getLatestFile(directory);
@@ -639,18 +1268,34 @@ public class HeatmapFileManager
 			return null;
 		}
 
-		// Find the latest heatmap version of the latest .heatmaps file
-		long latestVersion = -1;
-		try {
-			Map<HeatmapNew.HeatmapType, HeatmapNew> heatmaps = readHeatmapsFromFile(latestHeatmap, List.of(HeatmapNew.HeatmapType.values()), false);
-			for (HeatmapNew heatmap : heatmaps.values()) {
-				if (heatmap.getVersionReadFrom() > latestVersion) {
-					latestVersion = heatmap.getVersionReadFrom();
+		int latestVersion = -1;
+		try (FileChannel channel = FileChannel.open(latestHeatmap.toPath(), StandardOpenOption.READ)) {
+			// Like when reading, a type with entries in both formats goes by the one with the most game time
+			List<HeatmapArchive.Entry> entries = HeatmapArchive.readEntries(channel);
+			Map<HeatmapNew.HeatmapType, HeatmapState> states = readStateEntry(channel, entries);
+			Map<HeatmapNew.HeatmapType, HeatmapArchive.Entry> typeEntries = new EnumMap<>(HeatmapNew.HeatmapType.class);
+			for (HeatmapArchive.Entry entry : entries) {
+				HeatmapNew.HeatmapType type = getEntryType(entry.name);
+				if (type == null) {
+					continue;
+				}
+				HeatmapArchive.Entry other = typeEntries.get(type);
+				if (other == null
+					|| getEntryGameTimeTicks(entry.name, entry.crc, states.get(type), () -> HeatmapArchive.openEntry(channel, entry))
+					> getEntryGameTimeTicks(other.name, other.crc, states.get(type), () -> HeatmapArchive.openEntry(channel, other))) {
+					typeEntries.put(type, entry);
+				}
+			}
+			for (HeatmapArchive.Entry entry : typeEntries.values()) {
+				try (InputStream is = HeatmapArchive.openEntry(channel, entry)) {
+					int version = entry.name.endsWith(".bin")
+						? HeatmapBinaryFormat.readHeatmapVersion(is)
+						: HeatmapNew.readCSVHeatmapVersion(new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8)));
+					latestVersion = Math.max(latestVersion, version);
+				} catch (IOException e) {
+					log.error("Error reading heatmap version from .heatmaps entry '{}'", entry.name);
 				}
 			}
-		}
-		catch (FileNotFoundException e) {
-			throw new RuntimeException(e);
 		}
 		return latestVersion;
 	}
@@ -1,6 +1,5 @@
 package com.worldheatmap;
 
-import java.awt.Color;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.Transparency;
@@ -10,69 +9,130 @@ import java.awt.image.ColorModel;
 import java.awt.image.ComponentColorModel;
 import java.awt.image.ComponentSampleModel;
 import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.PixelInterleavedSampleModel;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
 import java.io.*;
-import java.net.URL;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 import javax.imageio.*;
 import javax.imageio.event.IIOWriteProgressListener;
-import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageInputStreamImpl;
 import javax.imageio.stream.ImageOutputStream;
 
 import lombok.extern.slf4j.Slf4j;
-import net.runelite.api.coords.WorldPoint;
 import net.runelite.client.util.ImageUtil;
 
 /**
  * Class which calculates osrs heatmap image data on demand
  */
 @Slf4j
-public class HeatmapImage implements RenderedImage
+public class HeatmapImage implements RenderedImage, AutoCloseable
 {
-	private final ImageReader worldMapImageReader;
+	private final WorldMap worldMap;
+	// Renders the strips ahead of the image writer asking for them, or null if they're rendered as they're asked for
+	@Nullable
+	private final ForkJoinPool renderPool;
+	private final int stripsInFlight;
+	// The strips being rendered ahead, by index. Guarded by this
+	private final Map<Integer, ForkJoinTask<Raster>> stripsAhead = new HashMap<>();
+	private int nextStripAhead = 0;
 	private final ColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), false, false, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
 
-	// A queue that holds the heatmap coordinates along
-	// with their values, to be sorted by coordinate left-to-right top-to-bottom
-	private static LinkedList<Map.Entry<Point, Integer>> sortedHeatmapTiles;
+	private static final Rectangle PRIFDINNAS = new Rectangle(3391, 5952, 255, 255);
+
+	// The plane 0 heatmap tiles to draw, bucketed by the strips (image tiles) that their 4x4 pixel squares overlap.
+	// The tiles of strip i are stripTiles[stripStarts[i]] to stripTiles[stripStarts[i + 1] - 1], which index into
+	// tilePixelX, tilePixelY and tileValues. A square straddling two strips is in both buckets
+	private int[] tilePixelX;
+	private int[] tilePixelY;
+	private long[] tileValues;
+	private int[] stripStarts;
+	private int[] stripTiles;
+	private final int imageWidth;
+	private final int imageHeight;
 	private final float heatmapTransparency;
 	private final int heatmapSensitivity;
 	private final int numXTiles = 1;
 	private final int numYTiles;
-	private int heatmapMinVal;
-	private int heatmapMaxVal;
+	private long heatmapMinVal;
+	private long heatmapMaxVal;
+	// Rendered strips are decoded world map pixels, which are at most 4 bytes each (RGBA)
+	private static final int STRIP_BYTES_PER_PIXEL = 4;
+	// Hue of each tile value below HUE_TABLE_SIZE, since most tiles have small values
+	private static final int HUE_TABLE_SIZE = 1 << 16;
+	private float[] hueTable;
+	// Brightness of a heatmap pixel, by the brightness of the world map pixel under it (its highest RGB component)
+	private final float[] brightnessTable = new float[256];
+	// The brightness table's entries as 0-255 colour components
+	private final int[] brightnessComponents = new int[256];
 	int PIXEL_OFFSET_X;
 	int PIXEL_OFFSET_Y;
 
+	/**
+	 * The world map image that the heatmap is drawn over, read a region at a time
+	 */
+	interface WorldMap extends Closeable
+	{
+		int getWidth();
+
+		int getHeight();
+
+		/**
+		 * Reads the region of the image into a new image. May be called from several rendering threads at once
+		 */
+		BufferedImage read(Rectangle region) throws IOException;
+	}
+
+	/**
+	 * Opens a new reader of the world map image, so that each rendering thread can read strips with its own
+	 */
+	@FunctionalInterface
+	interface WorldMapReaderFactory
+	{
+		ImageReader open() throws IOException;
+	}
+
 	/**
 	 * @param worldMapImageReader osrs_world_map.png
 	 * @param numYTiles           Image width must be evenly divisible by numYTiles
 	 */
 	public HeatmapImage(HeatmapNew heatmap, ImageReader worldMapImageReader, int numYTiles, float transparency, int sensitivity, int pixelOffsetX, int pixelOffsetY)
 	{
-		this.worldMapImageReader = worldMapImageReader;
+		this(heatmap, new PngWorldMap(worldMapImageReader, null), numYTiles, transparency, sensitivity, pixelOffsetX, pixelOffsetY, 1);
+	}
+
+	/**
+	 * @param worldMap       osrs_world_map.png
+	 * @param numYTiles      Image width must be evenly divisible by numYTiles
+	 * @param stripsInFlight How many strips may be rendered ahead of the image writer at once, which bounds the
+	 *                       memory used to as many strips (plus the one being written). Up to that many threads
+	 *                       render them. With 1, each strip is rendered on the writer's thread as it's asked for
+	 */
+	HeatmapImage(HeatmapNew heatmap, WorldMap worldMap, int numYTiles, float transparency, int sensitivity, int pixelOffsetX, int pixelOffsetY, int stripsInFlight)
+	{
+		this.worldMap = worldMap;
+		this.stripsInFlight = stripsInFlight;
+		int renderThreads = Math.min(stripsInFlight, Runtime.getRuntime().availableProcessors());
+		renderPool = stripsInFlight > 1 ? new ForkJoinPool(Math.max(renderThreads, 1)) : null;
 		this.numYTiles = numYTiles;
 		this.heatmapTransparency = transparency;
 		this.heatmapSensitivity = sensitivity;
 		this.PIXEL_OFFSET_X = pixelOffsetX;
 		this.PIXEL_OFFSET_Y = pixelOffsetY;
-		initializeProcessingVariables(heatmap);
-		try
+		this.imageWidth = worldMap.getWidth();
+		this.imageHeight = worldMap.getHeight();
+		if (imageHeight % numYTiles != 0)
 		{
-			if (worldMapImageReader.getHeight(0) % numYTiles != 0)
-			{
-                log.debug("WARNING: Image height {} is not evenly divisible by the number of Y tiles, {}.", worldMapImageReader.getHeight(0), numYTiles);
-			}
-		}
-		catch (IOException e)
-		{
-			throw new RuntimeException(e);
+			log.debug("WARNING: Image height {} is not evenly divisible by the number of Y tiles, {}.", imageHeight, numYTiles);
 		}
+		initializeProcessingVariables(heatmap);
 	}
 
 	/**
@@ -94,7 +154,15 @@ public class HeatmapImage implements RenderedImage
 		}
 	}
 
-	protected static void writeHeatmapImage(HeatmapNew heatmap, File imageFileOut, boolean isFullMapImage, boolean isBlue, double heatmapTransparency, int heatmapSensitivity, int speedMemoryTradeoff, @Nullable IIOWriteProgressListener progressListener)
+	protected static void writeHeatmapImage(HeatmapNew heatmap, File imageFileOut, boolean isFullMapImage, boolean isBlue, double heatmapTransparency, int heatmapSensitivity, int speedMemoryTradeoff, int stripsInFlight, @Nullable IIOWriteProgressListener progressListener)
+	{
+		writeHeatmapImage(heatmap, imageFileOut, isFullMapImage, isBlue, heatmapTransparency, heatmapSensitivity, speedMemoryTradeoff, stripsInFlight, progressListener, WorldMapCache.getDefault());
+	}
+
+	/**
+	 * @param worldMapCache Where to get the world map images and offsets from
+	 */
+	static void writeHeatmapImage(HeatmapNew heatmap, File imageFileOut, boolean isFullMapImage, boolean isBlue, double heatmapTransparency, int heatmapSensitivity, int speedMemoryTradeoff, int stripsInFlight, @Nullable IIOWriteProgressListener progressListener, WorldMapCache worldMapCache)
 	{
 		log.info("Saving {} image to disk...", imageFileOut);
 		long startTime = System.nanoTime();
@@ -117,15 +185,11 @@ public class HeatmapImage implements RenderedImage
 			heatmapTransparency = 1;
 		}
 
-		String worldMapImageURL = String.format("https://raw.githubusercontent.com/GrandTheftWalrus/gtw-runelite-stuff/main/osrs_world_map%s%s.png", isFullMapImage ? "_full" : "", isBlue ? "_blue" : "");
+		String worldMapFileName = String.format("osrs_world_map%s%s.png", isFullMapImage ? "_full" : "", isBlue ? "_blue" : "");
 
-		// Prepare the image reader
-		try (InputStream inputStream = new URL(worldMapImageURL).openStream();
-			 ImageInputStream worldMapImageInputStream = ImageIO.createImageInputStream(Objects.requireNonNull(inputStream, "Resource didn't exist: '" + worldMapImageURL + "'")))
+		// Prepare the world map, which is downloaded and decoded only if it isn't cached yet
+		try (WorldMap worldMap = worldMapCache.openWorldMap(worldMapFileName))
 		{
-			ImageReader reader = ImageIO.getImageReadersByFormatName("PNG").next();
-			reader.setInput(worldMapImageInputStream, true);
-
 			// Prepare the image writer
 			try (FileOutputStream fos = new FileOutputStream(imageFileOut);
 				 BufferedOutputStream bos = new BufferedOutputStream(fos);
@@ -133,9 +197,9 @@ public class HeatmapImage implements RenderedImage
 			{
 				ImageWriter writer = ImageIO.getImageWritersByFormatName("tif").next();
 				writer.setOutput(ios);
-				final int tileWidth = reader.getWidth(0);
+				final int tileWidth = worldMap.getWidth();
 				final int tileHeight = calculateTileHeight(speedMemoryTradeoff, isFullMapImage);
-				final int N = reader.getHeight(0) / tileHeight;
+				final int N = worldMap.getHeight() / tileHeight;
 
 				// Make progress listener majigger
 				if (progressListener != null)
@@ -152,10 +216,8 @@ public class HeatmapImage implements RenderedImage
 				writeParam.setCompressionQuality(0);
 
 				// Write heatmap image
-				RenderedImage heatmapImage;
-				// Get latest offset values from git repo
-				URL offsetsURL = new URL("https://raw.githubusercontent.com/GrandTheftWalrus/gtw-runelite-stuff/main/offsets.csv");
-				Scanner scanner = new Scanner(offsetsURL.openStream());
+				// Get latest offset values from git repo, as of when they were cached
+				Scanner scanner = new Scanner(new ByteArrayInputStream(worldMapCache.getFile(WorldMapCache.OFFSETS_FILE_NAME)));
 				scanner.next(); // Skip the headers
 				scanner.useDelimiter(",");
 				int fullMapOffsetX = Integer.parseInt(scanner.next().trim());
@@ -164,16 +226,17 @@ public class HeatmapImage implements RenderedImage
 				int overworldMapOffsetY = Integer.parseInt(scanner.next().trim());
 				scanner.close();
 
-				if (isFullMapImage)
+				int offsetX = isFullMapImage ? fullMapOffsetX : overworldMapOffsetX;
+				int offsetY = isFullMapImage ? fullMapOffsetY : overworldMapOffsetY;
+				int allowedStripsInFlight = limitStripsInFlight(stripsInFlight, (long) tileWidth * tileHeight * STRIP_BYTES_PER_PIXEL);
+				if (allowedStripsInFlight < stripsInFlight)
 				{
-					heatmapImage = new HeatmapImage(heatmap, reader, N, (float) heatmapTransparency, heatmapSensitivity, fullMapOffsetX, fullMapOffsetY);
+					log.info("Drawing {} image strips at once instead of {}, to fit the CPU cores and free memory", allowedStripsInFlight, stripsInFlight);
 				}
-				else
+				try (HeatmapImage heatmapImage = new HeatmapImage(heatmap, worldMap, N, (float) heatmapTransparency, heatmapSensitivity, offsetX, offsetY, allowedStripsInFlight))
 				{
-					heatmapImage = new HeatmapImage(heatmap, reader, N, (float) heatmapTransparency, heatmapSensitivity, overworldMapOffsetX, overworldMapOffsetY);
+					writer.write(null, new IIOImage(heatmapImage, null, null), writeParam);
 				}
-				writer.write(null, new IIOImage(heatmapImage, null, null), writeParam);
-				reader.dispose();
 				writer.dispose();
 			}
 			log.info("Finished writing {} image to disk after {} ms", imageFileOut, (System.nanoTime() - startTime) / 1_000_000);
@@ -189,6 +252,61 @@ public class HeatmapImage implements RenderedImage
 		{
 			log.error("Exception thrown whilst creating and/or writing image file: ", e);
 		}
+
+		// Now that the image is written, check whether the world map has been updated since it was cached
+		worldMapCache.refreshStaleFiles();
+	}
+
+	/**
+	 * Limits the strips rendered at once to the available processors, and to as many as fit in a quarter of the free
+	 * heap alongside the one being written, since an image writer that runs out of memory leaves a broken image behind
+	 *
+	 * @param stripBytes The memory taken up by a rendered strip
+	 */
+	static int limitStripsInFlight(int stripsInFlight, long stripBytes)
+	{
+		Runtime runtime = Runtime.getRuntime();
+		long freeBytes = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+		long fittingStrips = freeBytes / 4 / Math.max(stripBytes, 1) - 1;
+		return (int) Math.max(1, Math.min(Math.min(stripsInFlight, runtime.availableProcessors()), fittingStrips));
+	}
+
+	/**
+	 * @return A reader of the PNG image held in memory
+	 */
+	static ImageReader openPngReader(byte[] png)
+	{
+		ImageReader reader = ImageIO.getImageReadersByFormatName("PNG").next();
+		reader.setInput(new ByteArrayImageInputStream(png), true);
+		return reader;
+	}
+
+	/**
+	 * Stops rendering strips ahead. The world map is left open for its owner to close
+	 */
+	@Override
+	public void close()
+	{
+		synchronized (this)
+		{
+			for (ForkJoinTask<Raster> strip : stripsAhead.values())
+			{
+				strip.cancel(true);
+			}
+			stripsAhead.clear();
+		}
+		if (renderPool != null)
+		{
+			renderPool.shutdownNow();
+			try
+			{
+				renderPool.awaitTermination(1, TimeUnit.MINUTES);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
 	}
 
 	@Override
@@ -224,46 +342,7 @@ public class HeatmapImage implements RenderedImage
 	@Override
 	public int getWidth()
 	{
-		try
-		{
-			return worldMapImageReader.getWidth(0);
-		}
-		catch (IOException e)
-		{
-			throw new RuntimeException(e);
-		}
-	}
-
-	/**
-	 * Calculates the min and max values of the heatmap within the overworld
-	 *
-	 * @param heatmap The heatmap
-	 * @return An array of length 2, where the first element is the max value and the second element is the min value
-	 */
-	private int[] calculateMaxMinValues(HeatmapNew heatmap)
-	{
-		int maxVal = 0;
-		int minVal = Integer.MAX_VALUE;
-		if (heatmap.getEntrySet().isEmpty())
-		{
-			return new int[]{0, 0};
-		}
-		for (Map.Entry<WorldPoint, Integer> tile : heatmap.getEntrySet())
-		{
-			Point point = new Point(tile.getKey().getX(), tile.getKey().getY());
-			if (isGameTileInImageBounds(point))
-			{
-				if (tile.getValue() > maxVal)
-				{
-					maxVal = tile.getValue();
-				}
-				if (tile.getValue() < minVal)
-				{
-					minVal = tile.getValue();
-				}
-			}
-		}
-		return new int[]{maxVal, minVal};
+		return imageWidth;
 	}
 
 	public boolean isGameTileInImageBounds(Point point)
@@ -275,14 +354,7 @@ public class HeatmapImage implements RenderedImage
 	@Override
 	public int getHeight()
 	{
-		try
-		{
-			return worldMapImageReader.getHeight(0);
-		}
-		catch (IOException e)
-		{
-			throw new RuntimeException(e);
-		}
+		return imageHeight;
 	}
 
 	@Override
@@ -362,14 +434,57 @@ public class HeatmapImage implements RenderedImage
 	@Override
 	public Raster getData(Rectangle rect)
 	{
-		ImageReadParam readParam = worldMapImageReader.getDefaultReadParam();
-		readParam.setSourceRegion(rect);
+		// The image writer asks for the strips top to bottom, so the ones after it are rendered in the meantime
+		int stripHeight = getTileHeight();
+		if (renderPool != null && rect.x == 0 && rect.width == imageWidth && rect.height == stripHeight && rect.y % stripHeight == 0 && rect.y / stripHeight < numYTiles)
+		{
+			return getStrip(rect.y / stripHeight);
+		}
+		return render(rect);
+	}
+
+	/**
+	 * Returns the rendered strip, once it's done, and starts rendering the strips after it
+	 */
+	private Raster getStrip(int strip)
+	{
+		ForkJoinTask<Raster> task;
+		synchronized (this)
+		{
+			task = stripsAhead.remove(strip);
+			if (task == null)
+			{
+				// Not rendered ahead, such as the first strip
+				task = submitStrip(strip);
+			}
+			nextStripAhead = Math.max(nextStripAhead, strip + 1);
+			while (nextStripAhead < numYTiles && stripsAhead.size() < stripsInFlight - 1)
+			{
+				stripsAhead.put(nextStripAhead, submitStrip(nextStripAhead));
+				nextStripAhead++;
+			}
+		}
+		return task.join();
+	}
+
+	private ForkJoinTask<Raster> submitStrip(int strip)
+	{
+		Rectangle rect = new Rectangle(0, strip * getTileHeight(), imageWidth, getTileHeight());
+		return renderPool.submit(() -> render(rect));
+	}
+
+	/**
+	 * Reads the region of the world map image and draws the heatmap on it
+	 */
+	private Raster render(Rectangle rect)
+	{
 		try
 		{
 			// Reads only the specified rect from osrs_world_map.png into memory
-			BufferedImage bi = worldMapImageReader.read(0, readParam);
+			BufferedImage bi = worldMap.read(rect);
 			processImageRegion(bi, rect);
-			return bi.getData();
+			// The image was read just for this, so its raster can be handed over as is rather than copied
+			return bi.getRaster();
 		}
 		catch (IOException e)
 		{
@@ -384,73 +499,152 @@ public class HeatmapImage implements RenderedImage
 	}
 
 	/**
-	 * Assumes that the image will be processed in natural reading order pixel-wise (left-to-right, top-to-bottom) otherwise it won't work.
-	 * Make sure that initializeProcessingParameters() has been run before running this
+	 * Draws the heatmap tiles whose pixels fall within the region onto it. Regions can be processed in any order,
+	 * but each region must only be processed once, since drawing is based on the pixels' current brightness.
+	 * Make sure that initializeProcessingVariables() has been run before running this
 	 *
 	 * @param imageRegion The image region to be drawn on
 	 * @param region      The x,y,width,height coordinates of where the imageRegion came from in the whole image
 	 */
 	public void processImageRegion(BufferedImage imageRegion, Rectangle region)
 	{
-		// Run them heatmap tiles through the ol' rigamarole
-		// For each pixel in current image region
-		while (!sortedHeatmapTiles.isEmpty())
+		// Work on the image's bytes directly when it's laid out as the world map PNGs are read, rather than
+		// converting every pixel to and from ARGB through its ColorModel with getRGB() and setRGB()
+		WritableRaster raster = imageRegion.getRaster();
+		byte[] data = null;
+		int pixelStride = 0;
+		int scanlineStride = 0;
+		int baseIndex = 0;
+		int[] bandOffsets = null;
+		if (isByteInterleavedRGB(imageRegion))
 		{
-			Map.Entry<Point, Integer> gameTile = sortedHeatmapTiles.poll();
-			Point tilePixel = gameTile.getKey(); // tilePixel is the upper-left coordinate of the 4x4 pixel square that this tile covers
-			tilePixel = gameCoordsToImageCoords(tilePixel);
-			boolean isInImageBounds = (tilePixel.x >= 0 && tilePixel.y >= 0 && tilePixel.x < getWidth() && tilePixel.y < getHeight());
-			int tileValue = gameTile.getValue();
-
-			boolean pixelIsBeforeRegion = (compareNaturalReadingOrder(tilePixel.x, tilePixel.y, region.x, region.y) < 0);
-			boolean pixelIsAfterRegion = (compareNaturalReadingOrder(tilePixel.x, tilePixel.y, region.x + region.width, region.y + region.height) > 0);
-			// If current tile is after bottom right edge of current image region in reading order
-			if (pixelIsAfterRegion)
-			{
-				// put it back in the front of the queue and return
-				sortedHeatmapTiles.addFirst(gameTile);
-				return;
-			}
-			// If current tile is before upper left edge of current image region, or is out of bounds, or hasn't been stepped on, skip this tile
-			if (pixelIsBeforeRegion || !isInImageBounds || tileValue == 0)
+			PixelInterleavedSampleModel sampleModel = (PixelInterleavedSampleModel) raster.getSampleModel();
+			DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+			data = dataBuffer.getData();
+			pixelStride = sampleModel.getPixelStride();
+			scanlineStride = sampleModel.getScanlineStride();
+			bandOffsets = sampleModel.getBandOffsets();
+			baseIndex = dataBuffer.getOffset()
+				- raster.getSampleModelTranslateY() * scanlineStride
+				- raster.getSampleModelTranslateX() * pixelStride;
+		}
+		boolean hasAlpha = imageRegion.getColorModel().hasAlpha();
+
+		int stripHeight = getTileHeight();
+		int regionBottom = Math.min(region.y + region.height, region.y + imageRegion.getHeight());
+		int regionRight = Math.min(region.x + region.width, region.x + imageRegion.getWidth());
+		int firstStrip = Math.max(region.y / stripHeight, 0);
+		int lastStrip = Math.min((regionBottom - 1) / stripHeight, numYTiles - 1);
+		for (int strip = firstStrip; strip <= lastStrip; strip++)
+		{
+			for (int i = stripStarts[strip]; i < stripStarts[strip + 1]; i++)
 			{
-				continue;
-			}
-			// Else continue
+				int tile = stripTiles[i];
+				int tileX = tilePixelX[tile]; // The upper-left coordinate of the 4x4 pixel square that this tile covers
+				int tileY = tilePixelY[tile];
+				// A square straddling two strips is in both of their buckets, but must only be drawn once
+				if (strip > firstStrip && tileY < strip * stripHeight)
+				{
+					continue;
+				}
 
-			// Calculate color
-			double currHue = calculateHue(tileValue, heatmapSensitivity, heatmapMinVal, heatmapMaxVal);
-			// Reassign the new RGB values to the corresponding 9 pixels (each tile covers 3x3 image pixels)
-			for (int x_offset = 0; x_offset < 4; x_offset++)
-			{
-				for (int y_offset = 0; y_offset < 4; y_offset++)
+				// Clip the square to the region
+				int left = Math.max(tileX, region.x);
+				int right = Math.min(tileX + 4, regionRight);
+				int top = Math.max(tileY, region.y);
+				int bottom = Math.min(tileY + 4, regionBottom);
+				if (left >= right || top >= bottom)
+				{
+					continue;
+				}
+
+				// Calculate color. What follows is Color.HSBtoRGB(hue, 1, brightness) with the hue's part worked out once per tile,
+				// which gives the same colours as converting each pixel to HSB and back, without the floating point work
+				long tileValue = tileValues[tile];
+				float hue = tileValue < hueTable.length ? hueTable[(int) tileValue] : (float) calculateHue(tileValue, heatmapSensitivity, heatmapMinVal, heatmapMaxVal);
+				float h = (hue - (float) Math.floor(hue)) * 6.0f;
+				float f = h - (float) Math.floor(h);
+				int sector = (int) h;
+				float qFactor = 1.0f - f;
+				float tFactor = 1.0f - (1.0f - f);
+				// Reassign the new RGB values to the corresponding 16 pixels (each tile covers 4x4 image pixels)
+				for (int x = left; x < right; x++)
 				{
-					int curX = tilePixel.x - region.x + x_offset;
-					int curY = tilePixel.y - region.y + y_offset;
-					if (curY >= imageRegion.getHeight())
+					for (int y = top; y < bottom; y++)
 					{
-						// put it back in the front of the queue and return
-						sortedHeatmapTiles.addFirst(gameTile);
-						return;
+						int curX = x - region.x;
+						int curY = y - region.y;
+						if (data != null)
+						{
+							int index = baseIndex + curY * scanlineStride + curX * pixelStride;
+							int max = Math.max(data[index + bandOffsets[0]] & 0xFF, Math.max(data[index + bandOffsets[1]] & 0xFF, data[index + bandOffsets[2]] & 0xFF));
+							int currRGB = shade(sector, qFactor, tFactor, max);
+							data[index + bandOffsets[0]] = (byte) (currRGB >> 16);
+							data[index + bandOffsets[1]] = (byte) (currRGB >> 8);
+							data[index + bandOffsets[2]] = (byte) currRGB;
+							if (hasAlpha)
+							{
+								data[index + bandOffsets[3]] = (byte) 0xFF;
+							}
+						}
+						else
+						{
+							int srcRGB = imageRegion.getRGB(curX, curY);
+							int max = Math.max((srcRGB >> 16) & 0xFF, Math.max((srcRGB >> 8) & 0xFF, srcRGB & 0xFF));
+							imageRegion.setRGB(curX, curY, 0xff000000 | shade(sector, qFactor, tFactor, max));
+						}
 					}
-					else if (curX >= imageRegion.getWidth()){
-						// Skip this pixel
-						continue;
-					}
-					int srcRGB = imageRegion.getRGB(curX, curY);
-					int r = (srcRGB >> 16) & 0xFF;
-					int g = (srcRGB >> 8) & 0xFF;
-					int b = (srcRGB) & 0xFF;
-					float brightness = Color.RGBtoHSB(r, g, b, null)[2] * (1 - heatmapTransparency) + heatmapTransparency;
-					// convert HSB to RGB with the calculated Hue, with Saturation=1
-					int currRGB = Color.HSBtoRGB((float) currHue, 1, brightness);
-					imageRegion.setRGB(curX, curY, currRGB);
 				}
 			}
 		}
 	}
 
-	private double calculateHue(int tileValue, int heatmapSensitivity, int minVal, int maxVal)
+	/**
+	 * @return The RGB of a heatmap pixel of the tile's hue over a world map pixel with the given highest RGB component
+	 */
+	private int shade(int sector, float qFactor, float tFactor, int max)
+	{
+		float brightness = brightnessTable[max];
+		int full = brightnessComponents[max];
+		int q = (int) (brightness * qFactor * 255.0f + 0.5f);
+		int t = (int) (brightness * tFactor * 255.0f + 0.5f);
+		switch (sector)
+		{
+			case 0:
+				return (full << 16) | (t << 8);
+			case 1:
+				return (q << 16) | (full << 8);
+			case 2:
+				return (full << 8) | t;
+			case 3:
+				return (q << 8) | full;
+			case 4:
+				return (t << 16) | full;
+			case 5:
+				return (full << 16) | q;
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * @return Whether the image's pixels are stored as interleaved 8 bit sRGB samples, with an optional non-premultiplied alpha
+	 */
+	private static boolean isByteInterleavedRGB(BufferedImage image)
+	{
+		ColorModel colorModel = image.getColorModel();
+		WritableRaster raster = image.getRaster();
+		int numBands = colorModel.hasAlpha() ? 4 : 3;
+		return colorModel instanceof ComponentColorModel
+			&& colorModel.getColorSpace().isCS_sRGB()
+			&& !colorModel.isAlphaPremultiplied()
+			&& raster.getTransferType() == DataBuffer.TYPE_BYTE
+			&& raster.getNumBands() == numBands
+			&& raster.getSampleModel() instanceof PixelInterleavedSampleModel
+			&& raster.getDataBuffer() instanceof DataBufferByte;
+	}
+
+	private double calculateHue(long tileValue, int heatmapSensitivity, long minVal, long maxVal)
 	{
 		double nthRoot = 1 + (heatmapSensitivity - 1.0) / 2;
 		int logBase = 4;
@@ -462,31 +656,272 @@ public class HeatmapImage implements RenderedImage
 		return currHue;
 	}
 
-	private int compareNaturalReadingOrder(int x1, int y1, int x2, int y2)
+	/**
+	 * Builds the strip buckets of the plane 0 tiles that fall within the image, in two linear passes: one over the
+	 * heatmap's tiles, which also finds the max and min values that the colours are scaled to, and one to place the
+	 * tiles in their strips' buckets.
+	 */
+	private void initializeProcessingVariables(HeatmapNew heatmap)
 	{
-		// This should return the difference in the row-major order of the two points
-		int rowMajor1 = y1 * getWidth() + x1;
-		int rowMajor2 = y2 * getWidth() + x2;
-		return rowMajor1 - rowMajor2;
+		long startTime = System.nanoTime();
+		// Gather the pixel locations of the tiles, counting how many each strip gets
+		int stripHeight = getTileHeight();
+		int capacity = Math.max(heatmap.getTileCount(), 16);
+		tilePixelX = new int[capacity];
+		tilePixelY = new int[capacity];
+		tileValues = new long[capacity];
+		stripStarts = new int[numYTiles + 1];
+		int tileCount = 0;
+		int bucketedCount = 0;
+		long maxVal = 0;
+		long minVal = Long.MAX_VALUE;
+		TileCursor tile = heatmap.cursor();
+		while (tile.next())
+		{
+			// Keep only tiles that have been stepped on
+			long value = tile.getValue();
+			if (value == 0)
+			{
+				continue;
+			}
+			int x = tile.getX();
+			int y = tile.getY();
+			if (PRIFDINNAS.contains(x, y))
+			{
+				x -= 1024;
+				y -= 2752;
+			}
+			int pixelX = 4 * x + PIXEL_OFFSET_X;
+			int pixelY = imageHeight - (4 * y) + PIXEL_OFFSET_Y;
+			if (pixelX < 0 || pixelY < 0 || pixelX >= imageWidth || pixelY >= imageHeight)
+			{
+				continue;
+			}
+			// The colours are scaled to the tiles within the image, so that tiles off the map (instances,
+			// minigames, etc.) don't wash it out. Those on every plane count, as they always have
+			maxVal = Math.max(maxVal, value);
+			minVal = Math.min(minVal, value);
+			// Keep only plane 0 overworld tiles
+			if (tile.getPlane() != 0)
+			{
+				continue;
+			}
+			int firstStrip = pixelY / stripHeight;
+			if (firstStrip >= numYTiles)
+			{
+				continue;
+			}
+			int lastStrip = Math.min((pixelY + 3) / stripHeight, numYTiles - 1);
+
+			if (tileCount == tilePixelX.length)
+			{
+				int newCapacity = tileCount * 2;
+				tilePixelX = Arrays.copyOf(tilePixelX, newCapacity);
+				tilePixelY = Arrays.copyOf(tilePixelY, newCapacity);
+				tileValues = Arrays.copyOf(tileValues, newCapacity);
+			}
+			tilePixelX[tileCount] = pixelX;
+			tilePixelY[tileCount] = pixelY;
+			tileValues[tileCount] = value;
+			tileCount++;
+			for (int strip = firstStrip; strip <= lastStrip; strip++)
+			{
+				stripStarts[strip + 1]++;
+				bucketedCount++;
+			}
+		}
+
+		heatmapMaxVal = maxVal;
+		heatmapMinVal = minVal == Long.MAX_VALUE ? 0 : minVal;
+
+		// Precompute the colours' hues and brightnesses
+		hueTable = new float[(int) Math.min(heatmapMaxVal + 1, HUE_TABLE_SIZE)];
+		for (int hueValue = 1; hueValue < hueTable.length; hueValue++)
+		{
+			hueTable[hueValue] = (float) calculateHue(hueValue, heatmapSensitivity, heatmapMinVal, heatmapMaxVal);
+		}
+		for (int max = 0; max < 256; max++)
+		{
+			// As Color.RGBtoHSB() calculates brightness
+			brightnessTable[max] = (max / 255.0f) * (1 - heatmapTransparency) + heatmapTransparency;
+			brightnessComponents[max] = (int) (brightnessTable[max] * 255.0f + 0.5f);
+		}
+
+		// Place the tiles in their strips' buckets
+		for (int strip = 0; strip < numYTiles; strip++)
+		{
+			stripStarts[strip + 1] += stripStarts[strip];
+		}
+		stripTiles = new int[bucketedCount];
+		int[] nextSlot = Arrays.copyOf(stripStarts, numYTiles);
+		for (int i = 0; i < tileCount; i++)
+		{
+			int pixelY = tilePixelY[i];
+			int lastStrip = Math.min((pixelY + 3) / stripHeight, numYTiles - 1);
+			for (int strip = pixelY / stripHeight; strip <= lastStrip; strip++)
+			{
+				stripTiles[nextSlot[strip]++] = i;
+			}
+		}
+		log.debug("Indexed {} heatmap tiles into {} image strips in {} ms", tileCount, numYTiles, (System.nanoTime() - startTime) / 1_000_000);
 	}
 
-	private void initializeProcessingVariables(HeatmapNew heatmap)
+	/**
+	 * World map read from a PNG image. Since ImageReaders aren't thread-safe, each thread reading it at once gets its own
+	 */
+	static class PngWorldMap implements WorldMap
+	{
+		@Nullable
+		private final WorldMapReaderFactory readerFactory;
+		// Readers that aren't reading a region at the moment. Guarded by itself
+		private final Deque<ImageReader> idleReaders = new ArrayDeque<>();
+		private final List<ImageReader> readers = new ArrayList<>();
+		private final int width;
+		private final int height;
+
+		/**
+		 * @param reader        Reader of the PNG image
+		 * @param readerFactory Opens more readers of the PNG image, or null to have threads take turns with the one reader
+		 */
+		PngWorldMap(ImageReader reader, @Nullable WorldMapReaderFactory readerFactory)
+		{
+			this.readerFactory = readerFactory;
+			idleReaders.push(reader);
+			readers.add(reader);
+			try
+			{
+				width = reader.getWidth(0);
+				height = reader.getHeight(0);
+			}
+			catch (IOException e)
+			{
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public int getWidth()
+		{
+			return width;
+		}
+
+		@Override
+		public int getHeight()
+		{
+			return height;
+		}
+
+		@Override
+		public BufferedImage read(Rectangle region) throws IOException
+		{
+			ImageReader reader;
+			synchronized (idleReaders)
+			{
+				while ((reader = idleReaders.poll()) == null && readerFactory == null)
+				{
+					try
+					{
+						idleReaders.wait();
+					}
+					catch (InterruptedException e)
+					{
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException();
+					}
+				}
+			}
+			try
+			{
+				if (reader == null)
+				{
+					reader = readerFactory.open();
+					synchronized (idleReaders)
+					{
+						readers.add(reader);
+					}
+				}
+				ImageReadParam readParam = reader.getDefaultReadParam();
+				readParam.setSourceRegion(region);
+				return reader.read(0, readParam);
+			}
+			finally
+			{
+				if (reader != null)
+				{
+					synchronized (idleReaders)
+					{
+						idleReaders.push(reader);
+						idleReaders.notify();
+					}
+				}
+			}
+		}
+
+		/**
+		 * Disposes of the readers
+		 */
+		@Override
+		public void close()
+		{
+			synchronized (idleReaders)
+			{
+				for (ImageReader reader : readers)
+				{
+					reader.dispose();
+				}
+				readers.clear();
+				idleReaders.clear();
+			}
+		}
+	}
+
+	/**
+	 * Image input stream over an image held in memory, which unlike ImageIO.createImageInputStream() doesn't copy it
+	 * into a cache, so that any number of readers can share it
+	 */
+	private static class ByteArrayImageInputStream extends ImageInputStreamImpl
 	{
-		// Get min/max values within writeable region to be written
-		int[] maxMin = calculateMaxMinValues(heatmap);
-		heatmapMaxVal = maxMin[0];
-		heatmapMinVal = maxMin[1];
+		private final byte[] bytes;
+
+		ByteArrayImageInputStream(byte[] bytes)
+		{
+			this.bytes = bytes;
+		}
+
+		@Override
+		public int read()
+		{
+			bitOffset = 0;
+			if (streamPos >= bytes.length)
+			{
+				return -1;
+			}
+			return bytes[(int) streamPos++] & 0xFF;
+		}
 
-		// Create sorted heatmap tiles array (sorted left-to-right top-to-bottom)
-		// Converting Points to WorldPoints
-		sortedHeatmapTiles = heatmap.getEntrySet().stream()
-			.filter(e -> e.getKey().getPlane() == 0) // Keep only plane 0 overworld tiles
-			.map(e -> new AbstractMap.SimpleEntry<>(new Point(e.getKey().getX(), e.getKey().getY()), e.getValue()))
-			.sorted((tile1, tile2) -> {
-				Point coords1 = tile1.getKey();
-				Point coords2 = tile2.getKey();
-				return compareNaturalReadingOrder(coords1.x, -coords1.y, coords2.x, -coords2.y);
-			}).collect(Collectors.toCollection(LinkedList::new));
+		@Override
+		public int read(byte[] b, int off, int len)
+		{
+			bitOffset = 0;
+			if (len == 0)
+			{
+				return 0;
+			}
+			if (streamPos >= bytes.length)
+			{
+				return -1;
+			}
+			int count = (int) Math.min(len, bytes.length - streamPos);
+			System.arraycopy(bytes, (int) streamPos, b, off, count);
+			streamPos += count;
+			return count;
+		}
+
+		@Override
+		public long length()
+		{
+			return bytes.length;
+		}
 	}
 
 	/**
@@ -518,8 +953,7 @@ public class HeatmapImage implements RenderedImage
 	private static Point remapGameTiles(Point point)
 	{
 		// Prifdinnas
-		Rectangle prifdinnas = new Rectangle(3391, 5952, 255, 255);
-		if (prifdinnas.contains(point))
+		if (PRIFDINNAS.contains(point))
 		{
 			return new Point(point.x - 1024, point.y - 2752);
 		}
@@ -0,0 +1,454 @@
+package com.worldheatmap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Append-only journal of the tile changes made to the loaded heatmaps since they were last saved, so that
+ * a crash only loses the last few seconds of data rather than everything since the last autosave.
+ * <p>
+ * Every change to an attached heatmap is recorded as a (heatmap type, tile, value delta) record with a
+ * sequence number. Records are buffered in memory and appended to the journal file in batches by flush(),
+ * which the plugin calls every few seconds. After a .heatmaps file is saved, checkpoint() drops the
+ * records that the saved heatmaps include. On the next login, attach() replays the remaining records onto
+ * the heatmaps loaded from the latest .heatmaps file, which knows the sequence number of the last record
+ * each of its heatmaps includes (see HeatmapNew.journalSequence).
+ * <p>
+ * File layout: the magic number and format version, the names of the heatmap types (records refer to types
+ * by index into these), and then any number of blocks. Each block is its payload length, the payload's CRC-32,
+ * and the payload: one (type index, sequence delta, tile key delta, value delta) record of varints after another.
+ * A torn or corrupt block at the end of the file, as left by a crash mid-flush, is ignored.
+ */
+@Slf4j
+public class HeatmapJournal
+{
+	static final String FILE_NAME = "heatmaps.journal";
+	private static final int MAGIC = 0x57484D4A; // "WHMJ"
+	private static final int FORMAT_VERSION = 1;
+	private static final int MAX_BLOCK_SIZE = 1 << 26;
+
+	private final File file;
+	private FileChannel channel;
+
+	// Records not yet included in a saved .heatmaps file, oldest first. The first flushedCount are in the file
+	private byte[] recordTypes = new byte[1024];
+	private long[] recordSequences = new long[1024];
+	private long[] recordKeys = new long[1024];
+	private long[] recordDeltas = new long[1024];
+	private int recordCount = 0;
+	private int flushedCount = 0;
+	private long nextSequence;
+
+	private HeatmapJournal(File file)
+	{
+		this.file = file;
+	}
+
+	/**
+	 * Opens the journal file, creating it if it doesn't exist, and reads the records it holds
+	 *
+	 * @param file The journal file, which lives next to the .heatmaps files it journals for
+	 */
+	static HeatmapJournal open(File file) throws IOException
+	{
+		HeatmapJournal journal = new HeatmapJournal(file);
+		if (file.exists())
+		{
+			journal.readFile();
+		}
+		// Sequence numbers have to keep increasing across sessions, even if the journal file is lost
+		long maxSequence = journal.recordCount == 0 ? 0 : journal.recordSequences[journal.recordCount - 1];
+		journal.nextSequence = Math.max(maxSequence + 1, System.currentTimeMillis() * 1000);
+		// Rewrite the file without any torn block at its end, so that new blocks can be appended to it
+		journal.rewrite();
+		if (journal.recordCount > 0)
+		{
+			log.info("Heatmap journal has {} changes not yet in the latest heatmaps file", journal.recordCount);
+		}
+		return journal;
+	}
+
+	private void readFile() throws IOException
+	{
+		ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		HeatmapNew.HeatmapType[] fileTypes;
+		try
+		{
+			if (data.getInt() != MAGIC || data.get() != FORMAT_VERSION)
+			{
+				log.error("Ignoring heatmap journal '{}' of unknown format", file);
+				return;
+			}
+			fileTypes = new HeatmapNew.HeatmapType[data.getShort()];
+			for (int i = 0; i < fileTypes.length; i++)
+			{
+				byte[] name = new byte[data.getShort()];
+				data.get(name);
+				try
+				{
+					fileTypes[i] = HeatmapNew.HeatmapType.valueOf(new String(name, StandardCharsets.UTF_8));
+				}
+				catch (IllegalArgumentException e)
+				{
+					// A type from another version of the plugin. Its records are dropped
+					fileTypes[i] = null;
+				}
+			}
+		}
+		catch (RuntimeException e)
+		{
+			log.error("Ignoring heatmap journal '{}' with a corrupt header", file);
+			return;
+		}
+
+		CRC32 crc = new CRC32();
+		while (data.remaining() >= 8)
+		{
+			int length = data.getInt();
+			int expectedCrc = data.getInt();
+			if (length < 0 || length > data.remaining())
+			{
+				log.warn("Ignoring torn block at the end of heatmap journal '{}'", file);
+				return;
+			}
+			crc.reset();
+			crc.update(data.array(), data.position(), length);
+			if ((int) crc.getValue() != expectedCrc)
+			{
+				log.warn("Ignoring corrupt block at the end of heatmap journal '{}'", file);
+				return;
+			}
+			ByteBuffer block = data.slice();
+			block.limit(length);
+			data.position(data.position() + length);
+			long sequence = 0;
+			long key = 0;
+			try
+			{
+				while (block.hasRemaining())
+				{
+					int typeIndex = block.get() & 0xFF;
+					sequence += readVarLong(block);
+					key += zigzagDecode(readVarLong(block));
+					long delta = zigzagDecode(readVarLong(block));
+					if (typeIndex < fileTypes.length && fileTypes[typeIndex] != null)
+					{
+						add((byte) fileTypes[typeIndex].ordinal(), sequence, key, delta);
+					}
+				}
+			}
+			catch (RuntimeException e)
+			{
+				log.error("Ignoring malformed block in heatmap journal '{}'", file);
+				return;
+			}
+		}
+	}
+
+	private void add(byte type, long sequence, long key, long delta)
+	{
+		if (recordCount == recordTypes.length)
+		{
+			int capacity = recordCount * 2;
+			recordTypes = Arrays.copyOf(recordTypes, capacity);
+			recordSequences = Arrays.copyOf(recordSequences, capacity);
+			recordKeys = Arrays.copyOf(recordKeys, capacity);
+			recordDeltas = Arrays.copyOf(recordDeltas, capacity);
+		}
+		recordTypes[recordCount] = type;
+		recordSequences[recordCount] = sequence;
+		recordKeys[recordCount] = key;
+		recordDeltas[recordCount] = delta;
+		recordCount++;
+	}
+
+	/**
+	 * Records a change to a tile of an attached heatmap. Only buffers it: it's written to the file by the next flush().
+	 *
+	 * @return The record's sequence number
+	 */
+	synchronized long record(HeatmapNew.HeatmapType type, int x, int y, int z, long delta)
+	{
+		long sequence = nextSequence++;
+		add((byte) type.ordinal(), sequence, TileKey.pack(x, y, z), delta);
+		return sequence;
+	}
+
+	/**
+	 * Replays the records the heatmap doesn't include yet onto it, and then records its future changes.
+	 * The heatmap mustn't be changed meanwhile.
+	 */
+	void attach(HeatmapNew heatmap)
+	{
+		if (heatmap.getJournal() == this)
+		{
+			return;
+		}
+		HeatmapNew.HeatmapType type = heatmap.getHeatmapType();
+		long includedSequence = heatmap.getJournalSequence();
+
+		// Gather the records first, since the heatmap can't be locked while the journal is
+		int replayCount = 0;
+		long[] keys;
+		long[] deltas;
+		long lastSequence = includedSequence;
+		// The journal's high-water mark once the records are gathered
+		long latestSequence;
+		synchronized (this)
+		{
+			keys = new long[recordCount];
+			deltas = new long[recordCount];
+			for (int i = 0; i < recordCount; i++)
+			{
+				if (recordTypes[i] == type.ordinal() && recordSequences[i] > includedSequence)
+				{
+					keys[replayCount] = recordKeys[i];
+					deltas[replayCount] = recordDeltas[i];
+					replayCount++;
+					lastSequence = recordSequences[i];
+				}
+			}
+			nextSequence = Math.max(nextSequence, lastSequence + 1);
+			latestSequence = nextSequence - 1;
+		}
+
+		if (includedSequence == HeatmapNew.UNKNOWN_JOURNAL_SEQUENCE)
+		{
+			// The heatmap was saved by something that doesn't know about the journal, so replaying could count changes twice
+			if (replayCount > 0)
+			{
+				log.warn("Discarding {} journaled changes to the {} heatmap, since its saved data may already include them", replayCount, type);
+			}
+			// From now on it's known to include everything journaled so far, so that its next save isn't unknown too and
+			// the changes journaled after it are replayed
+			lastSequence = latestSequence;
+		}
+		else
+		{
+			for (int i = 0; i < replayCount; i++)
+			{
+				long key = keys[i];
+				heatmap.increment(TileKey.getX(key), TileKey.getY(key), TileKey.getPlane(key), deltas[i]);
+			}
+			if (replayCount > 0)
+			{
+				log.info("Replayed {} journaled changes to the {} heatmap", replayCount, type);
+			}
+		}
+		heatmap.setJournalSequence(lastSequence);
+		heatmap.setJournal(this);
+	}
+
+	/**
+	 * Appends the buffered records to the journal file and forces them to disk
+	 */
+	synchronized void flush()
+	{
+		if (flushedCount == recordCount || channel == null)
+		{
+			return;
+		}
+		try
+		{
+			writeFully(channel, encodeBlock(flushedCount, recordCount));
+			channel.force(false);
+			flushedCount = recordCount;
+		}
+		catch (IOException e)
+		{
+			log.error("Error writing heatmap journal '{}': {}", file, e.toString());
+		}
+	}
+
+	/**
+	 * Drops the records that the saved heatmaps include, now that they're safely in a .heatmaps file
+	 *
+	 * @param savedHeatmaps The snapshots of the heatmaps that were saved
+	 */
+	synchronized void checkpoint(Collection<HeatmapNew> savedHeatmaps)
+	{
+		Map<HeatmapNew.HeatmapType, Long> includedSequences = new EnumMap<>(HeatmapNew.HeatmapType.class);
+		for (HeatmapNew heatmap : savedHeatmaps)
+		{
+			includedSequences.put(heatmap.getHeatmapType(), heatmap.getJournalSequence());
+		}
+		HeatmapNew.HeatmapType[] types = HeatmapNew.HeatmapType.values();
+		int kept = 0;
+		for (int i = 0; i < recordCount; i++)
+		{
+			Long includedSequence = includedSequences.get(types[recordTypes[i]]);
+			if (includedSequence != null && recordSequences[i] <= includedSequence)
+			{
+				continue;
+			}
+			recordTypes[kept] = recordTypes[i];
+			recordSequences[kept] = recordSequences[i];
+			recordKeys[kept] = recordKeys[i];
+			recordDeltas[kept] = recordDeltas[i];
+			kept++;
+		}
+		recordCount = kept;
+		try
+		{
+			rewrite();
+		}
+		catch (IOException e)
+		{
+			log.error("Error truncating heatmap journal '{}': {}", file, e.toString());
+		}
+	}
+
+	/**
+	 * Flushes the buffered records and closes the journal file
+	 */
+	synchronized void close()
+	{
+		flush();
+		if (channel != null)
+		{
+			try
+			{
+				channel.close();
+			}
+			catch (IOException e)
+			{
+				log.error("Error closing heatmap journal '{}': {}", file, e.toString());
+			}
+			channel = null;
+		}
+	}
+
+	/**
+	 * Replaces the journal file with one holding just the current records, and opens it for appending
+	 */
+	private void rewrite() throws IOException
+	{
+		if (channel != null)
+		{
+			channel.close();
+			channel = null;
+		}
+		File tempFile = new File(file.getParent(), file.getName() + ".tmp");
+		try (FileChannel out = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+		{
+			writeFully(out, encodeHeader());
+			if (recordCount > 0)
+			{
+				writeFully(out, encodeBlock(0, recordCount));
+			}
+			out.force(false);
+		}
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		flushedCount = recordCount;
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			channel.write(buffer);
+		}
+	}
+
+	private static ByteBuffer encodeHeader() throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeByte(FORMAT_VERSION);
+		HeatmapNew.HeatmapType[] types = HeatmapNew.HeatmapType.values();
+		out.writeShort(types.length);
+		for (HeatmapNew.HeatmapType type : types)
+		{
+			byte[] name = type.name().getBytes(StandardCharsets.UTF_8);
+			out.writeShort(name.length);
+			out.write(name);
+		}
+		return ByteBuffer.wrap(bytes.toByteArray());
+	}
+
+	/**
+	 * Encodes records [from, to) as a block
+	 */
+	private ByteBuffer encodeBlock(int from, int to) throws IOException
+	{
+		// Each record takes at most 1 + 3 * 10 bytes
+		if ((long) (to - from) * 31 > MAX_BLOCK_SIZE)
+		{
+			int middle = from + MAX_BLOCK_SIZE / 31;
+			ByteBuffer first = encodeBlock(from, middle);
+			ByteBuffer rest = encodeBlock(middle, to);
+			return ByteBuffer.allocate(first.remaining() + rest.remaining()).put(first).put(rest).flip();
+		}
+		ByteBuffer block = ByteBuffer.allocate(8 + (to - from) * 31);
+		block.position(8);
+		long previousSequence = 0;
+		long previousKey = 0;
+		for (int i = from; i < to; i++)
+		{
+			block.put(recordTypes[i]);
+			writeVarLong(block, recordSequences[i] - previousSequence);
+			writeVarLong(block, zigzagEncode(recordKeys[i] - previousKey));
+			writeVarLong(block, zigzagEncode(recordDeltas[i]));
+			previousSequence = recordSequences[i];
+			previousKey = recordKeys[i];
+		}
+		int length = block.position() - 8;
+		CRC32 crc = new CRC32();
+		crc.update(block.array(), 8, length);
+		block.putInt(0, length);
+		block.putInt(4, (int) crc.getValue());
+		block.flip();
+		return block;
+	}
+
+	private static long zigzagEncode(long value)
+	{
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long zigzagDecode(long value)
+	{
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static void writeVarLong(ByteBuffer buffer, long value)
+	{
+		while ((value & ~0x7FL) != 0)
+		{
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	private static long readVarLong(ByteBuffer buffer)
+	{
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7)
+		{
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0)
+			{
+				return value;
+			}
+		}
+		throw new IllegalStateException("Malformed varint in heatmap journal");
+	}
+}
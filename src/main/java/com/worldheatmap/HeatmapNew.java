@@ -2,19 +2,22 @@ package com.worldheatmap;
 
 import java.io.*;
 import java.util.*;
-import java.util.Map.Entry;
+import java.util.function.Function;
 import java.util.zip.InflaterInputStream;
+import javax.annotation.Nullable;
 
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
-import net.runelite.api.coords.WorldPoint;
+import net.runelite.api.Constants;
 
 @Slf4j
 public class HeatmapNew
 {
-	@Getter
-	private final HashMap<WorldPoint, Integer> heatmapHashMap;
+	private final TileStore tiles;
+	// Guards reading and writing the tiles, and taking snapshots of them. Heatmaps sharing a ColumnarTileStore share
+	// its lock, since writing to one column can rehash the index that the others read through
+	private final Object lock;
 	@Getter
 	private final static int heatmapVersion = 103;
 	@Getter @Setter
@@ -25,8 +28,82 @@ public class HeatmapNew
 	private int tileCount = 0;
 	@Getter @Setter
 	private int gameTimeTicks = 0;
+	// Indexed by plane. Planes outside the game's planes (which can only come from damaged files) have no statistics
+	private TileStatistics[] planeStatistics = new TileStatistics[Constants.MAX_Z];
+	// Shared by a heatmap and its snapshots, to tell their generations apart from those of other heatmaps
+	private Object lineage = new Object();
+	// Counts the changes to the heatmap's saved data, except to its game time
+	private long modificationCount = 0;
+	/**
+	 * Sequence number of the last HeatmapJournal record that the heatmap includes, or UNKNOWN_JOURNAL_SEQUENCE
+	 * if it was read from a file that doesn't say
+	 */
+	@Getter @Setter
+	private long journalSequence = 0;
+	static final long UNKNOWN_JOURNAL_SEQUENCE = -1;
+	// Tiles copied per hold of the lock by copyTo()
+	private static final int COPY_BATCH_SIZE = 4096;
+	// Records the heatmap's changes, if set. Not shared with snapshots
+	private HeatmapJournal journal;
 
 	public static HeatmapNew fromCSV(BufferedReader reader) throws IOException
+	{
+		return fromCSV(reader, null);
+	}
+
+	/**
+	 * Reads just the heatmap version that a heatmap in CSV format was written with, without reading its tiles
+	 */
+	static int readCSVHeatmapVersion(BufferedReader reader) throws IOException
+	{
+		return readCSVIntField(reader, "heatmapVersion");
+	}
+
+	/**
+	 * Reads just the game time that a heatmap in CSV format was written with, without reading its tiles
+	 */
+	static int readCSVGameTimeTicks(BufferedReader reader) throws IOException
+	{
+		return readCSVIntField(reader, "gameTimeTicks");
+	}
+
+	/**
+	 * @return The value of the given integer field of a heatmap in CSV format, or -1 if it doesn't have the field
+	 */
+	private static int readCSVIntField(BufferedReader reader, String fieldName) throws IOException
+	{
+		String fieldNamesLine = reader.readLine();
+		String fieldValuesLine = reader.readLine();
+		if (fieldNamesLine == null || fieldValuesLine == null)
+		{
+			throw new IOException("Missing heatmap metadata");
+		}
+		String[] fieldNames = fieldNamesLine.split(",", -1);
+		String[] fieldValues = fieldValuesLine.split(",", -1);
+		for (int i = 0; i < fieldNames.length && i < fieldValues.length; i++)
+		{
+			if (fieldNames[i].equals(fieldName))
+			{
+				try
+				{
+					return Integer.parseInt(fieldValues[i]);
+				}
+				catch (NumberFormatException e)
+				{
+					throw new IOException("Invalid " + fieldName + " " + fieldValues[i]);
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads a heatmap in CSV format.
+	 *
+	 * @param reader           The CSV reader
+	 * @param tileStoreFactory Creates the tile storage for the heatmap's type, or null to use the type's default storage layout
+	 */
+	public static HeatmapNew fromCSV(BufferedReader reader, @Nullable Function<HeatmapType, TileStore> tileStoreFactory) throws IOException
 	{
 		// Read them field variables
 		String[] fieldNames = reader.readLine().split(",", -1);
@@ -56,33 +133,15 @@ public class HeatmapNew
 		}
 
 		// Make ze Heatmap and set metadata
-		HeatmapNew heatmap = new HeatmapNew(heatmapType, userID, accountType, seasonalType, currentCombatLevel);
+		TileStore tiles = tileStoreFactory == null ? heatmapType.getStorageLayout().create() : tileStoreFactory.apply(heatmapType);
+		HeatmapNew heatmap = new HeatmapNew(heatmapType, userID, accountType, seasonalType, currentCombatLevel, tiles);
 		heatmap.setVersionReadFrom(heatmapVersion);
 		heatmap.setGameTimeTicks(gameTimeTicks);
 
 		// Read and load the tile values
-		final int[] errorCount = {0}; // Number of parsing errors occurred during read
-		reader.lines().forEach(s -> {
-			String[] tile = s.split(",");
-			try {
-				if (tile.length == 3) {
-					// x, y, val (pre-V1.6.1)
-					heatmap.set(Integer.parseInt(tile[0]), Integer.parseInt(tile[1]), 0, Integer.parseInt(tile[2]));
-				}
-				else if (tile.length == 4) {
-					// x, y, z, val
-					heatmap.set(Integer.parseInt(tile[0]), Integer.parseInt(tile[1]), Integer.parseInt(tile[2]), Integer.parseInt(tile[3]));
-				}
-				else {
-					log.error("Invalid line in heatmap file: {}", s);
-					errorCount[0]++;
-				}
-			} catch (NumberFormatException e) {
-				errorCount[0]++;
-			}
-		});
-		if (errorCount[0] != 0) {
-			log.error("{} errors occurred during {} heatmap file read.", errorCount[0], heatmapType);
+		int errorCount = CsvTileParser.parseTiles(reader, heatmap); // Number of parsing errors occurred during read
+		if (errorCount != 0) {
+			log.error("{} errors occurred during {} heatmap file read.", errorCount, heatmapType);
 		}
 
 		return heatmap;
@@ -96,38 +155,198 @@ public class HeatmapNew
 	 * @param otherHeatmap the heatmap to subtract from this heatmap
 	 * @param minimum the minimum value that any tile can have after subtraction (e.g. 0 if you don't want negative values)
 	 */
-	public void subtract(HeatmapNew otherHeatmap, int minimum)
+	public void subtract(HeatmapNew otherHeatmap, long minimum)
 	{
-		for (Entry<WorldPoint, Integer> e : otherHeatmap.getEntrySet())
+		TileCursor tile = otherHeatmap.cursor();
+		while (tile.next())
 		{
-			int x = e.getKey().getX();
-			int y = e.getKey().getY();
-			int z = e.getKey().getPlane();
-			int val = e.getValue();
-			this.set(x, y, z, Math.max(this.get(x, y, z) - val, minimum));
+			int x = tile.getX();
+			int y = tile.getY();
+			int z = tile.getPlane();
+			long val = tile.getValue();
+			synchronized (lock)
+			{
+				this.set(x, y, z, Math.max(this.get(x, y, z) - val, minimum));
+			}
+		}
+	}
+
+	/**
+	 * Adds the values of the given heatmap to this heatmap, tile by tile.
+	 * Only tiles that exist in otherHeatmap are iterated through.
+	 *
+	 * @param otherHeatmap the heatmap to add to this heatmap
+	 */
+	public void add(HeatmapNew otherHeatmap)
+	{
+		TileCursor tile = otherHeatmap.cursor();
+		while (tile.next())
+		{
+			increment(tile.getX(), tile.getY(), tile.getPlane(), tile.getValue());
 		}
 	}
 
 	public enum HeatmapType
-	{TYPE_A, TYPE_B, XP_GAINED, TELEPORT_PATHS, TELEPORTED_TO, TELEPORTED_FROM, LOOT_VALUE, PLACES_SPOKEN_AT, RANDOM_EVENT_SPAWNS, DEATHS, NPC_DEATHS, BOB_THE_CAT_SIGHTING, NPC_DAMAGE_TAKEN, NPC_DAMAGE_GIVEN, PVP_DAMAGE_GIVEN, PVP_DAMAGE_TAKEN, WORLD_HOPS, LOGIN_LOGOUT, TRADES, UNKNOWN}
-	@Getter @Setter
+	{
+		// Walking heatmaps fill whole map squares, so they get dense per-region storage
+		TYPE_A(TileStore.Layout.REGION),
+		TYPE_B(TileStore.Layout.REGION),
+		XP_GAINED,
+		TELEPORT_PATHS(TileStore.Layout.REGION),
+		TELEPORTED_TO,
+		TELEPORTED_FROM,
+		LOOT_VALUE,
+		PLACES_SPOKEN_AT,
+		RANDOM_EVENT_SPAWNS,
+		DEATHS,
+		NPC_DEATHS,
+		BOB_THE_CAT_SIGHTING,
+		NPC_DAMAGE_TAKEN,
+		NPC_DAMAGE_GIVEN,
+		PVP_DAMAGE_GIVEN,
+		PVP_DAMAGE_TAKEN,
+		WORLD_HOPS,
+		LOGIN_LOGOUT,
+		TRADES,
+		UNKNOWN;
+
+		@Getter
+		private final TileStore.Layout storageLayout;
+
+		HeatmapType()
+		{
+			this(TileStore.Layout.HASH);
+		}
+
+		HeatmapType(TileStore.Layout storageLayout)
+		{
+			this.storageLayout = storageLayout;
+		}
+	}
+	@Getter
 	private long userID = -1;
-	@Getter @Setter
+	@Getter
 	private int accountType = -1;
-	@Getter @Setter
+	@Getter
 	private HeatmapType heatmapType;
-	@Getter @Setter
+	@Getter
 	private int currentCombatLevel = -1;
-	@Getter @Setter
+	@Getter
 	private String seasonalType;
 
+	/**
+	 * A version of a heatmap's saved data, apart from its game time, which changes every tick.
+	 * Two heatmaps have equal generations if one is an unmodified snapshot of the other, or both are of the same heatmap.
+	 */
+	public static final class Generation
+	{
+		private final Object lineage;
+		private final long modificationCount;
+
+		private Generation(Object lineage, long modificationCount)
+		{
+			this.lineage = lineage;
+			this.modificationCount = modificationCount;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Generation))
+			{
+				return false;
+			}
+			Generation other = (Generation) o;
+			return lineage == other.lineage && modificationCount == other.modificationCount;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return System.identityHashCode(lineage) * 31 + Long.hashCode(modificationCount);
+		}
+	}
+
+	HeatmapJournal getJournal()
+	{
+		return journal;
+	}
+
+	/**
+	 * Sets the journal to record the heatmap's changes to. See HeatmapJournal.attach()
+	 */
+	void setJournal(HeatmapJournal journal)
+	{
+		synchronized (lock)
+		{
+			this.journal = journal;
+		}
+	}
+
+	/**
+	 * @return The generation of the heatmap's data as it is now
+	 */
+	public Generation getGeneration()
+	{
+		synchronized (lock)
+		{
+			return new Generation(lineage, modificationCount);
+		}
+	}
+
+	public void setUserID(long userID)
+	{
+		if (this.userID != userID)
+		{
+			this.userID = userID;
+			modificationCount++;
+		}
+	}
+
+	public void setAccountType(int accountType)
+	{
+		if (this.accountType != accountType)
+		{
+			this.accountType = accountType;
+			modificationCount++;
+		}
+	}
+
+	public void setHeatmapType(HeatmapType heatmapType)
+	{
+		if (this.heatmapType != heatmapType)
+		{
+			this.heatmapType = heatmapType;
+			modificationCount++;
+		}
+	}
+
+	public void setCurrentCombatLevel(int currentCombatLevel)
+	{
+		if (this.currentCombatLevel != currentCombatLevel)
+		{
+			this.currentCombatLevel = currentCombatLevel;
+			modificationCount++;
+		}
+	}
+
+	public void setSeasonalType(String seasonalType)
+	{
+		if (!Objects.equals(this.seasonalType, seasonalType))
+		{
+			this.seasonalType = seasonalType;
+			modificationCount++;
+		}
+	}
+
 	/**
 	 * Constructor for HeatmapNew object with no arguments.
 	 */
 	public HeatmapNew()
 	{
 		this.heatmapType = HeatmapType.UNKNOWN;
-		this.heatmapHashMap = new HashMap<>();
+		this.tiles = heatmapType.getStorageLayout().create();
+		this.lock = lockFor(tiles);
 	}
 
 	/**
@@ -137,15 +356,89 @@ public class HeatmapNew
 	 * @param accountType
 	 */
 	public HeatmapNew(HeatmapType heatmapType, long userID, int accountType, String seasonalType, int currentCombatLevel)
+	{
+		this(heatmapType, userID, accountType, seasonalType, currentCombatLevel, heatmapType.getStorageLayout().create());
+	}
+
+	/**
+	 * Constructor for HeatmapNew object backed by the given tile storage, e.g. a column of a ColumnarTileStore.
+	 */
+	public HeatmapNew(HeatmapType heatmapType, long userID, int accountType, String seasonalType, int currentCombatLevel, TileStore tiles)
 	{
 		this.heatmapType = heatmapType;
-		this.heatmapHashMap = new HashMap<>();
+		this.tiles = tiles;
+		this.lock = lockFor(tiles);
 		this.userID = userID;
 		this.accountType = accountType;
 		this.seasonalType = seasonalType;
 		this.currentCombatLevel = currentCombatLevel;
 	}
 
+	private static Object lockFor(TileStore tiles)
+	{
+		return tiles instanceof ColumnarTileStore.Column ? ((ColumnarTileStore.Column) tiles).getStore() : tiles;
+	}
+
+	/**
+	 * Returns a copy of the heatmap as it is now, which background tasks (saving, uploading, writing images)
+	 * can read while the client thread keeps updating this heatmap. Cheap to take: the tile storage is
+	 * shared between the two, and only copied piece by piece as either of them is written to.
+	 *
+	 * @return The snapshot
+	 */
+	public HeatmapNew snapshot()
+	{
+		synchronized (lock)
+		{
+			HeatmapNew snapshot = new HeatmapNew(heatmapType, userID, accountType, seasonalType, currentCombatLevel, tiles.snapshot());
+			snapshot.versionReadFrom = versionReadFrom;
+			snapshot.totalValue = totalValue;
+			snapshot.tileCount = tileCount;
+			snapshot.gameTimeTicks = gameTimeTicks;
+			snapshot.lineage = lineage;
+			snapshot.modificationCount = modificationCount;
+			snapshot.journalSequence = journalSequence;
+			snapshot.planeStatistics = new TileStatistics[planeStatistics.length];
+			for (int z = 0; z < planeStatistics.length; z++)
+			{
+				if (planeStatistics[z] != null)
+				{
+					snapshot.planeStatistics[z] = new TileStatistics(planeStatistics[z]);
+				}
+			}
+			return snapshot;
+		}
+	}
+
+	/**
+	 * Returns a copy of the heatmap backed by the given empty tile storage, e.g. a column of a ColumnarTileStore.
+	 * The tiles are copied a batch at a time under the storage's lock, so that other heatmaps sharing the storage
+	 * aren't held up for the whole copy. This heatmap must not be modified meanwhile.
+	 *
+	 * @return The copy
+	 */
+	HeatmapNew copyTo(TileStore tiles)
+	{
+		HeatmapNew copy = new HeatmapNew(heatmapType, userID, accountType, seasonalType, currentCombatLevel, tiles);
+		copy.versionReadFrom = versionReadFrom;
+		copy.gameTimeTicks = gameTimeTicks;
+		copy.journalSequence = journalSequence;
+		TileCursor tile = cursor();
+		boolean hasNext = true;
+		while (hasNext)
+		{
+			synchronized (copy.lock)
+			{
+				for (int i = 0; i < COPY_BATCH_SIZE && (hasNext = tile.next()); i++)
+				{
+					long value = tile.getValue();
+					copy.onValueChanged(tile.getX(), tile.getY(), tile.getPlane(), tiles.put(tile.getX(), tile.getY(), tile.getPlane(), value), value);
+				}
+			}
+		}
+		return copy;
+	}
+
 	/**
 	 * Converter for backwards compatibility with the old, retarded method of storing heatmap data
 	 * @param oldStyle
@@ -191,9 +484,18 @@ public class HeatmapNew
 		}
 	}
 
-	protected Set<Entry<WorldPoint, Integer>> getEntrySet()
+	/**
+	 * Returns a cursor over the heatmap's non-zero tiles, in no particular order.
+	 * The heatmap must not be modified while the cursor is in use.
+	 */
+	protected TileCursor cursor()
 	{
-		return heatmapHashMap.entrySet();
+		return tiles.cursor();
+	}
+
+	protected boolean isEmpty()
+	{
+		return tiles.isEmpty();
 	}
 
 	public void incrementGameTimeTicks()
@@ -208,9 +510,12 @@ public class HeatmapNew
 	 * @param y      Original RuneScape y-coord
 	 * @param amount Amount to increment the value by
 	 */
-	protected void increment(int x, int y, int z, int amount)
+	protected void increment(int x, int y, int z, long amount)
 	{
-		set(x, y, z, get(x, y, z) + amount);
+		synchronized (lock)
+		{
+			set(x, y, z, get(x, y, z) + amount);
+		}
 	}
 
 	/**
@@ -221,7 +526,7 @@ public class HeatmapNew
 	 */
 	protected void increment(int x, int y, int z)
 	{
-		set(x, y, z, get(x, y, z) + 1);
+		increment(x, y, z, 1);
 	}
 
 	/**
@@ -231,7 +536,7 @@ public class HeatmapNew
 	 * @param x        Original RuneScape x-coord
 	 * @param y        Original RuneScape y-coord
 	 */
-	protected void set(int x, int y, int z, int newValue)
+	protected void set(int x, int y, int z, long newValue)
 	{
 		// We don't keep track of negative values
 		if (newValue < 0)
@@ -239,51 +544,170 @@ public class HeatmapNew
 			return;
 		}
 
-		//Set it & retrieve previous value
-		Integer oldValue = heatmapHashMap.put(new WorldPoint(x, y, z), newValue);
+		synchronized (lock)
+		{
+			//Set it & retrieve previous value (tiles set to 0 are removed, for not keeping track of unstepped-on tiles)
+			long oldValue = tiles.put(x, y, z, newValue);
+			onValueChanged(x, y, z, oldValue, newValue);
+		}
+	}
+
+	/**
+	 * Increments the same tile of several heatmaps by the same amount. If the heatmaps are all columns
+	 * of one ColumnarTileStore, the tile is only looked up once for all of them.
+	 *
+	 * @param heatmaps The heatmaps to increment
+	 */
+	static void incrementAll(int x, int y, int z, long amount, List<HeatmapNew> heatmaps)
+	{
+		ColumnarTileStore sharedStore = null;
+		for (HeatmapNew heatmap : heatmaps)
+		{
+			if (!(heatmap.tiles instanceof ColumnarTileStore.Column))
+			{
+				sharedStore = null;
+				break;
+			}
+			ColumnarTileStore store = ((ColumnarTileStore.Column) heatmap.tiles).getStore();
+			if (sharedStore != null && sharedStore != store)
+			{
+				sharedStore = null;
+				break;
+			}
+			sharedStore = store;
+		}
+
+		if (sharedStore == null)
+		{
+			for (HeatmapNew heatmap : heatmaps)
+			{
+				heatmap.increment(x, y, z, amount);
+			}
+			return;
+		}
+
+		synchronized (sharedStore)
+		{
+			int row = sharedStore.rowFor(x, y, z);
+			for (HeatmapNew heatmap : heatmaps)
+			{
+				ColumnarTileStore.Column column = (ColumnarTileStore.Column) heatmap.tiles;
+				long newValue = column.getAt(row) + amount;
+				if (newValue >= 0)
+				{
+					heatmap.onValueChanged(x, y, z, column.setAt(row, newValue), newValue);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Updates the heatmap's running totals and statistics after a tile's value changed
+	 */
+	private void onValueChanged(int x, int y, int z, long oldValue, long newValue)
+	{
+		if (oldValue == newValue)
+		{
+			return;
+		}
+		modificationCount++;
+		if (journal != null)
+		{
+			journalSequence = journal.record(heatmapType, x, y, z, newValue - oldValue);
+		}
+
+		if (z >= 0 && z < planeStatistics.length)
+		{
+			if (planeStatistics[z] == null)
+			{
+				planeStatistics[z] = new TileStatistics();
+			}
+			planeStatistics[z].onValueChanged(oldValue, newValue);
+		}
 
 		//Update numTilesVisited
-		if (oldValue == null && newValue > 0)
+		if (oldValue == 0 && newValue > 0)
 		{
 			tileCount++;
 		}
-		else if (oldValue != null && newValue == 0)
+		else if (oldValue != 0 && newValue == 0)
 		{
 			tileCount--;
 		}
 
 		//Update total value
-		if (oldValue == null)
+		totalValue += (newValue - oldValue);
+	}
+
+	/**
+	 * Returns the value statistics of the tiles on the given plane. Usually O(1), but rescans the heatmap
+	 * if the tile that held the plane's max or min value has since changed.
+	 *
+	 * @param z The plane
+	 * @return The plane's statistics, which are empty if the plane has no tiles
+	 */
+	public TileStatistics getStatistics(int z)
+	{
+		if (z < 0 || z >= planeStatistics.length || planeStatistics[z] == null)
 		{
-			totalValue += newValue;
+			return new TileStatistics();
 		}
-		else
+		synchronized (lock)
 		{
-			totalValue += (newValue - oldValue);
+			TileStatistics statistics = planeStatistics[z];
+			if (statistics.isStale())
+			{
+				statistics.recompute(tiles.cursor(), z);
+			}
+			return statistics;
 		}
+	}
 
-		// For not keeping track of unstepped-on tiles
-		if (newValue == 0)
+	/**
+	 * Usually O(1), but rescans the heatmap for each plane whose max is stale. Unlike getStatistics(), a stale
+	 * min doesn't cost a rescan.
+	 *
+	 * @return The highest tile value on any plane, or 0 if the heatmap is empty
+	 */
+	public long getMaxValue()
+	{
+		long max = 0;
+		synchronized (lock)
 		{
-			heatmapHashMap.remove(new WorldPoint(x, y, z));
+			for (int z = 0; z < planeStatistics.length; z++)
+			{
+				TileStatistics statistics = planeStatistics[z];
+				if (statistics == null)
+				{
+					continue;
+				}
+				if (statistics.isMaxStale())
+				{
+					statistics.recompute(tiles.cursor(), z);
+				}
+				max = Math.max(max, statistics.getMax());
+			}
 		}
+		return max;
 	}
 
 	/**
-	 * Returns the estimated total memory usage of the heatmap, in bytes, assuming 64 bit JVM and 8-byte alignment. Relatively expensive to run because it has to iterate through the entire hashmap.
+	 * Returns the heap memory used by the heatmap's tile storage and statistics, in bytes, for a 64 bit JVM.
+	 * Runs in constant time, since the storage keeps track of its own size as it grows.
+	 * For a heatmap backed by a ColumnarTileStore this doesn't include the shared tile index.
 	 * @return size in bytes
 	 */
-	public int estimateSize(){
-		int estSize = 0;
-		// Get count of values above and below 128
-		for (Entry<WorldPoint, Integer> e : getEntrySet())
+	public long getMemoryUsage()
+	{
+		long size = tiles.getMemoryUsage() + TileStore.arraySize(planeStatistics.length, 4);
+		for (TileStatistics statistics : planeStatistics)
 		{
-			int nodeSize = 16 + 8 + 8 + 4 + 4; //16 bytes for Node  object, 8 and 8 for the key and value references, 4 for the hash value, then extra 4 for 8-byte alignment
-			int pointSize = 16 + 4 + 4 + 4; //16 bytes for WorldPoint object header, then 4 for each of the three int coords
-			int integerSize = (e.getValue() < 128 ? 8 : 16 + 4 + 4); //8 bytes for just header of pooled Integer, or 12 bytes for non-pooled Integer header plus inner int plus 4 bytes for 8-byte alignment
-			estSize += nodeSize + pointSize + integerSize;
+			if (statistics != null)
+			{
+				size += TileStatistics.MEMORY_USAGE;
+			}
 		}
-		return estSize;
+		return size;
 	}
 
 	/**
@@ -292,9 +716,12 @@ public class HeatmapNew
 	 * @param x Heatmap-style x-coord
 	 * @param y Heatmap-style y-coord
 	 */
-	protected int get(int x, int y, int z)
+	protected long get(int x, int y, int z)
 	{
-		return heatmapHashMap.getOrDefault(new WorldPoint(x, y, z), 0);
+		synchronized (lock)
+		{
+			return tiles.get(x, y, z);
+		}
 	}
 
 	/**
@@ -313,11 +740,12 @@ public class HeatmapNew
 			"," + this.getSeasonalType() + "\n");
 
 		// Write the tile values
-		for (Entry<WorldPoint, Integer> e : this.getEntrySet()) {
-			int x = e.getKey().getX();
-			int y = e.getKey().getY();
-			int z = e.getKey().getPlane();
-			int stepVal = e.getValue();
+		TileCursor tile = this.cursor();
+		while (tile.next()) {
+			int x = tile.getX();
+			int y = tile.getY();
+			int z = tile.getPlane();
+			long stepVal = tile.getValue();
 			bos.write(x + "," + y + "," + z + "," + stepVal + "\n");
 		}
 	}
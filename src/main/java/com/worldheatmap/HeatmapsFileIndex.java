@@ -0,0 +1,164 @@
+package com.worldheatmap;
+
+import java.io.File;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import javax.annotation.Nullable;
+
+/**
+ * Keeps the .heatmaps files of each directory ordered by the date in their names, so that finding the latest
+ * file doesn't take listing the directory and parsing every name in it.
+ * <p>
+ * A directory is listed when it's first queried, and again whenever its modification time has changed since.
+ * The plugin's own writes and renames are reported with fileWritten() and fileRenamed(), which keeps the index
+ * up to date without listing the directory again.
+ */
+class HeatmapsFileIndex
+{
+	private static final String EXTENSION = ".heatmaps";
+
+	private final DateTimeFormatter dateFormat;
+	private final Map<File, DirectoryIndex> directories = new HashMap<>();
+
+	private static class DirectoryIndex
+	{
+		final NavigableMap<LocalDateTime, File> files = new TreeMap<>();
+		// The directory's modification time when it was listed, or when a change to it was last reported
+		long lastModified;
+	}
+
+	HeatmapsFileIndex(DateTimeFormatter dateFormat)
+	{
+		this.dateFormat = dateFormat;
+	}
+
+	/**
+	 * @return The .heatmaps file in the directory whose filename is the most recent date, or null if there is none
+	 */
+	synchronized File getLatestFile(File directory)
+	{
+		Map.Entry<LocalDateTime, File> latest = getIndex(directory).files.lastEntry();
+		return latest == null ? null : latest.getValue();
+	}
+
+	/**
+	 * Returns the .heatmaps files in the directory dated within the given range, most recent first
+	 *
+	 * @param from The earliest date to include, or null for no limit
+	 * @param to The date to include files up to, but not including, or null for no limit
+	 */
+	synchronized List<File> getFiles(File directory, @Nullable LocalDateTime from, @Nullable LocalDateTime to)
+	{
+		NavigableMap<LocalDateTime, File> files = getIndex(directory).files;
+		if (from != null && to != null)
+		{
+			files = files.subMap(from, true, to, false);
+		}
+		else if (from != null)
+		{
+			files = files.tailMap(from, true);
+		}
+		else if (to != null)
+		{
+			files = files.headMap(to, false);
+		}
+		return new ArrayList<>(files.descendingMap().values());
+	}
+
+	/**
+	 * Adds a .heatmaps file that was just written to the index
+	 */
+	synchronized void fileWritten(File file)
+	{
+		File directory = file.getAbsoluteFile().getParentFile();
+		DirectoryIndex index = directories.get(directory);
+		LocalDateTime date = parseDate(file.getName());
+		if (index == null || date == null)
+		{
+			// The directory will be listed when it's first queried anyway
+			return;
+		}
+		index.files.put(date, new File(directory, file.getName()));
+		index.lastModified = directory.lastModified();
+	}
+
+	/**
+	 * Moves a .heatmaps file that was just renamed in the index
+	 */
+	synchronized void fileRenamed(File file, File newFile)
+	{
+		File directory = file.getAbsoluteFile().getParentFile();
+		DirectoryIndex index = directories.get(directory);
+		LocalDateTime date = parseDate(file.getName());
+		if (index != null && date != null)
+		{
+			index.files.remove(date);
+			index.lastModified = directory.lastModified();
+		}
+		fileWritten(newFile);
+	}
+
+	/**
+	 * Makes the directory get listed again the next time it's queried
+	 */
+	synchronized void invalidate(File directory)
+	{
+		directories.remove(directory.getAbsoluteFile());
+	}
+
+	private DirectoryIndex getIndex(File directory)
+	{
+		directory = directory.getAbsoluteFile();
+		long lastModified = directory.lastModified();
+		DirectoryIndex index = directories.get(directory);
+		if (index != null && index.lastModified == lastModified)
+		{
+			return index;
+		}
+
+		index = new DirectoryIndex();
+		index.lastModified = lastModified;
+		File[] files = directory.listFiles(File::isFile);
+		if (files != null)
+		{
+			for (File file : files)
+			{
+				LocalDateTime date = parseDate(file.getName());
+				if (date != null)
+				{
+					index.files.put(date, file);
+				}
+			}
+		}
+		directories.put(directory, index);
+		return index;
+	}
+
+	/**
+	 * @return The date that the .heatmaps file is named after, or null if it isn't named after a date.
+	 * Also null for the temporary files that saves write before moving them into place.
+	 */
+	@Nullable
+	private LocalDateTime parseDate(String fileName)
+	{
+		if (!fileName.endsWith(EXTENSION))
+		{
+			return null;
+		}
+		try
+		{
+			return LocalDateTime.parse(fileName.substring(0, fileName.length() - EXTENSION.length()), dateFormat);
+		}
+		catch (DateTimeParseException e)
+		{
+			return null;
+		}
+	}
+}
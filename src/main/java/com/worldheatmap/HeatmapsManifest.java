@@ -0,0 +1,134 @@
+package com.worldheatmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.annotation.Nullable;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Small file in an account's heatmaps directory recording the version of the heatmap data in it and which
+ * migrations have been applied to it, so that logging in doesn't take reading the latest .heatmaps file
+ * just to learn whether any fixes are due.
+ */
+@Slf4j
+class HeatmapsManifest
+{
+	static final String FILE_NAME = "heatmaps.manifest";
+	private static final String DATA_VERSION_KEY = "dataVersion";
+	private static final String MIGRATIONS_KEY = "migrations";
+
+	/**
+	 * The fixes that are applied to heatmap data written by older versions of the plugin
+	 */
+	enum Migration
+	{
+		// V1.6.0 fix for .heatmaps files named with 12-hour times
+		FILE_NAMING_SCHEME_FIX(101),
+		// V1.6.1 fix for deaths having been counted as teleports
+		DEATHS_AS_TELEPORTS_FIX(102);
+
+		// The latest heatmap version whose data needs the fix
+		@Getter
+		private final int lastAffectedVersion;
+
+		Migration(int lastAffectedVersion)
+		{
+			this.lastAffectedVersion = lastAffectedVersion;
+		}
+	}
+
+	// The heatmap version that the directory's data is up to date with
+	@Getter @Setter
+	private int dataVersion;
+	private final Set<String> appliedMigrations = new TreeSet<>();
+
+	HeatmapsManifest(int dataVersion)
+	{
+		this.dataVersion = dataVersion;
+	}
+
+	/**
+	 * @return Whether the migration still has to be applied to the directory's data
+	 */
+	boolean isMigrationDue(Migration migration)
+	{
+		return dataVersion <= migration.getLastAffectedVersion() && !appliedMigrations.contains(migration.name());
+	}
+
+	void setMigrationApplied(Migration migration)
+	{
+		appliedMigrations.add(migration.name());
+	}
+
+	/**
+	 * Reads the manifest of the given heatmaps directory
+	 *
+	 * @return The manifest, or null if the directory doesn't have a valid one
+	 */
+	@Nullable
+	static HeatmapsManifest read(File directory)
+	{
+		File file = new File(directory, FILE_NAME);
+		Properties properties = new Properties();
+		try (InputStream is = Files.newInputStream(file.toPath()))
+		{
+			properties.load(is);
+		}
+		catch (NoSuchFileException e)
+		{
+			return null;
+		}
+		catch (IOException e)
+		{
+			log.error("Error reading heatmaps manifest '{}': {}", file, e.toString());
+			return null;
+		}
+
+		HeatmapsManifest manifest;
+		try
+		{
+			manifest = new HeatmapsManifest(Integer.parseInt(properties.getProperty(DATA_VERSION_KEY, "")));
+		}
+		catch (NumberFormatException e)
+		{
+			log.error("Heatmaps manifest '{}' has an invalid data version, so it will be rebuilt", file);
+			return null;
+		}
+		String migrations = properties.getProperty(MIGRATIONS_KEY, "");
+		if (!migrations.isBlank())
+		{
+			manifest.appliedMigrations.addAll(Arrays.asList(migrations.split(",")));
+		}
+		return manifest;
+	}
+
+	/**
+	 * Writes the manifest to the given heatmaps directory, replacing any previous one
+	 */
+	void write(File directory) throws IOException
+	{
+		Properties properties = new Properties();
+		properties.setProperty(DATA_VERSION_KEY, Integer.toString(dataVersion));
+		properties.setProperty(MIGRATIONS_KEY, String.join(",", appliedMigrations));
+
+		directory.mkdirs();
+		File file = new File(directory, FILE_NAME);
+		File tempFile = new File(directory, FILE_NAME + ".tmp");
+		try (OutputStream os = Files.newOutputStream(tempFile.toPath()))
+		{
+			properties.store(os, "World Heatmap data version and applied migrations");
+		}
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
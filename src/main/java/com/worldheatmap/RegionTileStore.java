@@ -0,0 +1,423 @@
+package com.worldheatmap;
+
+import java.util.Arrays;
+
+/**
+ * Tile storage that mirrors how OSRS lays out its map: in 64x64 map squares ("regions").
+ * A small open-addressing directory maps each region (x &gt;&gt; 6, y &gt;&gt; 6, plane) to a dense
+ * 64x64 value array, which is only allocated once a tile in that region is first set.
+ * <p>
+ * Walking heatmaps fill whole map squares while leaving most of the world empty, which makes
+ * this both smaller and faster than a per-tile hash table for them. Iteration goes region by
+ * region, in row-major order within each region.
+ * <p>
+ * Each region's array starts out as unsigned bytes, and is widened in place (to unsigned shorts,
+ * then ints, then longs) the first time one of its values doesn't fit.
+ */
+public class RegionTileStore implements TileStore
+{
+	private static final int REGION_SHIFT = 6;
+	private static final int REGION_SIZE = 1 << REGION_SHIFT;
+	private static final int REGION_MASK = REGION_SIZE - 1;
+	private static final int TILES_PER_REGION = REGION_SIZE * REGION_SIZE;
+	private static final float LOAD_FACTOR = 0.5f;
+	// Object header and fields of a RegionTileStore
+	private static final long SHALLOW_SIZE = 80;
+
+	// Region value array widths
+	private static final byte WIDTH_BYTE = 0;
+	private static final byte WIDTH_CHAR = 1;
+	private static final byte WIDTH_INT = 2;
+	private static final byte WIDTH_LONG = 3;
+	private static final int[] BYTES_PER_TILE = {1, 2, 4, 8};
+
+	// Region directory: region key -> index into the region arrays below
+	private long[] directoryKeys;
+	private int[] directoryIndices;
+	private int directoryMask;
+
+	// Regions, in allocation order. Each region's values are a byte[], char[], int[] or long[] according to its width
+	private long[] regionKeys = new long[16];
+	private Object[] regionValues = new Object[16];
+	private byte[] regionWidths = new byte[16];
+	private int[] regionTileCounts = new int[16];
+	// Whether each region's values are shared with a snapshot, so must be copied before they're next written to
+	private boolean[] regionShared = new boolean[16];
+	private int regionCount = 0;
+	// Total size of the regions' value arrays, kept up to date as they are allocated and widened
+	private long regionArraysSize = 0;
+
+	private int size = 0;
+
+	// Consecutive lookups usually land in the same region, so the last one is remembered
+	private long lastRegionKey = TileKey.NONE;
+	private int lastRegionIndex = -1;
+
+	public RegionTileStore()
+	{
+		allocateDirectory(64);
+	}
+
+	/**
+	 * Copies the source's directory and bookkeeping, sharing its region value arrays
+	 */
+	private RegionTileStore(RegionTileStore source)
+	{
+		directoryKeys = source.directoryKeys.clone();
+		directoryIndices = source.directoryIndices.clone();
+		directoryMask = source.directoryMask;
+		regionKeys = source.regionKeys.clone();
+		regionValues = source.regionValues.clone();
+		regionWidths = source.regionWidths.clone();
+		regionTileCounts = source.regionTileCounts.clone();
+		regionShared = new boolean[regionKeys.length];
+		regionCount = source.regionCount;
+		Arrays.fill(regionShared, 0, regionCount, true);
+		regionArraysSize = source.regionArraysSize;
+		size = source.size;
+	}
+
+	private void allocateDirectory(int capacity)
+	{
+		directoryKeys = new long[capacity];
+		Arrays.fill(directoryKeys, TileKey.NONE);
+		directoryIndices = new int[capacity];
+		directoryMask = capacity - 1;
+	}
+
+	private static long regionKey(int x, int y, int z)
+	{
+		return TileKey.pack(x >> REGION_SHIFT, y >> REGION_SHIFT, z);
+	}
+
+	private static int localIndex(int x, int y)
+	{
+		return ((y & REGION_MASK) << REGION_SHIFT) | (x & REGION_MASK);
+	}
+
+	private int directorySlot(long key)
+	{
+		long h = key * 0x9E3779B97F4A7C15L;
+		int slot = (int) (h ^ (h >>> 32)) & directoryMask;
+		while (directoryKeys[slot] != key && directoryKeys[slot] != TileKey.NONE)
+		{
+			slot = (slot + 1) & directoryMask;
+		}
+		return slot;
+	}
+
+	/**
+	 * @return the index of the region, or -1 if it hasn't been allocated
+	 */
+	private int findRegion(long key)
+	{
+		if (key == lastRegionKey)
+		{
+			return lastRegionIndex;
+		}
+		int slot = directorySlot(key);
+		if (directoryKeys[slot] != key)
+		{
+			return -1;
+		}
+		lastRegionKey = key;
+		lastRegionIndex = directoryIndices[slot];
+		return lastRegionIndex;
+	}
+
+	private int allocateRegion(long key)
+	{
+		if (regionCount == regionKeys.length)
+		{
+			int newLength = regionKeys.length * 2;
+			regionKeys = Arrays.copyOf(regionKeys, newLength);
+			regionValues = Arrays.copyOf(regionValues, newLength);
+			regionWidths = Arrays.copyOf(regionWidths, newLength);
+			regionTileCounts = Arrays.copyOf(regionTileCounts, newLength);
+			regionShared = Arrays.copyOf(regionShared, newLength);
+		}
+		int index = regionCount++;
+		regionKeys[index] = key;
+		regionValues[index] = new byte[TILES_PER_REGION];
+		regionWidths[index] = WIDTH_BYTE;
+		regionArraysSize += TileStore.arraySize(TILES_PER_REGION, BYTES_PER_TILE[WIDTH_BYTE]);
+
+		if (regionCount > directoryKeys.length * LOAD_FACTOR)
+		{
+			allocateDirectory(directoryKeys.length * 2);
+			for (int i = 0; i < regionCount; i++)
+			{
+				int slot = directorySlot(regionKeys[i]);
+				directoryKeys[slot] = regionKeys[i];
+				directoryIndices[slot] = i;
+			}
+		}
+		else
+		{
+			int slot = directorySlot(key);
+			directoryKeys[slot] = key;
+			directoryIndices[slot] = index;
+		}
+
+		lastRegionKey = key;
+		lastRegionIndex = index;
+		return index;
+	}
+
+	private static byte widthOf(long value)
+	{
+		if (value >= 0 && value <= 0xFF)
+		{
+			return WIDTH_BYTE;
+		}
+		if (value >= 0 && value <= 0xFFFF)
+		{
+			return WIDTH_CHAR;
+		}
+		return value == (int) value ? WIDTH_INT : WIDTH_LONG;
+	}
+
+	private long valueAt(int region, int local)
+	{
+		Object values = regionValues[region];
+		switch (regionWidths[region])
+		{
+			case WIDTH_BYTE:
+				return ((byte[]) values)[local] & 0xFF;
+			case WIDTH_CHAR:
+				return ((char[]) values)[local];
+			case WIDTH_INT:
+				return ((int[]) values)[local];
+			default:
+				return ((long[]) values)[local];
+		}
+	}
+
+	private void setValueAt(int region, int local, long value)
+	{
+		byte width = widthOf(value);
+		if (width > regionWidths[region])
+		{
+			widen(region, width);
+		}
+		Object values = regionValues[region];
+		switch (regionWidths[region])
+		{
+			case WIDTH_BYTE:
+				((byte[]) values)[local] = (byte) value;
+				break;
+			case WIDTH_CHAR:
+				((char[]) values)[local] = (char) value;
+				break;
+			case WIDTH_INT:
+				((int[]) values)[local] = (int) value;
+				break;
+			default:
+				((long[]) values)[local] = value;
+		}
+	}
+
+	/**
+	 * Gives the region its own copy of its value array, if it's shared with a snapshot
+	 */
+	private void unshare(int region)
+	{
+		if (!regionShared[region])
+		{
+			return;
+		}
+		Object values = regionValues[region];
+		switch (regionWidths[region])
+		{
+			case WIDTH_BYTE:
+				regionValues[region] = ((byte[]) values).clone();
+				break;
+			case WIDTH_CHAR:
+				regionValues[region] = ((char[]) values).clone();
+				break;
+			case WIDTH_INT:
+				regionValues[region] = ((int[]) values).clone();
+				break;
+			default:
+				regionValues[region] = ((long[]) values).clone();
+		}
+		regionShared[region] = false;
+	}
+
+	/**
+	 * Replaces the region's value array with a wider one holding the same values
+	 */
+	private void widen(int region, byte width)
+	{
+		Object widened;
+		switch (width)
+		{
+			case WIDTH_CHAR:
+				widened = new char[TILES_PER_REGION];
+				break;
+			case WIDTH_INT:
+				widened = new int[TILES_PER_REGION];
+				break;
+			default:
+				widened = new long[TILES_PER_REGION];
+		}
+		for (int local = 0; local < TILES_PER_REGION; local++)
+		{
+			long value = valueAt(region, local);
+			if (value != 0)
+			{
+				switch (width)
+				{
+					case WIDTH_CHAR:
+						((char[]) widened)[local] = (char) value;
+						break;
+					case WIDTH_INT:
+						((int[]) widened)[local] = (int) value;
+						break;
+					default:
+						((long[]) widened)[local] = value;
+				}
+			}
+		}
+		regionArraysSize += TileStore.arraySize(TILES_PER_REGION, BYTES_PER_TILE[width])
+			- TileStore.arraySize(TILES_PER_REGION, BYTES_PER_TILE[regionWidths[region]]);
+		regionValues[region] = widened;
+		regionWidths[region] = width;
+		regionShared[region] = false;
+	}
+
+	@Override
+	public long get(int x, int y, int z)
+	{
+		int region = findRegion(regionKey(x, y, z));
+		return region == -1 ? 0 : valueAt(region, localIndex(x, y));
+	}
+
+	@Override
+	public long put(int x, int y, int z, long value)
+	{
+		long key = regionKey(x, y, z);
+		int region = findRegion(key);
+		if (region == -1)
+		{
+			if (value == 0)
+			{
+				return 0;
+			}
+			region = allocateRegion(key);
+		}
+
+		int local = localIndex(x, y);
+		long oldValue = valueAt(region, local);
+		if (oldValue == value)
+		{
+			return oldValue;
+		}
+		unshare(region);
+		setValueAt(region, local, value);
+		if (oldValue == 0 && value != 0)
+		{
+			regionTileCounts[region]++;
+			size++;
+		}
+		else if (oldValue != 0 && value == 0)
+		{
+			regionTileCounts[region]--;
+			size--;
+		}
+		return oldValue;
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return the number of allocated 64x64 regions
+	 */
+	public int getRegionCount()
+	{
+		return regionCount;
+	}
+
+	/**
+	 * Region arrays shared with a snapshot are counted by both
+	 */
+	@Override
+	public long getMemoryUsage()
+	{
+		int regionCapacity = regionKeys.length;
+		return SHALLOW_SIZE
+			+ TileStore.arraySize(directoryKeys.length, 8) + TileStore.arraySize(directoryIndices.length, 4)
+			+ TileStore.arraySize(regionCapacity, 8) + TileStore.arraySize(regionCapacity, 4) + TileStore.arraySize(regionCapacity, 1) * 2 + TileStore.arraySize(regionCapacity, 4)
+			+ regionArraysSize;
+	}
+
+	/**
+	 * Takes O(regions): the directory and per-region bookkeeping are copied, and the regions'
+	 * value arrays are shared until either store next writes to them.
+	 */
+	@Override
+	public TileStore snapshot()
+	{
+		Arrays.fill(regionShared, 0, regionCount, true);
+		return new RegionTileStore(this);
+	}
+
+	@Override
+	public TileCursor cursor()
+	{
+		return new TileCursor()
+		{
+			private int region = 0;
+			private int local = -1;
+
+			@Override
+			public boolean next()
+			{
+				while (region < regionCount)
+				{
+					if (regionTileCounts[region] != 0)
+					{
+						while (++local < TILES_PER_REGION)
+						{
+							if (valueAt(region, local) != 0)
+							{
+								return true;
+							}
+						}
+					}
+					region++;
+					local = -1;
+				}
+				return false;
+			}
+
+			@Override
+			public int getX()
+			{
+				return (TileKey.getX(regionKeys[region]) << REGION_SHIFT) | (local & REGION_MASK);
+			}
+
+			@Override
+			public int getY()
+			{
+				return (TileKey.getY(regionKeys[region]) << REGION_SHIFT) | (local >> REGION_SHIFT);
+			}
+
+			@Override
+			public int getPlane()
+			{
+				return TileKey.getPlane(regionKeys[region]);
+			}
+
+			@Override
+			public long getValue()
+			{
+				return valueAt(region, local);
+			}
+		};
+	}
+}
@@ -0,0 +1,260 @@
+package com.worldheatmap;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Writes the plugin's saves on a single writer thread, one at a time.
+ * <p>
+ * A save requested while the previous save of the same type is still waiting to be written replaces it, since
+ * both write the latest state of the heatmaps, so a burst of requests results in a single write. Saves to the
+ * .heatmaps files are written in the order they were requested, as each builds on the file the save before it
+ * left, while backups go to their own store and are only ordered among themselves. Whichever of the two has the
+ * more urgent save waiting is written first, so that e.g. flushing the heatmaps on logout doesn't wait for a
+ * periodic backup.
+ */
+@Slf4j
+class SaveScheduler
+{
+	/**
+	 * How urgent a save is, from least to most
+	 */
+	enum Priority
+	{
+		// Periodic backups
+		BACKUP,
+		// Periodic autosaves
+		AUTOSAVE,
+		// Saves that the user asked for, or that come before changes they asked for
+		USER,
+		// Saves of the heatmaps that are about to be unloaded
+		FLUSH
+	}
+
+	enum SaveType
+	{
+		// Updates the latest .heatmaps file
+		HEATMAPS_FILE,
+		// Starts a new .heatmaps file. Never replaced by a later request, since each one leaves a file behind
+		NEW_HEATMAPS_FILE,
+		// Adds a backup to the backup store
+		BACKUP,
+		// Not a save, but a read of the latest .heatmaps file, which is queued with the saves to the .heatmaps files so
+		// that none of them renames or replaces the file while it's being read. Never replaced by a later request
+		READ_HEATMAPS_FILE
+	}
+
+	private static class Save
+	{
+		final SaveType type;
+		Priority priority;
+		Runnable write;
+		// The number of the earliest of the requests merged into this save, counting from the first request
+		final long requestNumber;
+		// When the earliest of the requests merged into this save was made, in System.nanoTime() terms
+		final long requestedTime;
+
+		Save(SaveType type, Priority priority, Runnable write, long requestNumber)
+		{
+			this.type = type;
+			this.priority = priority;
+			this.write = write;
+			this.requestNumber = requestNumber;
+			this.requestedTime = System.nanoTime();
+		}
+	}
+
+	private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "World Heatmap save writer"));
+
+	// Saves waiting to be written, oldest first. Guarded by this
+	private final Deque<Save> fileSaves = new ArrayDeque<>();
+	private final Deque<Save> backups = new ArrayDeque<>();
+	private Save beingWritten = null;
+
+	// Metrics. Guarded by this. The request count also numbers the requests
+	private long requestCount = 0;
+	private long mergedCount = 0;
+	private long writeCount = 0;
+	private int maxQueueDepth = 0;
+	private long totalLatencyNanos = 0;
+	private long maxLatencyNanos = 0;
+	private long totalWriteNanos = 0;
+
+	/**
+	 * Requests a save. The given write runs on the writer thread, unless a later request of the same type replaces it first
+	 *
+	 * @param write Writes the save, from state captured when the save was requested
+	 */
+	synchronized void request(SaveType type, Priority priority, Runnable write)
+	{
+		if (writer.isShutdown())
+		{
+			log.warn("Ignoring {} save requested after the save scheduler shut down", type);
+			return;
+		}
+		requestCount++;
+		Deque<Save> queue = type == SaveType.BACKUP ? backups : fileSaves;
+		Save last = queue.peekLast();
+		if (last != null && last.type == type && type != SaveType.NEW_HEATMAPS_FILE && type != SaveType.READ_HEATMAPS_FILE)
+		{
+			last.write = write;
+			if (priority.compareTo(last.priority) > 0)
+			{
+				last.priority = priority;
+			}
+			mergedCount++;
+			return;
+		}
+
+		queue.addLast(new Save(type, priority, write, requestCount));
+		maxQueueDepth = Math.max(maxQueueDepth, getQueueDepth());
+		writer.execute(this::writeNext);
+	}
+
+	private void writeNext()
+	{
+		Save save;
+		synchronized (this)
+		{
+			Deque<Save> queue = pickQueue();
+			save = queue.pollFirst();
+			beingWritten = save;
+		}
+
+		long startTime = System.nanoTime();
+		try
+		{
+			save.write.run();
+		}
+		catch (RuntimeException e)
+		{
+			log.error("Error writing {} save", save.type, e);
+		}
+		long endTime = System.nanoTime();
+
+		synchronized (this)
+		{
+			beingWritten = null;
+			writeCount++;
+			long latencyNanos = endTime - save.requestedTime;
+			totalLatencyNanos += latencyNanos;
+			maxLatencyNanos = Math.max(maxLatencyNanos, latencyNanos);
+			totalWriteNanos += endTime - startTime;
+			log.debug("Wrote {} save ({} priority) {} ms after it was requested, of which {} ms writing. {} saves still queued",
+				save.type, save.priority, latencyNanos / 1_000_000, (endTime - startTime) / 1_000_000, getQueueDepth());
+			notifyAll();
+		}
+	}
+
+	/**
+	 * @return The queue whose most urgent save is the most urgent of all, or whose first save was requested earliest if it's a tie
+	 */
+	private Deque<Save> pickQueue()
+	{
+		if (fileSaves.isEmpty())
+		{
+			return backups;
+		}
+		if (backups.isEmpty())
+		{
+			return fileSaves;
+		}
+		int comparison = getMaxPriority(fileSaves).compareTo(getMaxPriority(backups));
+		if (comparison != 0)
+		{
+			return comparison > 0 ? fileSaves : backups;
+		}
+		return fileSaves.peekFirst().requestedTime - backups.peekFirst().requestedTime <= 0 ? fileSaves : backups;
+	}
+
+	private static Priority getMaxPriority(Deque<Save> queue)
+	{
+		Priority max = Priority.BACKUP;
+		for (Save save : queue)
+		{
+			if (save.priority.compareTo(max) > 0)
+			{
+				max = save.priority;
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Waits for the saves requested so far to be written, so that what they write can be read back. Saves requested
+	 * meanwhile aren't waited for, so a steady stream of them can't keep the caller waiting
+	 */
+	synchronized void awaitPendingSaves()
+	{
+		long lastRequestNumber = requestCount;
+		while (isPending(beingWritten, lastRequestNumber) || isPending(fileSaves.peekFirst(), lastRequestNumber) || isPending(backups.peekFirst(), lastRequestNumber))
+		{
+			try
+			{
+				wait();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return Whether the save writes a request made up to the given request number. Each queue is in the order its
+	 * saves were requested, so only its first save needs checking
+	 */
+	private static boolean isPending(Save save, long lastRequestNumber)
+	{
+		return save != null && save.requestNumber <= lastRequestNumber;
+	}
+
+	/**
+	 * Stops the writer thread once the saves requested so far are written
+	 */
+	synchronized void shutdown()
+	{
+		writer.shutdown();
+		log.info("Save scheduler shutting down: {} saves requested, {} merged into earlier requests, {} written. Average latency {} ms (max {} ms), average write {} ms, max queue depth {}",
+			requestCount, mergedCount, writeCount, getAverageLatencyMillis(), maxLatencyNanos / 1_000_000,
+			writeCount == 0 ? 0 : totalWriteNanos / writeCount / 1_000_000, maxQueueDepth);
+	}
+
+	/**
+	 * @return The number of saves waiting to be written, not counting one being written
+	 */
+	synchronized int getQueueDepth()
+	{
+		return fileSaves.size() + backups.size();
+	}
+
+	synchronized int getMaxQueueDepth()
+	{
+		return maxQueueDepth;
+	}
+
+	/**
+	 * @return The average time from a save being requested to it being written, in milliseconds
+	 */
+	synchronized long getAverageLatencyMillis()
+	{
+		return writeCount == 0 ? 0 : totalLatencyNanos / writeCount / 1_000_000;
+	}
+
+	synchronized long getMaxLatencyMillis()
+	{
+		return maxLatencyNanos / 1_000_000;
+	}
+
+	/**
+	 * @return The number of requests that were merged into an earlier request, rather than written separately
+	 */
+	synchronized long getMergedCount()
+	{
+		return mergedCount;
+	}
+}
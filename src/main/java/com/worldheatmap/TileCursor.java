@@ -0,0 +1,23 @@
+package com.worldheatmap;
+
+/**
+ * Allocation-free iteration over the tiles of a heatmap. Call next() before reading the
+ * first tile, and stop once it returns false.
+ */
+public interface TileCursor
+{
+	/**
+	 * Advances to the next tile.
+	 *
+	 * @return false if there are no more tiles
+	 */
+	boolean next();
+
+	int getX();
+
+	int getY();
+
+	int getPlane();
+
+	long getValue();
+}
@@ -0,0 +1,277 @@
+package com.worldheatmap;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing (linear probing) hash map from packed tile coordinates to tile values.
+ * <p>
+ * This replaces the HashMap&lt;WorldPoint, Integer&gt; that HeatmapNew used to keep, which cost a
+ * HashMap.Node, a WorldPoint and (usually) a boxed Integer per tile. Here a tile is just one
+ * long key and one int value in two flat arrays. The value array is widened to longs the first
+ * time a value doesn't fit in an int. Tiles with a value of 0 are not stored.
+ */
+public class TileHashMap implements TileStore
+{
+	private static final int DEFAULT_CAPACITY = 64;
+	private static final float LOAD_FACTOR = 0.6f;
+	// Object header and fields of a TileHashMap
+	private static final long SHALLOW_SIZE = 40;
+
+	private long[] keys;
+	private int[] values;
+	// Replaces values once any value outgrows an int
+	private long[] wideValues;
+	private int size = 0;
+	private int mask;
+	private int resizeThreshold;
+	// Set while the arrays are shared with a snapshot, so they must be copied before they're next written to
+	private boolean shared = false;
+
+	public TileHashMap()
+	{
+		allocate(DEFAULT_CAPACITY);
+	}
+
+	private TileHashMap(TileHashMap source)
+	{
+		keys = source.keys;
+		values = source.values;
+		wideValues = source.wideValues;
+		size = source.size;
+		mask = source.mask;
+		resizeThreshold = source.resizeThreshold;
+		shared = true;
+	}
+
+	private void unshare()
+	{
+		if (shared)
+		{
+			keys = keys.clone();
+			if (wideValues == null)
+			{
+				values = values.clone();
+			}
+			else
+			{
+				wideValues = wideValues.clone();
+			}
+			shared = false;
+		}
+	}
+
+	private void allocate(int capacity)
+	{
+		keys = new long[capacity];
+		Arrays.fill(keys, TileKey.NONE);
+		if (wideValues == null)
+		{
+			values = new int[capacity];
+		}
+		else
+		{
+			wideValues = new long[capacity];
+		}
+		mask = capacity - 1;
+		resizeThreshold = (int) (capacity * LOAD_FACTOR);
+	}
+
+	private int slotFor(long key)
+	{
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	/**
+	 * Returns the index of the slot holding the key, or the empty slot where it would go
+	 */
+	private int findSlot(long key)
+	{
+		int slot = slotFor(key);
+		while (keys[slot] != key && keys[slot] != TileKey.NONE)
+		{
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private long valueAt(int slot)
+	{
+		return wideValues == null ? values[slot] : wideValues[slot];
+	}
+
+	private void setValueAt(int slot, long value)
+	{
+		if (wideValues == null)
+		{
+			if (value == (int) value)
+			{
+				values[slot] = (int) value;
+				return;
+			}
+			widen();
+		}
+		wideValues[slot] = value;
+	}
+
+	private void widen()
+	{
+		wideValues = new long[values.length];
+		for (int i = 0; i < values.length; i++)
+		{
+			wideValues[i] = values[i];
+		}
+		values = null;
+	}
+
+	@Override
+	public long get(int x, int y, int z)
+	{
+		long key = TileKey.pack(x, y, z);
+		int slot = findSlot(key);
+		return keys[slot] == key ? valueAt(slot) : 0;
+	}
+
+	@Override
+	public long put(int x, int y, int z, long value)
+	{
+		long key = TileKey.pack(x, y, z);
+		int slot = findSlot(key);
+		if (keys[slot] == key)
+		{
+			long oldValue = valueAt(slot);
+			unshare();
+			if (value == 0)
+			{
+				removeSlot(slot);
+			}
+			else
+			{
+				setValueAt(slot, value);
+			}
+			return oldValue;
+		}
+
+		if (value != 0)
+		{
+			unshare();
+			keys[slot] = key;
+			setValueAt(slot, value);
+			if (++size > resizeThreshold)
+			{
+				rehash(keys.length * 2);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Removes the entry in the given slot, shifting back any later entries of the same probe
+	 * run so that lookups never hit a premature empty slot.
+	 */
+	private void removeSlot(int slot)
+	{
+		int gap = slot;
+		int next = (gap + 1) & mask;
+		while (keys[next] != TileKey.NONE)
+		{
+			int home = slotFor(keys[next]);
+			// Move the entry into the gap if its home slot isn't cyclically within (gap, next]
+			if (((next - home) & mask) >= ((next - gap) & mask))
+			{
+				keys[gap] = keys[next];
+				setValueAt(gap, valueAt(next));
+				gap = next;
+			}
+			next = (next + 1) & mask;
+		}
+		keys[gap] = TileKey.NONE;
+		setValueAt(gap, 0);
+		size--;
+	}
+
+	private void rehash(int newCapacity)
+	{
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		long[] oldWideValues = wideValues;
+		allocate(newCapacity);
+		for (int i = 0; i < oldKeys.length; i++)
+		{
+			if (oldKeys[i] != TileKey.NONE)
+			{
+				int slot = findSlot(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				setValueAt(slot, oldWideValues == null ? oldValues[i] : oldWideValues[i]);
+			}
+		}
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Arrays shared with a snapshot are counted by both
+	 */
+	@Override
+	public long getMemoryUsage()
+	{
+		return SHALLOW_SIZE + TileStore.arraySize(keys.length, 8) + TileStore.arraySize(keys.length, wideValues == null ? 4 : 8);
+	}
+
+	@Override
+	public TileStore snapshot()
+	{
+		shared = true;
+		return new TileHashMap(this);
+	}
+
+	@Override
+	public TileCursor cursor()
+	{
+		return new TileCursor()
+		{
+			private int slot = -1;
+
+			@Override
+			public boolean next()
+			{
+				while (++slot < keys.length)
+				{
+					if (keys[slot] != TileKey.NONE)
+					{
+						return true;
+					}
+				}
+				return false;
+			}
+
+			@Override
+			public int getX()
+			{
+				return TileKey.getX(keys[slot]);
+			}
+
+			@Override
+			public int getY()
+			{
+				return TileKey.getY(keys[slot]);
+			}
+
+			@Override
+			public int getPlane()
+			{
+				return TileKey.getPlane(keys[slot]);
+			}
+
+			@Override
+			public long getValue()
+			{
+				return valueAt(slot);
+			}
+		};
+	}
+}
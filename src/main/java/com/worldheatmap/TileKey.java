@@ -0,0 +1,40 @@
+package com.worldheatmap;
+
+/**
+ * Packs game tile coordinates (x, y, plane) into a single long, so that tiles can be stored
+ * in primitive collections without allocating a WorldPoint per tile.
+ * <p>
+ * Layout: 16 bits of plane, then 24 bits each of x and y. All three are sign-extended when
+ * unpacked, so the odd negative coordinate survives a round trip.
+ */
+public final class TileKey
+{
+	/**
+	 * A value that pack() can never return, for use as an empty slot marker
+	 */
+	public static final long NONE = Long.MIN_VALUE;
+
+	private TileKey()
+	{
+	}
+
+	public static long pack(int x, int y, int plane)
+	{
+		return ((long) plane << 48) | ((x & 0xFFFFFFL) << 24) | (y & 0xFFFFFFL);
+	}
+
+	public static int getX(long key)
+	{
+		return (int) (key << 16 >> 40);
+	}
+
+	public static int getY(long key)
+	{
+		return (int) (key << 40 >> 40);
+	}
+
+	public static int getPlane(long key)
+	{
+		return (int) (key >> 48);
+	}
+}
@@ -0,0 +1,197 @@
+package com.worldheatmap;
+
+/**
+ * Value statistics for the tiles of one plane of a heatmap: the tile count, the max and the non-zero min.
+ * HeatmapNew keeps these up to date as tiles are set, so that the panel doesn't have to scan every tile to get them.
+ * <p>
+ * The max and min are updated in place as long as they can be: a tile rising above the max (as the busiest
+ * tile does on most ticks) just becomes the new max, and likewise for a tile falling below the min. Only once
+ * no tile is known to hold the max or min any more, such as after the last tile holding the min has been
+ * incremented past it, is that one marked stale, for HeatmapNew to rescan the plane the next time it's read.
+ * The two go stale separately, so that the min going stale doesn't cost a rescan for reading just the max.
+ */
+public class TileStatistics
+{
+	/**
+	 * Heap memory used by one TileStatistics, in bytes
+	 */
+	static final long MEMORY_USAGE = 48;
+
+	private int tileCount = 0;
+	private long max = 0;
+	private int maxCount = 0;
+	private long min = 0;
+	private int minCount = 0;
+	private boolean maxStale = false;
+	private boolean minStale = false;
+
+	TileStatistics()
+	{
+	}
+
+	TileStatistics(TileStatistics source)
+	{
+		tileCount = source.tileCount;
+		max = source.max;
+		maxCount = source.maxCount;
+		min = source.min;
+		minCount = source.minCount;
+		maxStale = source.maxStale;
+		minStale = source.minStale;
+	}
+
+	/**
+	 * Updates the statistics after a tile on this plane changed value
+	 */
+	void onValueChanged(long oldValue, long newValue)
+	{
+		if (oldValue > 0)
+		{
+			tileCount--;
+		}
+		if (newValue > 0)
+		{
+			tileCount++;
+		}
+		if (tileCount == 0)
+		{
+			// Nothing left to be stale about
+			max = min = 0;
+			maxCount = minCount = 0;
+			maxStale = minStale = false;
+			return;
+		}
+		if (!maxStale)
+		{
+			updateMax(oldValue, newValue);
+		}
+		if (!minStale)
+		{
+			updateMin(oldValue, newValue);
+		}
+	}
+
+	private void updateMax(long oldValue, long newValue)
+	{
+		if (oldValue > 0 && oldValue == max)
+		{
+			if (newValue > max)
+			{
+				// The tile rose above the max, so it alone holds the new max
+				max = newValue;
+				maxCount = 1;
+			}
+			else if (newValue < max && --maxCount == 0)
+			{
+				maxStale = true;
+			}
+		}
+		else if (newValue > max || (newValue > 0 && maxCount == 0))
+		{
+			max = newValue;
+			maxCount = 1;
+		}
+		else if (newValue > 0 && newValue == max)
+		{
+			maxCount++;
+		}
+	}
+
+	private void updateMin(long oldValue, long newValue)
+	{
+		if (oldValue > 0 && oldValue == min)
+		{
+			if (newValue > 0 && newValue < min)
+			{
+				min = newValue;
+				minCount = 1;
+			}
+			else if (newValue != min && --minCount == 0)
+			{
+				minStale = true;
+			}
+		}
+		else if (newValue > 0 && (newValue < min || minCount == 0))
+		{
+			min = newValue;
+			minCount = 1;
+		}
+		else if (newValue > 0 && newValue == min)
+		{
+			minCount++;
+		}
+	}
+
+	/**
+	 * @return whether the max or min need recomputing with recompute() before they can be read
+	 */
+	boolean isStale()
+	{
+		return maxStale || minStale;
+	}
+
+	/**
+	 * @return whether the max needs recomputing with recompute() before it can be read
+	 */
+	boolean isMaxStale()
+	{
+		return maxStale;
+	}
+
+	/**
+	 * Recomputes the max and min from the given cursor, only counting the tiles on the given plane
+	 */
+	void recompute(TileCursor tile, int plane)
+	{
+		max = min = 0;
+		maxCount = minCount = 0;
+		while (tile.next())
+		{
+			if (tile.getPlane() != plane)
+			{
+				continue;
+			}
+			long value = tile.getValue();
+			if (value > max || maxCount == 0)
+			{
+				max = value;
+				maxCount = 1;
+			}
+			else if (value == max)
+			{
+				maxCount++;
+			}
+			if (value < min || minCount == 0)
+			{
+				min = value;
+				minCount = 1;
+			}
+			else if (value == min)
+			{
+				minCount++;
+			}
+		}
+		maxStale = minStale = false;
+	}
+
+	public int getTileCount()
+	{
+		return tileCount;
+	}
+
+	/**
+	 * @return the highest tile value, or 0 if there are no tiles
+	 */
+	public long getMax()
+	{
+		return max;
+	}
+
+	/**
+	 * @return the lowest non-zero tile value, or 0 if there are no tiles
+	 */
+	public long getMin()
+	{
+		return min;
+	}
+}
@@ -0,0 +1,77 @@
+package com.worldheatmap;
+
+/**
+ * Backing storage for the tile values of a HeatmapNew. Tiles with a value of 0 are not stored.
+ */
+public interface TileStore
+{
+	/**
+	 * How a TileStore lays out its tiles in memory
+	 */
+	enum Layout
+	{
+		/**
+		 * One open-addressing hash table of individual tiles. Best for sparse heatmaps.
+		 */
+		HASH,
+		/**
+		 * Dense 64x64 arrays per map square, allocated on first use. Best for heatmaps that fill whole map squares.
+		 */
+		REGION;
+
+		TileStore create()
+		{
+			return this == REGION ? new RegionTileStore() : new TileHashMap();
+		}
+	}
+
+	/**
+	 * @return the value of the tile, or 0 if it isn't stored
+	 */
+	long get(int x, int y, int z);
+
+	/**
+	 * Sets the value of the tile. A value of 0 removes the tile.
+	 *
+	 * @return the previous value of the tile, or 0 if it wasn't stored
+	 */
+	long put(int x, int y, int z, long value);
+
+	/**
+	 * @return the number of stored (non-zero) tiles
+	 */
+	int size();
+
+	default boolean isEmpty()
+	{
+		return size() == 0;
+	}
+
+	/**
+	 * Returns the heap memory used by the store and its arrays, in bytes, for a 64 bit JVM with
+	 * compressed references. Stores keep this current as they grow, so it is cheap to call.
+	 */
+	long getMemoryUsage();
+
+	/**
+	 * Returns a cursor over the stored tiles. The store must not be modified while the cursor is in use.
+	 */
+	TileCursor cursor();
+
+	/**
+	 * Returns an independent copy of the store as it is now. Stores share their arrays with their
+	 * snapshots and only copy them when next written to, so this is cheap, and the snapshot can be
+	 * read on another thread while this store keeps being written to.
+	 * <p>
+	 * Taking the snapshot must not overlap with writes to the store.
+	 */
+	TileStore snapshot();
+
+	/**
+	 * Returns the heap size of an array, in bytes: a 16 byte header plus its elements, padded to 8 bytes
+	 */
+	static long arraySize(int length, int bytesPerElement)
+	{
+		return (16 + (long) length * bytesPerElement + 7) & ~7L;
+	}
+}
@@ -85,72 +85,51 @@ public class Utils
 	}
 
 	/**
-	 * Returns the list of discrete coordinates on the path between p0 and p1, as an array of Points
+	 * Receives the tiles visited by walkLine
+	 */
+	@FunctionalInterface
+	interface TileVisitor
+	{
+		void visit(int x, int y);
+	}
+
+	/**
+	 * Visits the discrete coordinates on the path from (x0, y0) to (x1, y1), excluding the start and
+	 * including the end. If the two are equal, just the end is visited. Nothing is allocated per tile.
 	 * Credit to https:// www.redblobgames.com/grids/line-drawing.html for where I figured out how
-	 * to make the following linear interpolation functions
+	 * to make the following linear interpolation
+	 * <p>
+	 * The interpolation is deliberately done in floats, rounding with Math.round, like it always has been:
+	 * an integer error-accumulating walk picks a different tile at some rounding ties on long lines,
+	 * which would shift where existing heatmaps' teleport paths are drawn.
 	 *
-	 * @param p0 Point A
-	 * @param p1 Point B
-	 * @return Array of coordinates
+	 * @param visitor Called with each tile's coordinates, in order
 	 */
-	static Point[] getPointsBetween(Point p0, Point p1) {
-		if (p0.equals(p1)) {
-			return new Point[]{p1};
+	static void walkLine(int x0, int y0, int x1, int y1, TileVisitor visitor)
+	{
+		int N = diagonalDistance(x0, y0, x1, y1);
+		if (N == 0)
+		{
+			visitor.visit(x1, y1);
+			return;
 		}
-		int N = diagonalDistance(p0, p1);
-		Point[] points = new Point[N];
-		for (int step = 1; step <= N; step++) {
+		int dx = x1 - x0;
+		int dy = y1 - y0;
+		for (int step = 1; step <= N; step++)
+		{
 			float t = step / (float) N;
-			points[step - 1] = roundPoint(lerp_point(p0, p1, t));
+			visitor.visit(Math.round(x0 + dx * t), Math.round(y0 + dy * t));
 		}
-		return points;
 	}
 
 	/**
 	 * Returns the "diagonal distance" (the maximum of the horizontal and vertical distance) between two points
 	 *
-	 * @param p0 Point A
-	 * @param p1 Point B
 	 * @return The diagonal distance
 	 */
-	static int diagonalDistance(Point p0, Point p1) {
-		int dx = Math.abs(p1.getX() - p0.getX());
-		int dy = Math.abs(p1.getY() - p0.getY());
-		return Math.max(dx, dy);
-	}
-
-	/**
-	 * Rounds a floating point coordinate to its nearest integer coordinate.
-	 *
-	 * @param point The point to round
-	 * @return Coordinates
-	 */
-	private static Point roundPoint(float[] point) {
-		return new Point(Math.round(point[0]), Math.round(point[1]));
-	}
-
-	/**
-	 * Returns the floating point 2D coordinate that is t-percent of the way between p0 and p1
-	 *
-	 * @param p0 Point A
-	 * @param p1 Point B
-	 * @param t  Percent distance
-	 * @return Coordinate that is t% of the way from A to B
-	 */
-	private static float[] lerp_point(Point p0, Point p1, float t) {
-		return new float[]{lerp(p0.getX(), p1.getX(), t), lerp(p0.getY(), p1.getY(), t)};
-	}
-
-	/**
-	 * Returns the floating point number that is t-percent of the way between p0 and p1.
-	 *
-	 * @param p0 Point A
-	 * @param p1 Point B
-	 * @param t  Percent distance
-	 * @return Point that is t-percent of the way from A to B
-	 */
-	private static float lerp(int p0, int p1, float t) {
-		return p0 + (p1 - p0) * t;
+	static int diagonalDistance(int x0, int y0, int x1, int y1)
+	{
+		return Math.max(Math.abs(x1 - x0), Math.abs(y1 - y0));
 	}
 
 	public static boolean isInOverworld(Point point) {
@@ -57,7 +57,7 @@ public interface WorldHeatmapConfig extends Config {
             keyName = "HeatmapBackupFrequency",
             name = "Data backup frequency",
             position = 3,
-            description = "Determines how often (in ticks of game time) to make a new backup of the heatmap data, in the Heatmap 'Results/Backups' folder (don't set this field too low or there will be too many backups piling up). Default value 36000 ticks (6 hours). Minimum value 100.",
+            description = "Determines how often (in ticks of game time) to make a new backup of the heatmap data, in the 'Backups' folder next to the heatmap files. Backups only take up space for what changed since the previous one. Default value 36000 ticks (6 hours). Minimum value 100.",
             section = settings
     )
     default int heatmapBackupFrequency() {
@@ -130,6 +130,43 @@ public interface WorldHeatmapConfig extends Config {
 		return true;
 	}
 
+	@ConfigItem(
+			keyName = "isColumnarStorageEnabled",
+			name = "Shared tile storage",
+			position = 9,
+			description = "If enabled, all heatmap types share one tile index in memory, which speeds up tiles that several heatmaps count at once. Saves memory when many enabled heatmaps cover the same tiles, but sparse heatmaps (e.g. trades, world hops) take up more memory than on their own. Takes effect on next login.",
+			section = settings
+	)
+	default boolean isColumnarStorageEnabled() {
+		return false;
+	}
+
+	@ConfigItem(
+			keyName = "heatmapFileFormat",
+			name = "Data file format",
+			position = 10,
+			description = "How heatmap data is stored in .heatmaps files. Binary is much smaller and faster. CSV is plain text, readable by other programs and by older plugin versions. Either format can always be read, and files are converted as they're next saved.",
+			section = settings
+	)
+	default HeatmapFileFormat heatmapFileFormat() {
+		return HeatmapFileFormat.BINARY;
+	}
+
+	@Range(
+			min = 1,
+			max = 16
+	)
+	@ConfigItem(
+			keyName = "imageStripsInFlight",
+			name = "Image strips in parallel",
+			position = 11,
+			description = "How many chunks of the heatmap image are drawn at once, using up to as many CPU cores. Higher values = faster image writing on multi-core CPUs, but each chunk takes up memory (see Speed-memory tradeoff), so it's limited to your CPU cores and the free memory. 1 draws one chunk at a time.",
+			section = settings
+	)
+	default int imageStripsInFlight() {
+		return 1;
+	}
+
     @ConfigSection(
             name = "Per-Heatmap On/Off",
             description = "Enabling/disabling individual heatmaps",
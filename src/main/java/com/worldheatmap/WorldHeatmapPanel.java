@@ -4,6 +4,7 @@ import java.awt.*;
 import java.net.URI;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Inject;
 import lombok.extern.slf4j.Slf4j;
@@ -29,8 +30,10 @@ public class WorldHeatmapPanel extends PluginPanel {
     Map<HeatmapNew.HeatmapType, JLabel> heatmapPanelLabels = new HashMap<>();
     Map<HeatmapNew.HeatmapType, JButton> writeHeatmapImageButtons = new HashMap<>();
     Map<HeatmapNew.HeatmapType, JButton> clearHeatmapButtons = new HashMap<>();
-	Map<HeatmapNew.HeatmapType, Integer> memoryUsageEstimates = new HashMap<>();
-	protected long timeOfLastMemoryEstimate = -1;
+	// The heatmaps' highest tile values for the tooltips. They're worked out off the Swing thread at most once
+	// a minute, since working one out can mean rescanning the heatmap's tiles under its lock
+	private final Map<HeatmapNew.HeatmapType, Long> maxTileValues = new ConcurrentHashMap<>();
+	private volatile long timeOfLastMaxTileValueUpdate = -1;
 
     public WorldHeatmapPanel(WorldHeatmapPlugin plugin) {
         this.plugin = plugin;
@@ -60,17 +63,8 @@ public class WorldHeatmapPanel extends PluginPanel {
         playerIDLabel.setHorizontalAlignment(SwingConstants.CENTER);
         mainPanel.add(playerIDLabel);
 
-        // Total Memory Usage estimate label
-        int estimatedMemoryUsage = 0;
-        for (HeatmapNew heatmap : plugin.heatmaps.values()) {
-            estimatedMemoryUsage += heatmap.estimateSize();
-        }
-		if (estimatedMemoryUsage == 0) {
-			totalMemoryUsageLabel = new JLabel("Estimated Memory Usage: 0MB");
-		}
-		else {
-			totalMemoryUsageLabel = new JLabel("Estimated Memory Usage: " + String.format("%.2f", estimatedMemoryUsage / 1024. / 1024) +  "MB");
-		}
+        // Total Memory Usage label
+		totalMemoryUsageLabel = new JLabel("Memory Usage: " + String.format("%.2f", getTotalMemoryUsage() / 1024. / 1024) +  "MB");
         totalMemoryUsageLabel.setHorizontalAlignment(SwingConstants.CENTER);
         mainPanel.add(totalMemoryUsageLabel);
 
@@ -101,10 +95,10 @@ public class WorldHeatmapPanel extends PluginPanel {
             heatmapLabel.setForeground(Color.WHITE);
             heatmapLabel.setHorizontalAlignment(SwingConstants.CENTER);
             if (plugin.heatmaps.get(heatmapType) != null){
-                heatmapLabel.setToolTipText("Estimated memory usage: " + String.format("%.2f", plugin.heatmaps.get(heatmapType).estimateSize() / 1024. / 1024) + "MB");
+                heatmapLabel.setToolTipText("Memory usage: " + String.format("%.2f", plugin.heatmaps.get(heatmapType).getMemoryUsage() / 1024. / 1024) + "MB");
             }
             else {
-                heatmapLabel.setToolTipText("Estimated memory usage: 0MB");
+                heatmapLabel.setToolTipText("Memory usage: 0MB");
             }
 
             heatmapPanel.add(heatmapLabel);
@@ -237,21 +231,22 @@ public class WorldHeatmapPanel extends PluginPanel {
     }
 
 	/**
-	 * Update the memory usage label and the tooltip of each heatmap panel label
+	 * @return The heap memory used by all loaded heatmaps, including any tile index they share, in bytes
 	 */
-    protected void updateMemoryUsageLabels() {
-		// Only update the memory usage label every minute
-		// because it is a relatively expensive operation
-		if (System.currentTimeMillis() - timeOfLastMemoryEstimate < 60_000 || timeOfLastMemoryEstimate == -1) {
-			timeOfLastMemoryEstimate = System.currentTimeMillis();
-			int totalEstimatedMemoryUsage = 0;
-			for (HeatmapNew heatmap : plugin.heatmaps.values()) {
-				int estimatedMemoryUsage = heatmap.estimateSize();
-				memoryUsageEstimates.put(heatmap.getHeatmapType(), estimatedMemoryUsage);
-				totalEstimatedMemoryUsage += estimatedMemoryUsage;
-			}
-			totalMemoryUsageLabel.setText("Estimated Memory Usage: " + String.format("%.2f", totalEstimatedMemoryUsage / 1024. / 1024) +  "MB");
+	private long getTotalMemoryUsage() {
+		long totalMemoryUsage = plugin.getSharedTileIndexMemoryUsage();
+		for (HeatmapNew heatmap : plugin.heatmaps.values()) {
+			totalMemoryUsage += heatmap.getMemoryUsage();
 		}
+		return totalMemoryUsage;
+	}
+
+	/**
+	 * Update the memory usage label and the tooltip of each heatmap panel label.
+	 * Memory usage is tracked by the heatmaps as they grow, so this is cheap enough to run every tick.
+	 */
+    protected void updateMemoryUsageLabels() {
+		totalMemoryUsageLabel.setText("Memory Usage: " + String.format("%.2f", getTotalMemoryUsage() / 1024. / 1024) +  "MB");
 
 		// Update the tooltips of the heatmap panel labels
 		for (Map.Entry<HeatmapNew.HeatmapType, JLabel> entry : heatmapPanelLabels.entrySet()) {
@@ -262,42 +257,59 @@ public class WorldHeatmapPanel extends PluginPanel {
 				continue;
 			}
 			if (heatmap == null) {
-				label.setToolTipText("Estimated memory usage: 0MB (heatmap not loaded)");
+				label.setToolTipText("Memory usage: 0MB (heatmap not loaded)");
 			}
 			else {
 				int gameTimeSeconds = (int)(heatmap.getGameTimeTicks() * 0.6);
 				String gameTimeFormatted = String.format("%02d:%02d:%02d", gameTimeSeconds / 3600, (gameTimeSeconds % 3600) / 60, gameTimeSeconds % 60);
-				label.setToolTipText("Estimated memory usage: " + String.format("%.2f", memoryUsageEstimates.get(heatmapType) / 1024. / 1024) + "MB"
+				label.setToolTipText("Memory usage: " + String.format("%.2f", heatmap.getMemoryUsage() / 1024. / 1024) + "MB"
+					+ "\n"
+					+ "Heatmap age: " + gameTimeFormatted
 					+ "\n"
-					+ "Heatmap age: " + gameTimeFormatted);
+					+ "Highest tile value: " + maxTileValues.getOrDefault(heatmapType, 0L));
 			}
 		}
 
         updateUI();
     }
 
+	/**
+	 * Works out the heatmaps' highest tile values for the tooltips, if it's been a minute since they were last
+	 * worked out. Not to be called on the Swing thread
+	 */
+	protected void updateMaxTileValues() {
+		long now = System.currentTimeMillis();
+		if (timeOfLastMaxTileValueUpdate != -1 && now - timeOfLastMaxTileValueUpdate < 60_000) {
+			return;
+		}
+		timeOfLastMaxTileValueUpdate = now;
+		for (HeatmapNew heatmap : plugin.heatmaps.values()) {
+			maxTileValues.put(heatmap.getHeatmapType(), heatmap.getMaxValue());
+		}
+	}
+
     private void writeHeatmapImage(HeatmapNew.HeatmapType heatmapType, boolean isFullMapImage) {
 		HeatmapNew heatmap = plugin.heatmaps.get(heatmapType);
         // Save all heatmap data
-        plugin.executor.execute(plugin::saveHeatmapsFile);
+        plugin.executor.execute(() -> plugin.requestSave(SaveScheduler.Priority.USER));
         // Write the specified heatmap image
 		File imageFile = HeatmapFileManager.getNewImageFile(plugin.currentLocalAccountHash, heatmapType, heatmap.getSeasonalType());
-        plugin.executor.execute(() -> HeatmapImage.writeHeatmapImage(heatmap, imageFile, isFullMapImage, plugin.config.isBlueMapEnabled(), plugin.config.heatmapAlpha(), plugin.config.heatmapSensitivity(), plugin.config.speedMemoryTradeoff(), new WorldHeatmapPlugin.HeatmapProgressListener(plugin, heatmapType)));
+        plugin.executor.execute(() -> HeatmapImage.writeHeatmapImage(heatmap.snapshot(), imageFile, isFullMapImage, plugin.config.isBlueMapEnabled(), plugin.config.heatmapAlpha(), plugin.config.heatmapSensitivity(), plugin.config.speedMemoryTradeoff(), plugin.config.imageStripsInFlight(), new WorldHeatmapPlugin.HeatmapProgressListener(plugin, heatmapType)));
     }
 
     private void clearHeatmap(HeatmapNew.HeatmapType heatmapType) {
 		log.info("Clearing heatmap: {}", heatmapType);
 
 		// Update the latest heatmap data file
-		plugin.executor.execute(plugin::saveHeatmapsFile);
+		plugin.executor.execute(() -> plugin.requestSave(SaveScheduler.Priority.USER));
 
         // Replace the heatmap with a new one
 		plugin.executor.execute(() -> {
-			plugin.heatmaps.put(heatmapType, new HeatmapNew(heatmapType, plugin.currentLocalAccountHash, plugin.currentPlayerAccountType, plugin.currentSeasonalType, plugin.currentPlayerCombatLevel));
+			plugin.heatmaps.put(heatmapType, new HeatmapNew(heatmapType, plugin.currentLocalAccountHash, plugin.currentPlayerAccountType, plugin.currentSeasonalType, plugin.currentPlayerCombatLevel, plugin.createTileStore(heatmapType)));
 		});
 
         // Start a new .heatmaps data file, so the pre-clearing data is not lost
-		plugin.executor.execute(plugin::saveNewHeatmapsFile);
+		plugin.executor.execute(() -> plugin.requestNewFileSave(SaveScheduler.Priority.USER));
     }
 
     private void openHeatmapsFolder() throws IOException {
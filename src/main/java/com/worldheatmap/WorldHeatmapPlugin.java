@@ -63,7 +63,20 @@ public class WorldHeatmapPlugin extends Plugin {
 	protected GameState previousGameState, previousPreviousGameState = GameState.UNKNOWN;
 	protected String currentSeasonalType;
     protected final File WORLD_HEATMAP_DIR = new File(RUNELITE_DIR.toString(), "worldheatmap");
-    protected Map<HeatmapNew.HeatmapType, HeatmapNew> heatmaps = new HashMap<>();
+    protected Map<HeatmapNew.HeatmapType, HeatmapNew> heatmaps = new ConcurrentHashMap<>();
+	// Shared tile index for all heatmap types, when columnar storage is enabled
+	private ColumnarTileStore columnarTileStore;
+	// Records the loaded heatmaps' changes between saves, or null if no heatmaps are loaded
+	private volatile HeatmapJournal journal;
+	// Types that get recorded to on most ticks, which are loaded before recording starts. The rest are loaded afterwards
+	private static final Set<HeatmapNew.HeatmapType> EAGERLY_LOADED_TYPES = EnumSet.of(HeatmapNew.HeatmapType.TYPE_A, HeatmapNew.HeatmapType.TYPE_B);
+	// How many times to try reading the remaining heatmaps, and how long to wait in between, before leaving them pending
+	private static final int DEFERRED_LOAD_ATTEMPTS = 3;
+	private static final long DEFERRED_LOAD_RETRY_DELAY_MS = 500;
+	// Buffers the changes to enabled types that are still being loaded, until they're swapped in on the client thread
+	private final Map<HeatmapNew.HeatmapType, HeatmapNew> pendingHeatmaps = new ConcurrentHashMap<>();
+	private ScheduledFuture<?> journalFlushing;
+	private static final int JOURNAL_FLUSH_INTERVAL_SECONDS = 5;
     private NavigationButton toolbarButton;
     protected WorldHeatmapPanel panel;
 	private Instant timeLastDied;
@@ -106,7 +119,11 @@ public class WorldHeatmapPlugin extends Plugin {
     protected String currentPlayerName;
 	private CompletableFuture<Void> loading = new CompletableFuture<>();
 	private boolean isLoading;
+	// When loading the heatmaps was requested, in System.nanoTime() terms
+	private long loadRequestedTime;
 	private HeatmapFileManager heatmapFileManager;
+	// Writes the saves, one at a time
+	private SaveScheduler saveScheduler;
 
 	@Inject
     private Client client;
@@ -149,16 +166,32 @@ public class WorldHeatmapPlugin extends Plugin {
 		assert currentPlayerAccountType >= 0 && currentPlayerAccountType <= 10;
 		assert currentSeasonalType != null;
 
-		// First, perform any necessary fixes to the heatmaps
+		// Let the saves from the previous session finish first, since they write to the files about to be read
+		awaitPendingSaves();
+
+		// First, set aside the latest heatmaps files if a crash left them damaged, so that the ones before them get
+		// loaded. That includes the normal and Leagues directories, since the fixes below read their latest files
+		for (String seasonalType : new LinkedHashSet<>(Arrays.asList("", "LEAGUES_V", "LEAGUES_VI", currentSeasonalType))) {
+			heatmapFileManager.recoverHeatmapsFiles(currentLocalAccountHash, seasonalType);
+		}
+		// Then perform any necessary fixes to the heatmaps
 		heatmapFileManager.fixHeatmapsFiles(currentLocalAccountHash, currentPlayerName);
 
         log.info("Loading most recent {}heatmaps under user ID {}...", currentSeasonalType.isBlank() ? "" : currentSeasonalType + " ", currentLocalAccountHash);
         File latestHeatmapsFile = heatmapFileManager.getLatestFile(currentLocalAccountHash, currentSeasonalType);
+		columnarTileStore = config.isColumnarStorageEnabled() ? new ColumnarTileStore() : null;
+
+		// Only load the heatmaps recorded to on most ticks before recording starts. The others buffer their changes until they're loaded
+		List<HeatmapNew.HeatmapType> eagerTypes = new ArrayList<>();
+		List<HeatmapNew.HeatmapType> deferredTypes = new ArrayList<>();
+		for (HeatmapNew.HeatmapType type : getEnabledHeatmapTypes()) {
+			(EAGERLY_LOADED_TYPES.contains(type) ? eagerTypes : deferredTypes).add(type);
+		}
 
-        // Load all heatmaps from the file
+        // Load the eagerly loaded heatmaps from the file
         if (latestHeatmapsFile != null && latestHeatmapsFile.exists()) {
 			try {
-				heatmaps = heatmapFileManager.readHeatmapsFromFile(latestHeatmapsFile, getEnabledHeatmapTypes());
+				heatmaps = new ConcurrentHashMap<>(heatmapFileManager.readHeatmapsFromFile(latestHeatmapsFile, eagerTypes, true, this::createTileStore));
 			}
 			catch (FileNotFoundException e) {
 				throw new RuntimeException(e);
@@ -172,7 +205,29 @@ public class WorldHeatmapPlugin extends Plugin {
             }
         }
 
-        initializeMissingHeatmaps(heatmaps);
+        initializeMissingHeatmaps(heatmaps, eagerTypes);
+
+		// Replay the changes journaled since the latest file was saved, in case the client didn't get to save them
+		File journalFile = new File(heatmapFileManager.getHeatmapsDirectory(currentLocalAccountHash, currentSeasonalType), HeatmapJournal.FILE_NAME);
+		try {
+			journalFile.getParentFile().mkdirs();
+			journal = HeatmapJournal.open(journalFile);
+			for (HeatmapNew heatmap : heatmaps.values()) {
+				journal.attach(heatmap);
+			}
+		} catch (IOException e) {
+			log.error("Could not open heatmap journal '{}', so changes will only be saved by autosaves: {}", journalFile, e.toString());
+			journal = null;
+		}
+
+		// The pending heatmaps' changes are journaled without replaying anything onto them,
+		// so that they get replayed onto the loaded heatmaps instead if they're never swapped in
+		pendingHeatmaps.clear();
+		for (HeatmapNew.HeatmapType type : deferredTypes) {
+			HeatmapNew pendingHeatmap = new HeatmapNew(type, currentLocalAccountHash, currentPlayerAccountType, currentSeasonalType, currentPlayerCombatLevel, TileStore.Layout.HASH.create());
+			pendingHeatmap.setJournal(journal);
+			pendingHeatmaps.put(type, pendingHeatmap);
+		}
         panel.setEnabledHeatmapButtons(true);
 		// Initialize previousXP values
 		for (Skill skill : Skill.values()) {
@@ -181,13 +236,121 @@ public class WorldHeatmapPlugin extends Plugin {
 		panel.setEnabledHeatmapButtons(true);
 		loading.complete(null);
 		isLoading = false;
+		log.info("Heatmaps ready for recording {} ms after loading was requested", (System.nanoTime() - loadRequestedTime) / 1_000_000);
+
+		if (!deferredTypes.isEmpty()) {
+			Map<HeatmapNew.HeatmapType, HeatmapNew> sessionHeatmaps = heatmaps;
+			boolean hasHeatmapsFile = latestHeatmapsFile != null && latestHeatmapsFile.exists();
+			// Read on the save writer, between saves, so that no save renames or replaces the file while it's being read
+			saveScheduler.request(SaveScheduler.SaveType.READ_HEATMAPS_FILE, SaveScheduler.Priority.USER,
+				() -> loadDeferredHeatmaps(sessionHeatmaps, deferredTypes, hasHeatmapsFile));
+		}
     }
 
+	/**
+	 * Loads the enabled heatmaps that recording started without, and swaps them in for their pending heatmaps.
+	 * Must run on the save writer, so that the latest file isn't saved over while it's being read
+	 *
+	 * @param sessionHeatmaps The heatmaps map at the time of loading, to tell whether they've been unloaded since
+	 * @param types The types to load
+	 * @param hasHeatmapsFile Whether there was a heatmaps file to load the other heatmaps from
+	 */
+	private void loadDeferredHeatmaps(Map<HeatmapNew.HeatmapType, HeatmapNew> sessionHeatmaps, List<HeatmapNew.HeatmapType> types, boolean hasHeatmapsFile) {
+		if (heatmaps != sessionHeatmaps) {
+			return;
+		}
+		long startTime = System.nanoTime();
+		Map<HeatmapNew.HeatmapType, HeatmapNew> loadedHeatmaps = new HashMap<>();
+		for (int attempt = 1; ; attempt++) {
+			// Re-query the latest file, since the heatmaps may have been saved to a new one since loading started
+			File latestHeatmapsFile = heatmapFileManager.getLatestFile(currentLocalAccountHash, currentSeasonalType);
+			if (!hasHeatmapsFile && (latestHeatmapsFile == null || !latestHeatmapsFile.exists())) {
+				// There's genuinely nothing saved yet
+				break;
+			}
+			try {
+				if (latestHeatmapsFile == null) {
+					throw new FileNotFoundException("No heatmaps file");
+				}
+				loadedHeatmaps.putAll(heatmapFileManager.readHeatmapsFromFile(latestHeatmapsFile, types, true, this::createTileStore));
+				break;
+			}
+			catch (FileNotFoundException | RuntimeException e) {
+				// A missing or unreadable file isn't the same as one without these heatmaps, which would replace their saved tiles with empty ones
+				if (attempt == DEFERRED_LOAD_ATTEMPTS) {
+					log.error("Could not read the remaining heatmaps from '{}'. Their changes this session stay journaled until the next load", latestHeatmapsFile, e);
+					return;
+				}
+				log.warn("Could not read the remaining heatmaps from '{}', retrying: {}", latestHeatmapsFile, e.toString());
+				try {
+					Thread.sleep(DEFERRED_LOAD_RETRY_DELAY_MS);
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				if (heatmaps != sessionHeatmaps) {
+					return;
+				}
+			}
+		}
+		for (HeatmapNew heatmap : loadedHeatmaps.values()) {
+			heatmap.setUserID(currentLocalAccountHash);
+			heatmap.setAccountType(currentPlayerAccountType);
+			heatmap.setCurrentCombatLevel(currentPlayerCombatLevel);
+			heatmap.setSeasonalType(currentSeasonalType);
+		}
+		initializeMissingHeatmaps(loadedHeatmaps, types);
+
+		// Swap them in on the client thread, so that no change can be recorded to a pending heatmap while it's being replaced
+		clientThread.invoke(() -> {
+			if (heatmaps != sessionHeatmaps) {
+				// Unloading closed the journal, so the pending changes will be replayed next time instead
+				return;
+			}
+			for (HeatmapNew heatmap : loadedHeatmaps.values()) {
+				installDeferredHeatmap(heatmap);
+			}
+			log.info("Loaded the remaining {} heatmaps {} ms after recording started", loadedHeatmaps.size(), (System.nanoTime() - startTime) / 1_000_000);
+		});
+	}
+
+	/**
+	 * Replaces the pending heatmap of the given heatmap's type with it, applying the pending changes. Must be called on the client thread.
+	 */
+	private void installDeferredHeatmap(HeatmapNew heatmap) {
+		HeatmapNew.HeatmapType type = heatmap.getHeatmapType();
+		HeatmapNew pendingHeatmap = pendingHeatmaps.remove(type);
+		if (pendingHeatmap == null || !isHeatmapEnabled(type)) {
+			// It was disabled while loading
+			return;
+		}
+		HeatmapJournal journal = this.journal;
+		// Attaching replays the pending changes along with the rest of the journal, unless the loaded heatmap can't be replayed onto
+		boolean replaysPendingChanges = journal != null && heatmap.getJournalSequence() != HeatmapNew.UNKNOWN_JOURNAL_SEQUENCE;
+		if (journal != null) {
+			journal.attach(heatmap);
+		}
+		if (!replaysPendingChanges) {
+			heatmap.add(pendingHeatmap);
+		}
+		heatmap.setGameTimeTicks(heatmap.getGameTimeTicks() + pendingHeatmap.getGameTimeTicks());
+		heatmaps.put(type, heatmap);
+	}
+
+	/**
+	 * Returns the heatmap to record changes of the given type to: the loaded heatmap, or the pending one if it's still being loaded
+	 */
+	private HeatmapNew getRecordingHeatmap(HeatmapNew.HeatmapType type) {
+		HeatmapNew heatmap = heatmaps.get(type);
+		return heatmap != null ? heatmap : pendingHeatmaps.get(type);
+	}
+
     @Override
     protected void startUp() {
         panel = new WorldHeatmapPanel(this);
         panel.rebuild();
 		heatmapFileManager = new HeatmapFileManager(this);
+		saveScheduler = new SaveScheduler();
         final BufferedImage icon = ImageUtil.loadImageResource(getClass(), "/WorldHeatmap.png");
         toolbarButton = NavigationButton.builder()
                 .tooltip("World Heatmap")
@@ -198,6 +361,7 @@ public class WorldHeatmapPlugin extends Plugin {
         clientToolbar.addNavigation(toolbarButton);
         panel.setEnabledHeatmapButtons(false);
 		clientThread.invoke(this::displayUpdateMessage);
+		journalFlushing = executor.scheduleWithFixedDelay(this::flushJournal, JOURNAL_FLUSH_INTERVAL_SECONDS, JOURNAL_FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
 
 		if (client.getGameState() == GameState.LOGGED_IN) {
 			loading = new CompletableFuture<>();
@@ -228,11 +392,13 @@ public class WorldHeatmapPlugin extends Plugin {
 
     @Override
     protected void shutDown() {
-        if (heatmaps != null && !heatmaps.isEmpty()) {
+        if (heatmaps != null && (!heatmaps.isEmpty() || !pendingHeatmaps.isEmpty())) {
 			panel.setEnabledHeatmapButtons(false);
-			executor.execute(this::saveHeatmapsFile);
-			executor.execute(() -> heatmaps = new HashMap<>());
+			executor.execute(() -> requestSave(SaveScheduler.Priority.FLUSH));
+			executor.execute(this::unloadHeatmaps);
         }
+		executor.execute(saveScheduler::shutdown);
+        journalFlushing.cancel(false);
         clientToolbar.removeNavigation(toolbarButton);
     }
 
@@ -264,20 +430,41 @@ public class WorldHeatmapPlugin extends Plugin {
 		}
 
 		// This is when to save & unload the heatmaps
-		boolean heatmapsLoaded = heatmaps != null && !heatmaps.isEmpty();
+		boolean heatmapsLoaded = heatmaps != null && (!heatmaps.isEmpty() || !pendingHeatmaps.isEmpty());
         if (heatmapsLoaded &&
 			gameState == GameState.HOPPING ||
 			gameState == GameState.LOGIN_SCREEN) {
 			panel.setEnabledHeatmapButtons(false);
-			executor.execute(this::saveHeatmapsFile);
+			executor.execute(() -> requestSave(SaveScheduler.Priority.FLUSH));
 			executor.execute(this::reinitializeVariables);
-			executor.execute(() -> heatmaps = new HashMap<>());
+			executor.execute(this::unloadHeatmaps);
 		}
 
 		previousPreviousGameState = previousGameState;
 		previousGameState = gameState;
     }
 
+	private void unloadHeatmaps()
+	{
+		// The requested saves checkpoint the journal once they're written, so it has to stay open until then
+		awaitPendingSaves();
+		HeatmapJournal journal = this.journal;
+		if (journal != null) {
+			journal.close();
+			this.journal = null;
+		}
+		heatmaps = new ConcurrentHashMap<>();
+		pendingHeatmaps.clear();
+	}
+
+	private void flushJournal()
+	{
+		HeatmapJournal journal = this.journal;
+		if (journal != null) {
+			journal.flush();
+		}
+	}
+
 	private void reinitializeVariables()
 	{
 		lastX = 0;
@@ -348,10 +535,11 @@ public class WorldHeatmapPlugin extends Plugin {
 			SwingUtilities.invokeLater(panel::updatePlayerID);
 			updatePlayerMetadata();
 			updateSeasonalType();
+			loadRequestedTime = System.nanoTime();
 			executor.execute(this::loadHeatmaps);
 		}
 		// The following code requires the heatmap files to have been loaded
-		if (!loading.isDone() || heatmaps == null || heatmaps.isEmpty()) {
+		if (!loading.isDone() || heatmaps == null || (heatmaps.isEmpty() && pendingHeatmaps.isEmpty())) {
 			return;
 		}
 
@@ -359,6 +547,9 @@ public class WorldHeatmapPlugin extends Plugin {
         for (HeatmapNew.HeatmapType type : heatmaps.keySet()) {
             heatmaps.get(type).incrementGameTimeTicks();
         }
+		for (HeatmapNew pendingHeatmap : pendingHeatmaps.values()) {
+			pendingHeatmap.incrementGameTimeTicks();
+		}
 
         WorldPoint currentCoords = client.getLocalPlayer().getWorldLocation();
         int currentX = currentCoords.getX();
@@ -366,12 +557,12 @@ public class WorldHeatmapPlugin extends Plugin {
 		int currentZ = currentCoords.getPlane();
         boolean playerMovedSinceLastTick = (currentX != lastX || currentY != lastY || currentZ != lastZ);
 
-		if (shouldIncrementLoginLogout && heatmaps.get(HeatmapNew.HeatmapType.LOGIN_LOGOUT) != null) {
-			heatmaps.get(HeatmapNew.HeatmapType.LOGIN_LOGOUT).increment(currentX, currentY, currentZ);
+		if (shouldIncrementLoginLogout && getRecordingHeatmap(HeatmapNew.HeatmapType.LOGIN_LOGOUT) != null) {
+			getRecordingHeatmap(HeatmapNew.HeatmapType.LOGIN_LOGOUT).increment(currentX, currentY, currentZ);
 			shouldIncrementLoginLogout = false;
 		}
-		if (shouldIncrementWorldHops && heatmaps.get(HeatmapNew.HeatmapType.WORLD_HOPS) != null) {
-			heatmaps.get(HeatmapNew.HeatmapType.WORLD_HOPS).increment(currentX, currentY, currentZ);
+		if (shouldIncrementWorldHops && getRecordingHeatmap(HeatmapNew.HeatmapType.WORLD_HOPS) != null) {
+			getRecordingHeatmap(HeatmapNew.HeatmapType.WORLD_HOPS).increment(currentX, currentY, currentZ);
 			shouldIncrementWorldHops = false;
 		}
 
@@ -381,19 +572,21 @@ public class WorldHeatmapPlugin extends Plugin {
          * Since it's too hard to check if the player is actually running, we'll just check if the distance covered since last tick
          * was less than 4 tiles
          */
-        int diagDistance = Utils.diagonalDistance(new Point(lastX, lastY), new Point(currentX, currentY));
+        int diagDistance = Utils.diagonalDistance(lastX, lastY, currentX, currentY);
         if (diagDistance <= 3 && currentZ == lastZ) {
-            // Gets all the tiles between last position and new position
-            for (Point tile : Utils.getPointsBetween(new Point(lastX, lastY), new Point(currentX, currentY))) {
-                // TYPE_A
-                if (playerMovedSinceLastTick && config.isHeatmapTypeAEnabled() && heatmaps.get(HeatmapNew.HeatmapType.TYPE_A) != null) {
-                    heatmaps.get(HeatmapNew.HeatmapType.TYPE_A).increment(tile.getX(), tile.getY(), currentZ);
-                }
+            List<HeatmapNew> pathHeatmaps = new ArrayList<>(2);
+            // TYPE_A
+            if (playerMovedSinceLastTick && config.isHeatmapTypeAEnabled() && getRecordingHeatmap(HeatmapNew.HeatmapType.TYPE_A) != null) {
+                pathHeatmaps.add(getRecordingHeatmap(HeatmapNew.HeatmapType.TYPE_A));
+            }
+            // TYPE_B
+            if (config.isHeatmapTypeBEnabled() && getRecordingHeatmap(HeatmapNew.HeatmapType.TYPE_B) != null) {
+                pathHeatmaps.add(getRecordingHeatmap(HeatmapNew.HeatmapType.TYPE_B));
+            }
 
-                // TYPE_B
-                if (config.isHeatmapTypeBEnabled() && heatmaps.get(HeatmapNew.HeatmapType.TYPE_B) != null) {
-                    heatmaps.get(HeatmapNew.HeatmapType.TYPE_B).increment(tile.getX(), tile.getY(), currentZ);
-                }
+            // Gets all the tiles between last position and new position
+            if (!pathHeatmaps.isEmpty()) {
+                Utils.walkLine(lastX, lastY, currentX, currentY, (x, y) -> HeatmapNew.incrementAll(x, y, currentZ, 1, pathHeatmaps));
             }
         }
 
@@ -401,7 +594,7 @@ public class WorldHeatmapPlugin extends Plugin {
 
         // TELEPORT_PATHS
         if (config.isHeatmapTeleportPathsEnabled() &&
-			heatmaps.get(HeatmapNew.HeatmapType.TELEPORT_PATHS) != null &&
+			getRecordingHeatmap(HeatmapNew.HeatmapType.TELEPORT_PATHS) != null &&
 			diagDistance > 15 &&
 			Utils.isInOverworld(new Point(lastX, lastY)) &&
 			Utils.isInOverworld(new Point(currentX, currentY)) && //we don't draw lines between the overworld and caves etc.
@@ -410,9 +603,8 @@ public class WorldHeatmapPlugin extends Plugin {
 		)
         {
             if (config.isHeatmapTeleportPathsEnabled()) {
-                for (Point tile : Utils.getPointsBetween(new Point(lastX, lastY), new Point(currentX, currentY))) {
-                    heatmaps.get(HeatmapNew.HeatmapType.TELEPORT_PATHS).increment(tile.getX(), tile.getY(), currentZ);
-                }
+                HeatmapNew teleportPaths = getRecordingHeatmap(HeatmapNew.HeatmapType.TELEPORT_PATHS);
+                Utils.walkLine(lastX, lastY, currentX, currentY, (x, y) -> teleportPaths.increment(x, y, currentZ));
             }
         }
 
@@ -424,11 +616,11 @@ public class WorldHeatmapPlugin extends Plugin {
 			Utils.isInOverworld(new Point(currentX, currentY)) && //we only track teleports between overworld tiles
 			!isRecentlyDead)
         {
-            if (config.isHeatmapTeleportedToEnabled() && heatmaps.get(HeatmapNew.HeatmapType.TELEPORTED_TO) != null) {
-                heatmaps.get(HeatmapNew.HeatmapType.TELEPORTED_TO).increment(currentX, currentY, currentZ);
+            if (config.isHeatmapTeleportedToEnabled() && getRecordingHeatmap(HeatmapNew.HeatmapType.TELEPORTED_TO) != null) {
+                getRecordingHeatmap(HeatmapNew.HeatmapType.TELEPORTED_TO).increment(currentX, currentY, currentZ);
             }
-            if (config.isHeatmapTeleportedFromEnabled() && heatmaps.get(HeatmapNew.HeatmapType.TELEPORTED_FROM) != null) {
-                heatmaps.get(HeatmapNew.HeatmapType.TELEPORTED_FROM).increment(lastX, lastY, lastZ);
+            if (config.isHeatmapTeleportedFromEnabled() && getRecordingHeatmap(HeatmapNew.HeatmapType.TELEPORTED_FROM) != null) {
+                getRecordingHeatmap(HeatmapNew.HeatmapType.TELEPORTED_FROM).increment(lastX, lastY, lastZ);
             }
         }
 
@@ -440,7 +632,8 @@ public class WorldHeatmapPlugin extends Plugin {
         // Update panel step counter
         SwingUtilities.invokeLater(panel::updateCounts);
 
-        // Update memory usage + heatmap age tooltips
+        // Update memory usage + heatmap age tooltips, with the highest tile values worked out off the Swing thread
+		executor.execute(panel::updateMaxTileValues);
 		SwingUtilities.invokeLater(panel::updateMemoryUsageLabels);
 
         // Update last coords
@@ -453,9 +646,9 @@ public class WorldHeatmapPlugin extends Plugin {
 	public void onWidgetClosed(WidgetClosed widgetClosed) {
 		// TRADES
 		if (widgetClosed.getGroupId() == InterfaceID.TRADECONFIRM) {
-			if (config.isHeatmapTradesEnabled() && heatmaps.get(HeatmapNew.HeatmapType.TRADES) != null) {
+			if (config.isHeatmapTradesEnabled() && getRecordingHeatmap(HeatmapNew.HeatmapType.TRADES) != null) {
 				WorldPoint loc = client.getLocalPlayer().getWorldLocation();
-				heatmaps.get(HeatmapNew.HeatmapType.TRADES).increment(loc.getX(), loc.getY(), loc.getPlane());
+				getRecordingHeatmap(HeatmapNew.HeatmapType.TRADES).increment(loc.getX(), loc.getY(), loc.getPlane());
 			}
 		}
 	}
@@ -469,15 +662,15 @@ public class WorldHeatmapPlugin extends Plugin {
                 // DEATHS
                 if (config.isHeatmapDeathsEnabled()) {
 					WorldPoint loc = deadPlayer.getWorldLocation();
-                    heatmaps.get(HeatmapNew.HeatmapType.DEATHS).increment(loc.getX(), loc.getY(), loc.getPlane());
+                    getRecordingHeatmap(HeatmapNew.HeatmapType.DEATHS).increment(loc.getX(), loc.getY(), loc.getPlane());
                 }
             }
         } else if (actorDeath.getActor() instanceof NPC) {
 			NPC deadNPC = (NPC) actorDeath.getActor();
-            if (heatmaps.get(HeatmapNew.HeatmapType.NPC_DEATHS) != null && config.isHeatmapNPCDeathsEnabled()) {
+            if (getRecordingHeatmap(HeatmapNew.HeatmapType.NPC_DEATHS) != null && config.isHeatmapNPCDeathsEnabled()) {
                 // NPC_DEATHS
 				WorldPoint loc = deadNPC.getWorldLocation();
-                heatmaps.get(HeatmapNew.HeatmapType.NPC_DEATHS).increment(loc.getX(), loc.getY(), loc.getPlane());
+                getRecordingHeatmap(HeatmapNew.HeatmapType.NPC_DEATHS).increment(loc.getX(), loc.getY(), loc.getPlane());
             }
         }
     }
@@ -507,28 +700,28 @@ public class WorldHeatmapPlugin extends Plugin {
 		// PVP_DAMAGE_TAKEN
 		if (isMeTakingDamage && interactingPlayers.length > 0) {
 			if (config.isHeatmapPVPDamageTakenEnabled()) {
-				heatmaps.get(HeatmapNew.HeatmapType.PVP_DAMAGE_TAKEN).increment(localPlayerLoc.getX(), localPlayerLoc.getY(), localPlayerLoc.getPlane(), hitsplat.getAmount());
+				getRecordingHeatmap(HeatmapNew.HeatmapType.PVP_DAMAGE_TAKEN).increment(localPlayerLoc.getX(), localPlayerLoc.getY(), localPlayerLoc.getPlane(), hitsplat.getAmount());
 			}
 		}
 
 		// PVP_DAMAGE_GIVEN
 		if (hitsplatActor instanceof Player && hitsplat.isMine() && !isMeTakingDamage) {
 			if (config.isHeatmapPVPDamageGivenEnabled()) {
-				heatmaps.get(HeatmapNew.HeatmapType.PVP_DAMAGE_GIVEN).increment(localPlayerLoc.getX(), localPlayerLoc.getY(), localPlayerLoc.getPlane(), hitsplat.getAmount());
+				getRecordingHeatmap(HeatmapNew.HeatmapType.PVP_DAMAGE_GIVEN).increment(localPlayerLoc.getX(), localPlayerLoc.getY(), localPlayerLoc.getPlane(), hitsplat.getAmount());
 			}
 		}
 
         // NPC_DAMAGE_TAKEN
 		if (isMeTakingDamage & interactingPlayers.length == 0) {
 			if (config.isHeatmapNPCDamageTakenEnabled()) {
-				heatmaps.get(HeatmapNew.HeatmapType.NPC_DAMAGE_TAKEN).increment(localPlayerLoc.getX(), localPlayerLoc.getY(), localPlayerLoc.getPlane(), hitsplat.getAmount());
+				getRecordingHeatmap(HeatmapNew.HeatmapType.NPC_DAMAGE_TAKEN).increment(localPlayerLoc.getX(), localPlayerLoc.getY(), localPlayerLoc.getPlane(), hitsplat.getAmount());
 			}
 		}
 
 		// NPC_DAMAGE_GIVEN
 		if (hitsplatApplied.getActor() instanceof NPC && hitsplat.isMine()) {
 			if (config.isHeatmapNPCDamageGivenEnabled()) {
-				heatmaps.get(HeatmapNew.HeatmapType.NPC_DAMAGE_GIVEN).increment(localPlayerLoc.getX(), localPlayerLoc.getY(), localPlayerLoc.getPlane(), hitsplat.getAmount());
+				getRecordingHeatmap(HeatmapNew.HeatmapType.NPC_DAMAGE_GIVEN).increment(localPlayerLoc.getX(), localPlayerLoc.getY(), localPlayerLoc.getPlane(), hitsplat.getAmount());
 			}
 		}
     }
@@ -540,9 +733,9 @@ public class WorldHeatmapPlugin extends Plugin {
         }
         if (chatMessage.getType() == ChatMessageType.PUBLICCHAT) {
             // PLACES_SPOKEN_AT
-            if (config.isHeatmapPlacesSpokenAtEnabled() && heatmaps.get(HeatmapNew.HeatmapType.PLACES_SPOKEN_AT) != null) {
+            if (config.isHeatmapPlacesSpokenAtEnabled() && getRecordingHeatmap(HeatmapNew.HeatmapType.PLACES_SPOKEN_AT) != null) {
 				WorldPoint loc = client.getLocalPlayer().getWorldLocation();
-                heatmaps.get(HeatmapNew.HeatmapType.PLACES_SPOKEN_AT).increment(loc.getX(), loc.getY(), loc.getPlane());
+                getRecordingHeatmap(HeatmapNew.HeatmapType.PLACES_SPOKEN_AT).increment(loc.getX(), loc.getY(), loc.getPlane());
             }
         }
     }
@@ -558,9 +751,9 @@ public class WorldHeatmapPlugin extends Plugin {
         previousXP[skillIndex] = client.getSkillExperience(statChanged.getSkill());
 
         // XP_GAINED
-        if (config.isHeatmapXPGainedEnabled() && heatmaps.get(HeatmapNew.HeatmapType.XP_GAINED) != null) {
+        if (config.isHeatmapXPGainedEnabled() && getRecordingHeatmap(HeatmapNew.HeatmapType.XP_GAINED) != null) {
 			WorldPoint loc = client.getLocalPlayer().getWorldLocation();
-            heatmaps.get(HeatmapNew.HeatmapType.XP_GAINED).increment(loc.getX(), loc.getY(), loc.getPlane(), xpDifference);
+            getRecordingHeatmap(HeatmapNew.HeatmapType.XP_GAINED).increment(loc.getX(), loc.getY(), loc.getPlane(), xpDifference);
         }
     }
 
@@ -569,9 +762,9 @@ public class WorldHeatmapPlugin extends Plugin {
         // Currently it counts all random event spawns, not just random events meant for the local player
         if (randomEventNPCIDs.contains(npcSpawned.getNpc().getId())) {
             // RANDOM_EVENT_SPAWNS
-            if (config.isHeatmapRandomEventSpawnsEnabled() && heatmaps.get(HeatmapNew.HeatmapType.RANDOM_EVENT_SPAWNS) != null) {
+            if (config.isHeatmapRandomEventSpawnsEnabled() && getRecordingHeatmap(HeatmapNew.HeatmapType.RANDOM_EVENT_SPAWNS) != null) {
 				WorldPoint loc = npcSpawned.getNpc().getWorldLocation();
-                heatmaps.get(HeatmapNew.HeatmapType.RANDOM_EVENT_SPAWNS).increment(loc.getX(), loc.getY(), loc.getPlane());
+                getRecordingHeatmap(HeatmapNew.HeatmapType.RANDOM_EVENT_SPAWNS).increment(loc.getX(), loc.getY(), loc.getPlane());
             }
         }
 
@@ -579,9 +772,9 @@ public class WorldHeatmapPlugin extends Plugin {
         if (config.isHeatmapBobTheCatSightingEnabled() && npcSpawned.getNpc().getId() == NpcID.BOB_8034) {
             // Only count Bob the Cat sightings once per hour per world
             if (timeLastSeenBobTheCatPerWorld.get(client.getWorld()) == null || Instant.now().isAfter(timeLastSeenBobTheCatPerWorld.get(client.getWorld()).plusSeconds(3600))) {
-                if (heatmaps.get(HeatmapNew.HeatmapType.BOB_THE_CAT_SIGHTING) != null) {
+                if (getRecordingHeatmap(HeatmapNew.HeatmapType.BOB_THE_CAT_SIGHTING) != null) {
 					WorldPoint loc = npcSpawned.getNpc().getWorldLocation();
-                    heatmaps.get(HeatmapNew.HeatmapType.BOB_THE_CAT_SIGHTING).increment(loc.getX(), loc.getY(), loc.getPlane());
+                    getRecordingHeatmap(HeatmapNew.HeatmapType.BOB_THE_CAT_SIGHTING).increment(loc.getX(), loc.getY(), loc.getPlane());
                     timeLastSeenBobTheCatPerWorld.put(client.getWorld(), Instant.now());
                 }
             }
@@ -598,9 +791,9 @@ public class WorldHeatmapPlugin extends Plugin {
                 int y = location.getY();
 				int z = location.getPlane();
 
-                int totalValue = itemStack.getQuantity() * itemManager.getItemPrice(itemStack.getId());
-                if (heatmaps.get(HeatmapNew.HeatmapType.LOOT_VALUE) != null) {
-                    heatmaps.get(HeatmapNew.HeatmapType.LOOT_VALUE).increment(x, y, z, totalValue);
+                long totalValue = (long) itemStack.getQuantity() * itemManager.getItemPrice(itemStack.getId());
+                if (getRecordingHeatmap(HeatmapNew.HeatmapType.LOOT_VALUE) != null) {
+                    getRecordingHeatmap(HeatmapNew.HeatmapType.LOOT_VALUE).increment(x, y, z, totalValue);
                 }
             }
         }
@@ -628,7 +821,7 @@ public class WorldHeatmapPlugin extends Plugin {
 
         // Autosave the heatmap file if it is the correct time to do so, or if image is about to be written
         if (shouldAutosaveFiles || shouldWriteImages) {
-			executor.execute(this::saveHeatmapsFile);
+			requestSave(SaveScheduler.Priority.AUTOSAVE);
         }
 
         // Autosave the 'TYPE_A' and 'TYPE_B' heatmap images if it is the correct time to do so
@@ -638,10 +831,10 @@ public class WorldHeatmapPlugin extends Plugin {
 
             // Write the image files
             if (config.isHeatmapTypeAEnabled()) {
-                executor.execute(() -> HeatmapImage.writeHeatmapImage(heatmaps.get(HeatmapNew.HeatmapType.TYPE_A), typeAImageFile, false, config.isBlueMapEnabled(), config.heatmapAlpha(), config.heatmapSensitivity(), config.speedMemoryTradeoff(), new HeatmapProgressListener(this, HeatmapNew.HeatmapType.TYPE_A)));
+                executor.execute(() -> HeatmapImage.writeHeatmapImage(heatmaps.get(HeatmapNew.HeatmapType.TYPE_A).snapshot(), typeAImageFile, false, config.isBlueMapEnabled(), config.heatmapAlpha(), config.heatmapSensitivity(), config.speedMemoryTradeoff(), config.imageStripsInFlight(), new HeatmapProgressListener(this, HeatmapNew.HeatmapType.TYPE_A)));
             }
             if (config.isHeatmapTypeBEnabled()) {
-                executor.execute(() -> HeatmapImage.writeHeatmapImage(heatmaps.get(HeatmapNew.HeatmapType.TYPE_B), typeBImageFile, false, config.isBlueMapEnabled(), config.heatmapAlpha(), config.heatmapSensitivity(), config.speedMemoryTradeoff(), new HeatmapProgressListener(this, HeatmapNew.HeatmapType.TYPE_B)));
+                executor.execute(() -> HeatmapImage.writeHeatmapImage(heatmaps.get(HeatmapNew.HeatmapType.TYPE_B).snapshot(), typeBImageFile, false, config.isBlueMapEnabled(), config.heatmapAlpha(), config.heatmapSensitivity(), config.speedMemoryTradeoff(), config.imageStripsInFlight(), new HeatmapProgressListener(this, HeatmapNew.HeatmapType.TYPE_B)));
             }
         }
     }
@@ -663,34 +856,75 @@ public class WorldHeatmapPlugin extends Plugin {
 
         // Make new backup
         if (highestGameTimeTicks % config.heatmapBackupFrequency() == 0 && highestGameTimeTicks != 0) {
-            executor.execute(this::saveNewHeatmapsFile);
+            backupHeatmaps();
         }
     }
 
     /**
-     * Updates the most recent heatmap file with the latest data, renaming it after the current date and time.
-	 * If a most recent file does not exist, it will create a new file.
+     * Requests a backup of the heatmaps to the deduplicated backup store, which only takes up space for what changed since the last backup
      */
-    protected void saveHeatmapsFile() {
-		if (getEnabledHeatmaps() == null || getEnabledHeatmaps().isEmpty()) {
+    protected void backupHeatmaps() {
+		Collection<HeatmapNew> snapshots = snapshotEnabledHeatmaps();
+		if (snapshots.isEmpty()) {
 			return;
 		}
+		saveScheduler.request(SaveScheduler.SaveType.BACKUP, SaveScheduler.Priority.BACKUP, () -> heatmapFileManager.backupHeatmaps(snapshots));
+    }
+
+    /**
+     * Requests a save of the heatmaps to the most recent heatmap file. The heatmaps are snapshotted now, and written
+     * by the save scheduler, along with any later changes if another save is requested before this one is written.
+     */
+    protected void requestSave(SaveScheduler.Priority priority) {
+		Collection<HeatmapNew> snapshots = snapshotEnabledHeatmaps();
+		if (snapshots.isEmpty()) {
+			return;
+		}
+		saveScheduler.request(SaveScheduler.SaveType.HEATMAPS_FILE, priority, () -> saveHeatmapsFile(snapshots));
+    }
 
-		String seasonalType = getEnabledHeatmaps().iterator().next().getSeasonalType();
-		long localAccountHash = getEnabledHeatmaps().iterator().next().getUserID();
+    /**
+     * Requests a save of the heatmaps to a new heatmaps file. The heatmaps are snapshotted now
+     */
+    protected void requestNewFileSave(SaveScheduler.Priority priority) {
+		Collection<HeatmapNew> snapshots = snapshotEnabledHeatmaps();
+		if (snapshots.isEmpty()) {
+			return;
+		}
+		saveScheduler.request(SaveScheduler.SaveType.NEW_HEATMAPS_FILE, priority, () -> saveNewHeatmapsFile(snapshots));
+    }
+
+    /**
+     * Waits for the saves requested so far to be written, before reading back the heatmaps files they write to
+     */
+    private void awaitPendingSaves() {
+		if (saveScheduler != null) {
+			saveScheduler.awaitPendingSaves();
+		}
+    }
+
+    /**
+     * Updates the most recent heatmap file with the given snapshots, renaming it after the current date and time.
+	 * If a most recent file does not exist, it will create a new file.
+     */
+    private void saveHeatmapsFile(Collection<HeatmapNew> snapshots) {
+		String seasonalType = snapshots.iterator().next().getSeasonalType();
+		long localAccountHash = snapshots.iterator().next().getUserID();
 		File latestFile = heatmapFileManager.getLatestFile(localAccountHash, seasonalType);
 
 		// If there is no latest file, create a new file
 		if (latestFile == null || !latestFile.exists()) {
-			saveNewHeatmapsFile();
+			saveNewHeatmapsFile(snapshots);
 			return;
 		}
 
-		heatmapFileManager.writeHeatmapsToFile(getEnabledHeatmaps(), latestFile);
+		if (heatmapFileManager.writeHeatmapsToFile(snapshots, latestFile)) {
+			checkpointJournal(snapshots);
+		}
 
 		// Rename the latest file to be the current date and time, unless dated into the future
 		File newFile = heatmapFileManager.getCurrentFile(localAccountHash, seasonalType);
-		if (!latestFile.renameTo(newFile)) {
+		if (!heatmapFileManager.renameHeatmapsFile(latestFile, newFile)) {
 			log.error("Failed to rename latest heatmap file {} to {}", latestFile.getName(), newFile.getName());
 		}
     }
@@ -698,25 +932,47 @@ public class WorldHeatmapPlugin extends Plugin {
     /**
      * Saves the heatmaps to a new dated file, carrying over disabled/unprovided heatmaps from the most recently dated heatmaps file
      */
-    protected void saveNewHeatmapsFile() {
-		String seasonalType = getEnabledHeatmaps().iterator().next().getSeasonalType();
-		long localAccountHash = getEnabledHeatmaps().iterator().next().getUserID();
+    private void saveNewHeatmapsFile(Collection<HeatmapNew> snapshots) {
+		String seasonalType = snapshots.iterator().next().getSeasonalType();
+		long localAccountHash = snapshots.iterator().next().getUserID();
 
         // Write heatmaps to new file, carrying over disabled/unprovided heatmaps from previous heatmaps file
         File latestFile = heatmapFileManager.getLatestFile(localAccountHash, seasonalType);
         File newFile = heatmapFileManager.getNewFile(localAccountHash, seasonalType);
-        heatmapFileManager.writeHeatmapsToFile(getEnabledHeatmaps(), newFile, latestFile);
+        if (heatmapFileManager.writeHeatmapsToFile(snapshots, newFile, latestFile)) {
+			checkpointJournal(snapshots);
+		}
     }
 
+	/**
+	 * Drops the journaled changes that the saved snapshots include
+	 */
+	private void checkpointJournal(Collection<HeatmapNew> snapshots) {
+		HeatmapJournal journal = this.journal;
+		if (journal != null) {
+			journal.checkpoint(snapshots);
+		}
+	}
+
 	/**
      * Initializes any enabled Heatmap types in the given Map of Heatmaps that weren't loaded
      *
      * @param heatmaps HashMap of HeatmapNew objects
      */
     public void initializeMissingHeatmaps(Map<HeatmapNew.HeatmapType, HeatmapNew> heatmaps) {
+        initializeMissingHeatmaps(heatmaps, getEnabledHeatmapTypes());
+    }
+
+    /**
+     * Initializes any enabled Heatmap types out of the given ones that are missing from the given Map of Heatmaps
+     *
+     * @param heatmaps HashMap of HeatmapNew objects
+     * @param types The types to initialize if they're missing
+     */
+    public void initializeMissingHeatmaps(Map<HeatmapNew.HeatmapType, HeatmapNew> heatmaps, Collection<HeatmapNew.HeatmapType> types) {
         // Get the heatmaps that are enabled but were not loaded
         ArrayList<HeatmapNew.HeatmapType> missingTypes = new ArrayList<>();
-        for (HeatmapNew.HeatmapType type : HeatmapNew.HeatmapType.values()) {
+        for (HeatmapNew.HeatmapType type : types) {
             if (isHeatmapEnabled(type) && (!heatmaps.containsKey(type) || heatmaps.get(type) == null)) {
                 missingTypes.add(type);
             }
@@ -730,14 +986,51 @@ public class WorldHeatmapPlugin extends Plugin {
         }
         log.info("Initializing missing heatmaps: {}", String.join(", ", missingTypesNames));
         for (HeatmapNew.HeatmapType type : missingTypes) {
-            heatmaps.put(type, new HeatmapNew(type, currentLocalAccountHash, currentPlayerAccountType, currentSeasonalType, currentPlayerCombatLevel));
+            heatmaps.put(type, new HeatmapNew(type, currentLocalAccountHash, currentPlayerAccountType, currentSeasonalType, currentPlayerCombatLevel, createTileStore(type)));
+        }
+    }
+
+    /**
+     * @return The heap memory used by the tile index shared between heatmap types, or 0 if columnar storage is disabled
+     */
+    long getSharedTileIndexMemoryUsage() {
+        ColumnarTileStore store = columnarTileStore;
+        return store == null ? 0 : store.getIndexMemoryUsage();
+    }
+
+    /**
+     * Creates the tile storage for a new heatmap of the given type: a column of the shared
+     * columnar store if columnar storage is enabled, otherwise the type's own storage layout.
+     */
+    TileStore createTileStore(HeatmapNew.HeatmapType type) {
+        if (columnarTileStore != null) {
+            return columnarTileStore.newColumn();
         }
+        return type.getStorageLayout().create();
     }
 
     Collection<HeatmapNew> getEnabledHeatmaps() {
         return heatmaps.values().stream().filter(heatmap -> isHeatmapEnabled(heatmap.getHeatmapType())).collect(Collectors.toList());
     }
 
+    /**
+     * Returns snapshots of the enabled heatmaps, for background tasks to read while the client thread keeps updating the heatmaps
+     */
+    Collection<HeatmapNew> snapshotEnabledHeatmaps() {
+        return getEnabledHeatmaps().stream().map(HeatmapNew::snapshot).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns snapshots of all loaded heatmaps, for background tasks to read while the client thread keeps updating the heatmaps
+     */
+    Map<HeatmapNew.HeatmapType, HeatmapNew> snapshotHeatmaps() {
+        Map<HeatmapNew.HeatmapType, HeatmapNew> snapshots = new HashMap<>();
+        for (HeatmapNew heatmap : heatmaps.values()) {
+            snapshots.put(heatmap.getHeatmapType(), heatmap.snapshot());
+        }
+        return snapshots;
+    }
+
     Collection<HeatmapNew.HeatmapType> getEnabledHeatmapTypes() {
         List<HeatmapNew.HeatmapType> enabledTypes = new ArrayList<>();
         for (HeatmapNew.HeatmapType type : HeatmapNew.HeatmapType.values()) {
@@ -814,11 +1107,12 @@ public class WorldHeatmapPlugin extends Plugin {
         if (isHeatmapEnabled) {
             log.debug("Enabling {} heatmap...", heatmapType);
             HeatmapNew heatmap = null;
-            // Load the heatmap from the file if it exists
+            // Load the heatmap from the file if it exists, once it's up to date
+			awaitPendingSaves();
 			File heatmapsFile = heatmapFileManager.getLatestFile(currentLocalAccountHash, currentSeasonalType);
             if (heatmapsFile != null && heatmapsFile.exists()) {
                 try {
-                    heatmap = heatmapFileManager.readHeatmapsFromFile(heatmapsFile, Collections.singletonList(heatmapType)).get(heatmapType);
+                    heatmap = heatmapFileManager.readHeatmapsFromFile(heatmapsFile, Collections.singletonList(heatmapType), true, this::createTileStore).get(heatmapType);
                     heatmap.setUserID(currentLocalAccountHash);
                     heatmap.setAccountType(currentPlayerAccountType);
                     heatmap.setCurrentCombatLevel(currentPlayerCombatLevel);
@@ -828,12 +1122,17 @@ public class WorldHeatmapPlugin extends Plugin {
                 }
             }
             if (heatmap != null) {
+				HeatmapJournal journal = this.journal;
+				if (journal != null) {
+					journal.attach(heatmap);
+				}
                 heatmaps.put(heatmapType, heatmap);
             }
         } else {
             log.debug("Disabling {} heatmap...", heatmapType);
-            saveHeatmapsFile();
+            requestSave(SaveScheduler.Priority.USER);
             heatmaps.remove(heatmapType);
+            pendingHeatmaps.remove(heatmapType);
         }
 
         panel.rebuild();
@@ -858,7 +1157,7 @@ public class WorldHeatmapPlugin extends Plugin {
 		boolean shouldUpload = highestGameTimeTicks % uploadFrequency == 0 && highestGameTimeTicks != 0;
 
         // Upload the heatmaps
-        if (shouldUpload && Utils.uploadHeatmaps(heatmaps, okHttpClient)){
+        if (shouldUpload && Utils.uploadHeatmaps(snapshotHeatmaps(), okHttpClient)){
             log.info("Heatmaps uploaded successfully");
         }
     }
@@ -0,0 +1,558 @@
+package com.worldheatmap;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps local copies of the world map images and offsets that heatmap images are drawn with, so that rendering a
+ * heatmap image doesn't have to download them every time, or work offline.
+ * <p>
+ * Each file is kept as downloaded, alongside a .properties file with its ETag, SHA-256 hash and when it was last
+ * checked for updates. A cached file that doesn't match its hash is downloaded again. World map images are also
+ * kept decoded, as uncompressed rows of pixels in the layout that the PNG decoder produces, so that they're read
+ * straight from disk rather than being inflated again for every strip of every heatmap image. Files are only
+ * checked for updates after they've been used, at most once per {@link #REFRESH_INTERVAL_MILLIS}, and an update
+ * that can't be downloaded leaves the cached file in place.
+ * <p>
+ * Files are downloaded and decoded without holding the cache's lock, so that checking for updates doesn't hold up
+ * rendering. Each is written to a temporary file of its own and moved into place, so the worst a race can do is
+ * download or decode a file twice.
+ */
+@Slf4j
+class WorldMapCache
+{
+	static final String OFFSETS_FILE_NAME = "offsets.csv";
+	private static final String DEFAULT_BASE_URL = "https://raw.githubusercontent.com/GrandTheftWalrus/gtw-runelite-stuff/main/";
+	static final long REFRESH_INTERVAL_MILLIS = TimeUnit.DAYS.toMillis(1);
+	private static final String DECODED_EXTENSION = ".raw";
+	private static final String PROPERTIES_EXTENSION = ".properties";
+	private static final int DECODED_MAGIC = 0x57485752; // "WHWR"
+	private static final int DECODED_VERSION = 2;
+	// The SHA-256 hash of the image it was decoded from, as hex digits
+	private static final int SOURCE_HASH_SIZE = 64;
+	private static final int DECODED_HEADER_SIZE = 20 + SOURCE_HASH_SIZE;
+	// Roughly how much memory each strip of a world map image may take up while it's being decoded into the cache
+	private static final long DECODE_STRIP_BYTES = 32L * 1024 * 1024;
+
+	private static WorldMapCache defaultCache;
+
+	private final File directory;
+	private final String baseUrl;
+	// Files used since they were last checked for updates. Guarded by this
+	private final Set<String> usedFileNames = new LinkedHashSet<>();
+	// Whether files are being checked for updates. Guarded by this
+	private boolean refreshing = false;
+
+	/**
+	 * @param directory Where the cached files are kept
+	 * @param baseUrl   What the file names are resolved against when downloading them, such as a file: URL of a
+	 *                  directory of test images
+	 */
+	WorldMapCache(File directory, String baseUrl)
+	{
+		this.directory = directory;
+		this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+	}
+
+	/**
+	 * @return The cache in the plugin's directory, of the files in the gtw-runelite-stuff repo
+	 */
+	static synchronized WorldMapCache getDefault()
+	{
+		if (defaultCache == null)
+		{
+			defaultCache = new WorldMapCache(new File(HeatmapFileManager.WORLD_HEATMAP_DIR, "World Map Cache"), DEFAULT_BASE_URL);
+		}
+		return defaultCache;
+	}
+
+	/**
+	 * @return The contents of the file, downloaded only if it isn't cached yet or the cached copy is damaged
+	 */
+	byte[] getFile(String fileName) throws IOException
+	{
+		synchronized (this)
+		{
+			usedFileNames.add(fileName);
+		}
+		byte[] cachedBytes = readCachedFile(fileName);
+		if (cachedBytes != null)
+		{
+			return cachedBytes;
+		}
+
+		Download download = download(fileName, null);
+		try
+		{
+			store(fileName, download);
+		}
+		catch (IOException e)
+		{
+			log.warn("Couldn't cache '{}', so it will be downloaded again next time: {}", fileName, e.toString());
+		}
+		return download.bytes;
+	}
+
+	/**
+	 * Opens the world map image, which is downloaded and decoded only if it isn't cached yet, or if the decoded copy
+	 * isn't of the cached image. If it can't be cached decoded, it's decoded from the PNG image as it's read instead.
+	 */
+	HeatmapImage.WorldMap openWorldMap(String fileName) throws IOException
+	{
+		synchronized (this)
+		{
+			usedFileNames.add(fileName);
+		}
+		File decodedFile = new File(directory, fileName + DECODED_EXTENSION);
+		Properties properties = loadProperties(fileName);
+		if (properties != null && decodedFile.isFile())
+		{
+			try
+			{
+				return new DecodedWorldMap(decodedFile, properties.getProperty("sha256"));
+			}
+			catch (IOException e)
+			{
+				log.warn("Cached world map image '{}' couldn't be read, so it will be decoded again: {}", fileName, e.toString());
+			}
+		}
+
+		byte[] png = getFile(fileName);
+		String sha256 = sha256(png);
+		long startTime = System.nanoTime();
+		try
+		{
+			decode(png, sha256, decodedFile);
+			log.info("Decoded world map image '{}' into the cache after {} ms", fileName, (System.nanoTime() - startTime) / 1_000_000);
+			return new DecodedWorldMap(decodedFile, sha256);
+		}
+		catch (IOException | UnsupportedOperationException e)
+		{
+			log.warn("Couldn't cache the decoded world map image '{}', so it will be decoded as it's read instead: {}", fileName, e.toString());
+			Files.deleteIfExists(decodedFile.toPath());
+		}
+		return new HeatmapImage.PngWorldMap(HeatmapImage.openPngReader(png), () -> HeatmapImage.openPngReader(png));
+	}
+
+	/**
+	 * Checks the files used since they were last checked for updates, if it's been long enough since then, and
+	 * replaces the ones that have changed or whose cached copies are damaged. Files that can't be checked, such as
+	 * when offline, are kept as they are.
+	 */
+	void refreshStaleFiles()
+	{
+		List<String> fileNames;
+		synchronized (this)
+		{
+			if (refreshing)
+			{
+				// The files used since are checked next time
+				return;
+			}
+			refreshing = true;
+			fileNames = new ArrayList<>(usedFileNames);
+			usedFileNames.clear();
+		}
+		try
+		{
+			for (String fileName : fileNames)
+			{
+				refreshFile(fileName);
+			}
+		}
+		finally
+		{
+			synchronized (this)
+			{
+				refreshing = false;
+			}
+		}
+	}
+
+	private void refreshFile(String fileName)
+	{
+		Properties properties = loadProperties(fileName);
+		if (properties == null)
+		{
+			return;
+		}
+		long lastChecked = Long.parseLong(properties.getProperty("lastChecked", "0"));
+		if (System.currentTimeMillis() - lastChecked < REFRESH_INTERVAL_MILLIS)
+		{
+			return;
+		}
+
+		try
+		{
+			// The server can only vouch for the cached copy by its ETag if the copy is intact
+			String cachedSha256 = properties.getProperty("sha256");
+			boolean isIntact = readCachedFile(fileName) != null;
+			Download download = download(fileName, isIntact ? properties.getProperty("etag") : null);
+			if (download == null || (isIntact && download.sha256.equals(cachedSha256)))
+			{
+				log.debug("Cached '{}' is up to date", fileName);
+				properties.setProperty("lastChecked", Long.toString(System.currentTimeMillis()));
+				if (download != null && download.etag != null)
+				{
+					properties.setProperty("etag", download.etag);
+				}
+				storeProperties(fileName, properties);
+				return;
+			}
+
+			if (isIntact)
+			{
+				log.info("'{}' has been updated, so the cached copy will be replaced", fileName);
+			}
+			store(fileName, download);
+			File decodedFile = new File(directory, fileName + DECODED_EXTENSION);
+			if (decodedFile.isFile() && !download.sha256.equals(cachedSha256))
+			{
+				// The decoded copy of the old image mustn't outlive it, even if the new one can't be decoded
+				try
+				{
+					decode(download.bytes, download.sha256, decodedFile);
+				}
+				catch (IOException | UnsupportedOperationException e)
+				{
+					Files.deleteIfExists(decodedFile.toPath());
+					throw e;
+				}
+			}
+		}
+		catch (IOException | UnsupportedOperationException e)
+		{
+			log.warn("Couldn't check '{}' for updates, so the cached copy will be kept: {}", fileName, e.toString());
+		}
+	}
+
+	/**
+	 * @return The cached copy of the file, or null if it isn't cached, or doesn't match the hash it was cached with
+	 */
+	@Nullable
+	private byte[] readCachedFile(String fileName)
+	{
+		File file = new File(directory, fileName);
+		Properties properties = loadProperties(fileName);
+		if (properties == null || !file.isFile())
+		{
+			return null;
+		}
+		try
+		{
+			byte[] bytes = Files.readAllBytes(file.toPath());
+			if (sha256(bytes).equals(properties.getProperty("sha256")))
+			{
+				return bytes;
+			}
+			log.warn("Cached '{}' doesn't match its hash, so it will be downloaded again", fileName);
+		}
+		catch (IOException e)
+		{
+			log.warn("Couldn't read cached '{}', so it will be downloaded again: {}", fileName, e.toString());
+		}
+		return null;
+	}
+
+	private static class Download
+	{
+		final byte[] bytes;
+		final String sha256;
+		@Nullable
+		final String etag;
+
+		Download(byte[] bytes, @Nullable String etag)
+		{
+			this.bytes = bytes;
+			this.sha256 = sha256(bytes);
+			this.etag = etag;
+		}
+	}
+
+	/**
+	 * @param etag The ETag of the cached copy, if any
+	 * @return The file, or null if the server says the cached copy with the ETag is up to date
+	 */
+	@Nullable
+	private Download download(String fileName, @Nullable String etag) throws IOException
+	{
+		URLConnection connection = new URL(baseUrl + fileName).openConnection();
+		if (etag != null)
+		{
+			connection.setRequestProperty("If-None-Match", etag);
+		}
+		if (connection instanceof HttpURLConnection && ((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED)
+		{
+			((HttpURLConnection) connection).disconnect();
+			return null;
+		}
+		try (InputStream inputStream = connection.getInputStream())
+		{
+			return new Download(inputStream.readAllBytes(), connection.getHeaderField("ETag"));
+		}
+	}
+
+	/**
+	 * Replaces the cached copy of the file with the download
+	 */
+	private void store(String fileName, Download download) throws IOException
+	{
+		if (directory.mkdirs())
+		{
+			log.debug("Created world map cache directory: {}", directory);
+		}
+		File tempFile = Files.createTempFile(directory.toPath(), fileName, ".tmp").toFile();
+		Files.write(tempFile.toPath(), download.bytes);
+		HeatmapFileManager.moveAtomically(tempFile, new File(directory, fileName));
+
+		Properties properties = new Properties();
+		properties.setProperty("sha256", download.sha256);
+		properties.setProperty("lastChecked", Long.toString(System.currentTimeMillis()));
+		if (download.etag != null)
+		{
+			properties.setProperty("etag", download.etag);
+		}
+		storeProperties(fileName, properties);
+	}
+
+	/**
+	 * @return The properties of the cached file, or null if it isn't cached
+	 */
+	@Nullable
+	private Properties loadProperties(String fileName)
+	{
+		File propertiesFile = new File(directory, fileName + PROPERTIES_EXTENSION);
+		if (!propertiesFile.isFile())
+		{
+			return null;
+		}
+		Properties properties = new Properties();
+		try (InputStream inputStream = new FileInputStream(propertiesFile))
+		{
+			properties.load(inputStream);
+		}
+		catch (IOException e)
+		{
+			log.warn("Couldn't read the properties of cached '{}', so it will be downloaded again: {}", fileName, e.toString());
+			return null;
+		}
+		return properties.getProperty("sha256") == null ? null : properties;
+	}
+
+	private void storeProperties(String fileName, Properties properties) throws IOException
+	{
+		File tempFile = Files.createTempFile(directory.toPath(), fileName + PROPERTIES_EXTENSION, ".tmp").toFile();
+		try (OutputStream outputStream = new FileOutputStream(tempFile))
+		{
+			properties.store(outputStream, "World Heatmap cached copy of " + baseUrl + fileName);
+		}
+		HeatmapFileManager.moveAtomically(tempFile, new File(directory, fileName + PROPERTIES_EXTENSION));
+	}
+
+	/**
+	 * Decodes the PNG image into the file, a strip at a time so as not to need the whole image in memory. The
+	 * file starts with a header of the magic number, version, width, height, BufferedImage type and the PNG
+	 * image's hash, followed by the rows of pixels as they're laid out in a BufferedImage of that type.
+	 *
+	 * @param sha256 The PNG image's hash
+	 * @throws UnsupportedOperationException If the image doesn't decode to interleaved bytes, such as a palette image
+	 */
+	private void decode(byte[] png, String sha256, File decodedFile) throws IOException
+	{
+		if (directory.mkdirs())
+		{
+			log.debug("Created world map cache directory: {}", directory);
+		}
+		ImageReader reader = HeatmapImage.openPngReader(png);
+		File tempFile = Files.createTempFile(directory.toPath(), decodedFile.getName(), ".tmp").toFile();
+		try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			int width = reader.getWidth(0);
+			int height = reader.getHeight(0);
+			int stripHeight = (int) Math.max(1, Math.min(height, DECODE_STRIP_BYTES / 4 / width));
+			ByteBuffer header = ByteBuffer.allocate(DECODED_HEADER_SIZE);
+			header.putInt(DECODED_MAGIC).putInt(DECODED_VERSION).putInt(width).putInt(height).putInt(0);
+			header.put(sha256.getBytes(StandardCharsets.US_ASCII));
+			channel.write((ByteBuffer) header.flip(), 0);
+
+			int imageType = -1;
+			long position = DECODED_HEADER_SIZE;
+			for (int y = 0; y < height; y += stripHeight)
+			{
+				ImageReadParam readParam = reader.getDefaultReadParam();
+				readParam.setSourceRegion(new Rectangle(0, y, width, Math.min(stripHeight, height - y)));
+				BufferedImage strip = reader.read(0, readParam);
+				if (strip.getType() != BufferedImage.TYPE_3BYTE_BGR && strip.getType() != BufferedImage.TYPE_4BYTE_ABGR)
+				{
+					throw new UnsupportedOperationException("Image decodes to unsupported BufferedImage type " + strip.getType());
+				}
+				imageType = strip.getType();
+				ByteBuffer pixels = ByteBuffer.wrap(((DataBufferByte) strip.getRaster().getDataBuffer()).getData());
+				while (pixels.hasRemaining())
+				{
+					position += channel.write(pixels, position);
+				}
+			}
+			header.clear();
+			header.putInt(imageType);
+			channel.write((ByteBuffer) header.flip(), 16);
+			channel.force(true);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			Files.deleteIfExists(tempFile.toPath());
+			throw e;
+		}
+		finally
+		{
+			reader.dispose();
+		}
+		HeatmapFileManager.moveAtomically(tempFile, decodedFile);
+	}
+
+	private static String sha256(byte[] bytes)
+	{
+		try
+		{
+			StringBuilder hash = new StringBuilder();
+			for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes))
+			{
+				hash.append(String.format("%02x", b));
+			}
+			return hash.toString();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * World map image read from the cached decoded copy. Reads are positional, so any number of threads can read it at once
+	 */
+	private static class DecodedWorldMap implements HeatmapImage.WorldMap
+	{
+		private final FileChannel channel;
+		private final int width;
+		private final int height;
+		private final int imageType;
+		private final int bytesPerPixel;
+
+		/**
+		 * @param sourceSha256 The hash of the PNG image that it must have been decoded from
+		 */
+		DecodedWorldMap(File decodedFile, String sourceSha256) throws IOException
+		{
+			channel = FileChannel.open(decodedFile.toPath(), StandardOpenOption.READ);
+			try
+			{
+				ByteBuffer header = ByteBuffer.allocate(DECODED_HEADER_SIZE);
+				readFully(header, 0);
+				header.flip();
+				if (header.getInt() != DECODED_MAGIC || header.getInt() != DECODED_VERSION)
+				{
+					throw new IOException("Not a decoded world map image of this version");
+				}
+				width = header.getInt();
+				height = header.getInt();
+				imageType = header.getInt();
+				byte[] sourceHash = new byte[SOURCE_HASH_SIZE];
+				header.get(sourceHash);
+				if (!new String(sourceHash, StandardCharsets.US_ASCII).equals(sourceSha256))
+				{
+					throw new IOException("Decoded world map image is of a different image than the one cached");
+				}
+				bytesPerPixel = imageType == BufferedImage.TYPE_3BYTE_BGR ? 3 : imageType == BufferedImage.TYPE_4BYTE_ABGR ? 4 : 0;
+				if (bytesPerPixel == 0 || channel.size() != DECODED_HEADER_SIZE + (long) width * height * bytesPerPixel)
+				{
+					throw new IOException("Decoded world map image is incomplete");
+				}
+			}
+			catch (IOException e)
+			{
+				channel.close();
+				throw e;
+			}
+		}
+
+		@Override
+		public int getWidth()
+		{
+			return width;
+		}
+
+		@Override
+		public int getHeight()
+		{
+			return height;
+		}
+
+		@Override
+		public BufferedImage read(Rectangle region) throws IOException
+		{
+			// Like an ImageReader, only read the part of the region that's within the image
+			Rectangle rect = region.intersection(new Rectangle(width, height));
+			if (rect.isEmpty())
+			{
+				throw new IllegalArgumentException("Region doesn't intersect the image: " + region);
+			}
+			BufferedImage image = new BufferedImage(rect.width, rect.height, imageType);
+			byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+			int rowBytes = rect.width * bytesPerPixel;
+			long position = DECODED_HEADER_SIZE + ((long) rect.y * width + rect.x) * bytesPerPixel;
+			if (rect.width == width)
+			{
+				readFully(ByteBuffer.wrap(pixels), position);
+			}
+			else
+			{
+				for (int row = 0; row < rect.height; row++)
+				{
+					readFully(ByteBuffer.wrap(pixels, row * rowBytes, rowBytes), position + (long) row * width * bytesPerPixel);
+				}
+			}
+			return image;
+		}
+
+		private void readFully(ByteBuffer buffer, long position) throws IOException
+		{
+			while (buffer.hasRemaining())
+			{
+				int read = channel.read(buffer, position);
+				if (read < 0)
+				{
+					throw new EOFException();
+				}
+				position += read;
+			}
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			channel.close();
+		}
+	}
+}
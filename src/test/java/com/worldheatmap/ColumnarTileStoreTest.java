@@ -0,0 +1,150 @@
+package com.worldheatmap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class ColumnarTileStoreTest
+{
+	@Test
+	public void columnsMatchHashMapsUnderRandomPuts()
+	{
+		Random random = new Random(2);
+		ColumnarTileStore store = new ColumnarTileStore();
+		ColumnarTileStore.Column[] columns = {store.newColumn(), store.newColumn(), store.newColumn()};
+		List<Map<Long, Long>> expected = new ArrayList<>();
+		for (int column = 0; column < columns.length; column++)
+		{
+			expected.add(new HashMap<>());
+		}
+		for (int i = 0; i < 50_000; i++)
+		{
+			int column = random.nextInt(columns.length);
+			int x = random.nextInt(300);
+			int y = random.nextInt(300);
+			long value = random.nextInt(4) == 0 ? 0 : random.nextInt(100);
+			Long previous = value == 0 ? expected.get(column).remove(TileKey.pack(x, y, 0)) : expected.get(column).put(TileKey.pack(x, y, 0), value);
+			assertEquals(previous == null ? 0 : previous, columns[column].put(x, y, 0, value));
+		}
+		for (int column = 0; column < columns.length; column++)
+		{
+			assertEquals(expected.get(column).size(), columns[column].size());
+			assertEquals(expected.get(column), readAll(columns[column]));
+		}
+	}
+
+	@Test
+	public void snapshotsAreIndependent()
+	{
+		ColumnarTileStore store = new ColumnarTileStore();
+		ColumnarTileStore.Column column = store.newColumn();
+		for (int i = 0; i < 2000; i++)
+		{
+			column.put(i, 0, 0, i + 1);
+		}
+		Map<Long, Long> before = readAll(column);
+		TileStore snapshot = column.snapshot();
+		for (int i = 0; i < 4000; i += 3)
+		{
+			column.put(i, 0, 0, 7);
+		}
+		column.put(1, 0, 0, 0);
+		assertEquals(before, readAll(snapshot));
+		assertEquals(2000, snapshot.size());
+		assertEquals(7, column.get(3, 0, 0));
+		assertEquals(0, column.get(1, 0, 0));
+		assertEquals(before.get(TileKey.pack(2, 0, 0)), (Long) column.get(2, 0, 0));
+	}
+
+	@Test
+	public void sparseColumnsOnlyAllocateThePagesTheyUse()
+	{
+		ColumnarTileStore store = new ColumnarTileStore();
+		ColumnarTileStore.Column dense = store.newColumn();
+		ColumnarTileStore.Column sparse = store.newColumn();
+		for (int i = 0; i < 1_000_000; i++)
+		{
+			dense.put(i % 1000, i / 1000, 0, 1);
+		}
+		for (int i = 0; i < 10; i++)
+		{
+			sparse.put(i * 100, i * 100, 0, 1);
+		}
+		assertEquals(10, sparse.size());
+		assertTrue(sparse.getMemoryUsage() < 10 * TileStore.arraySize(ColumnarTileStore.PAGE_SIZE, 8) + 64 * 1024);
+		assertTrue(dense.getMemoryUsage() < 1_000_000 * 8.5);
+	}
+
+	@Test
+	public void copiesHeatmapsIntoColumns()
+	{
+		// As .heatmaps files are read when columnar storage is enabled: decoded on their own, then copied into columns
+		Random random = new Random(4);
+		HeatmapNew heatmap = new HeatmapNew(HeatmapNew.HeatmapType.TYPE_B, 1, 0, null, 3);
+		for (int i = 0; i < 20_000; i++)
+		{
+			heatmap.increment(random.nextInt(300), random.nextInt(300), random.nextInt(2), 1 + random.nextInt(100));
+		}
+		heatmap.setGameTimeTicks(1234);
+
+		ColumnarTileStore store = new ColumnarTileStore();
+		store.newColumn().put(5, 5, 0, 1);
+		HeatmapNew copy = heatmap.copyTo(store.newColumn());
+		assertEquals(heatmap.getTileCount(), copy.getTileCount());
+		TileCursor tile = heatmap.cursor();
+		while (tile.next())
+		{
+			assertEquals(tile.getValue(), copy.get(tile.getX(), tile.getY(), tile.getPlane()));
+		}
+		assertEquals(heatmap.getTotalValue(), copy.getTotalValue());
+		assertEquals(heatmap.getMaxValue(), copy.getMaxValue());
+		assertEquals(heatmap.getStatistics(1).getMin(), copy.getStatistics(1).getMin());
+		assertEquals(1234, copy.getGameTimeTicks());
+	}
+
+	@Test
+	public void incrementsAreNotLostWhileAnotherColumnGrowsTheIndex() throws InterruptedException
+	{
+		// As when a deferred heatmap is copied into its column while the client thread increments another one
+		ColumnarTileStore store = new ColumnarTileStore();
+		HeatmapNew incremented = new HeatmapNew(HeatmapNew.HeatmapType.TYPE_A, 1, 0, null, 3, store.newColumn());
+		HeatmapNew growing = new HeatmapNew(HeatmapNew.HeatmapType.TYPE_B, 1, 0, null, 3, store.newColumn());
+		Thread grower = new Thread(() -> {
+			for (int i = 0; i < 1_000_000; i++)
+			{
+				growing.set(i % 1000, 1000 + i / 1000, 0, 1);
+			}
+		});
+		grower.start();
+		int increments = 0;
+		while (grower.isAlive())
+		{
+			for (int x = 0; x < 10; x++)
+			{
+				incremented.increment(x, 0, 0);
+			}
+			increments++;
+		}
+		grower.join();
+		for (int x = 0; x < 10; x++)
+		{
+			assertEquals(increments, incremented.get(x, 0, 0));
+		}
+	}
+
+	private static Map<Long, Long> readAll(TileStore tiles)
+	{
+		Map<Long, Long> values = new HashMap<>();
+		TileCursor tile = tiles.cursor();
+		while (tile.next())
+		{
+			values.put(TileKey.pack(tile.getX(), tile.getY(), tile.getPlane()), tile.getValue());
+		}
+		return values;
+	}
+}
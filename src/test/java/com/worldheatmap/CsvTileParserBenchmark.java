@@ -0,0 +1,59 @@
+package com.worldheatmap;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Compares the time to parse the tile lines of a CSV heatmap with CsvTileParser against the String.split and
+ * parseInt parsing it replaced, on a temporary file of a few million lines.
+ */
+public class CsvTileParserBenchmark
+{
+	private static final int LINE_COUNT = 4_000_000;
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) throws IOException
+	{
+		File csv = File.createTempFile("heatmap", ".csv");
+		csv.deleteOnExit();
+		// Overworld tiles, like a long-lived TYPE_A heatmap
+		Random random = new Random(1);
+		try (BufferedWriter writer = Files.newBufferedWriter(csv.toPath(), StandardCharsets.UTF_8))
+		{
+			for (int i = 0; i < LINE_COUNT; i++)
+			{
+				writer.write((1024 + random.nextInt(2752)) + "," + (2496 + random.nextInt(1664)) + "," + random.nextInt(4) + "," + (1 + random.nextInt(1000)) + "\n");
+			}
+		}
+		System.out.printf("%d lines, %.1f MB%n", LINE_COUNT, csv.length() / 1e6);
+
+		for (int round = 0; round < ROUNDS; round++)
+		{
+			long startTime = System.nanoTime();
+			try (BufferedReader reader = Files.newBufferedReader(csv.toPath(), StandardCharsets.UTF_8))
+			{
+				CsvTileParserTest.parseBySplitting(reader, newHeatmap());
+			}
+			long splitNanos = System.nanoTime() - startTime;
+
+			startTime = System.nanoTime();
+			try (BufferedReader reader = Files.newBufferedReader(csv.toPath(), StandardCharsets.UTF_8))
+			{
+				CsvTileParser.parseTiles(reader, newHeatmap());
+			}
+			long parserNanos = System.nanoTime() - startTime;
+			System.out.printf("Round %d: String.split %.0f ms (%.2f M lines/s), CsvTileParser %.0f ms (%.2f M lines/s)%n",
+				round + 1, splitNanos / 1e6, LINE_COUNT * 1e3 / splitNanos, parserNanos / 1e6, LINE_COUNT * 1e3 / parserNanos);
+		}
+	}
+
+	private static HeatmapNew newHeatmap()
+	{
+		return new HeatmapNew(HeatmapNew.HeatmapType.TYPE_A, 1, 0, null, 3);
+	}
+}
@@ -0,0 +1,192 @@
+package com.worldheatmap;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class CsvTileParserTest
+{
+	@Test
+	public void parsesThreeAndFourColumnLines() throws IOException
+	{
+		HeatmapNew heatmap = newHeatmap();
+		int errorCount = CsvTileParser.parseTiles(new StringReader("3200,3201,5\n3200,3201,1,7\n-4,12000,2,9"), heatmap);
+		assertEquals(0, errorCount);
+		assertEquals(3, heatmap.getTileCount());
+		assertEquals(5, heatmap.get(3200, 3201, 0));
+		assertEquals(7, heatmap.get(3200, 3201, 1));
+		assertEquals(9, heatmap.get(-4, 12000, 2));
+	}
+
+	@Test
+	public void countsInvalidLines() throws IOException
+	{
+		String csv = String.join("\n",
+			"1,1,1",
+			// Too few or too many columns
+			"2,2",
+			"3,3,0,3,3",
+			// An empty line, and one of just commas
+			"",
+			",,,",
+			// Trailing empty fields don't count, as with String.split
+			"4,4,4,,",
+			"6,6,0,",
+			// Fields that aren't numbers
+			"a,5,5",
+			"7, 7,7",
+			"8,8,+",
+			"9,9,0x9",
+			"+10,10,10");
+		HeatmapNew heatmap = newHeatmap();
+		assertEquals(8, CsvTileParser.parseTiles(new StringReader(csv), heatmap));
+		assertEquals(1, heatmap.get(1, 1, 0));
+		assertEquals(4, heatmap.get(4, 4, 0));
+		assertEquals(10, heatmap.get(10, 10, 0));
+		assertEquals(3, heatmap.getTileCount());
+	}
+
+	@Test
+	public void countsOverflowingNumbers() throws IOException
+	{
+		String csv = String.join("\n",
+			"2147483647,1,1",
+			"2147483648,2,2",
+			"-2147483648,3,3",
+			"-2147483649,4,4",
+			"5,5,0,9223372036854775807",
+			"6,6,0,9223372036854775808",
+			"7,7,0,99999999999999999999",
+			"8,8,4294967296,8");
+		HeatmapNew heatmap = newHeatmap();
+		assertEquals(5, CsvTileParser.parseTiles(new StringReader(csv), heatmap));
+		assertEquals(1, heatmap.get(Integer.MAX_VALUE, 1, 0));
+		assertEquals(3, heatmap.get(Integer.MIN_VALUE, 3, 0));
+		assertEquals(Long.MAX_VALUE, heatmap.get(5, 5, 0));
+		assertEquals(3, heatmap.getTileCount());
+	}
+
+	@Test
+	public void matchesSplittingLinesAcrossBufferRefills() throws IOException
+	{
+		// Lines ending in "\n", "\r\n" and "\r", read a few chars at a time so that every line, and every "\r\n",
+		// is split between reads somewhere. One line is longer than the parser's buffer, which has to grow for it.
+		Random random = new Random(17);
+		StringBuilder csv = new StringBuilder();
+		String[] terminators = {"\n", "\r\n", "\r"};
+		for (int i = 0; i < 40_000; i++)
+		{
+			if (i == 20_000)
+			{
+				for (int j = 0; j < 100_000; j++)
+				{
+					csv.append('9');
+				}
+			}
+			csv.append(1024 + random.nextInt(3000)).append(',').append(2500 + random.nextInt(1600));
+			if (random.nextBoolean())
+			{
+				csv.append(',').append(random.nextInt(4));
+			}
+			csv.append(',').append(1 + random.nextInt(100_000));
+			if (random.nextInt(50) == 0)
+			{
+				csv.append(",x");
+			}
+			csv.append(terminators[random.nextInt(terminators.length)]);
+		}
+		// A final "\r\n" split across the last read
+		csv.append("1,2,3\r\n");
+
+		HeatmapNew expected = newHeatmap();
+		int expectedErrorCount = parseBySplitting(new BufferedReader(new StringReader(csv.toString())), expected);
+		for (int maxChunk : new int[]{1, 7, 4096, 1 << 17})
+		{
+			HeatmapNew heatmap = newHeatmap();
+			int errorCount = CsvTileParser.parseTiles(new ChunkedReader(csv.toString(), maxChunk, random), heatmap);
+			assertEquals(expectedErrorCount, errorCount);
+			assertEquals(expected.getTileCount(), heatmap.getTileCount());
+			TileCursor tile = expected.cursor();
+			while (tile.next())
+			{
+				assertEquals(tile.getValue(), heatmap.get(tile.getX(), tile.getY(), tile.getPlane()));
+			}
+		}
+	}
+
+	private static HeatmapNew newHeatmap()
+	{
+		return new HeatmapNew(HeatmapNew.HeatmapType.TYPE_A, 1, 0, null, 3);
+	}
+
+	/**
+	 * How tile lines were parsed before CsvTileParser, as the reference it must agree with
+	 */
+	static int parseBySplitting(BufferedReader reader, HeatmapNew heatmap)
+	{
+		int[] errorCount = {0};
+		reader.lines().forEach(s -> {
+			String[] tile = s.split(",");
+			try
+			{
+				if (tile.length == 3)
+				{
+					heatmap.set(Integer.parseInt(tile[0]), Integer.parseInt(tile[1]), 0, Long.parseLong(tile[2]));
+				}
+				else if (tile.length == 4)
+				{
+					heatmap.set(Integer.parseInt(tile[0]), Integer.parseInt(tile[1]), Integer.parseInt(tile[2]), Long.parseLong(tile[3]));
+				}
+				else
+				{
+					errorCount[0]++;
+				}
+			}
+			catch (NumberFormatException e)
+			{
+				errorCount[0]++;
+			}
+		});
+		return errorCount[0];
+	}
+
+	/**
+	 * Hands out its string in randomly sized reads of at most maxChunk chars
+	 */
+	private static class ChunkedReader extends Reader
+	{
+		private final String text;
+		private final int maxChunk;
+		private final Random random;
+		private int pos = 0;
+
+		ChunkedReader(String text, int maxChunk, Random random)
+		{
+			this.text = text;
+			this.maxChunk = maxChunk;
+			this.random = random;
+		}
+
+		@Override
+		public int read(char[] buffer, int offset, int length)
+		{
+			if (pos == text.length())
+			{
+				return -1;
+			}
+			int n = Math.min(Math.min(length, 1 + random.nextInt(maxChunk)), text.length() - pos);
+			text.getChars(pos, pos + n, buffer, offset);
+			pos += n;
+			return n;
+		}
+
+		@Override
+		public void close()
+		{
+		}
+	}
+}
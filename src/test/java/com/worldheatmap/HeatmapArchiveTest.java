@@ -0,0 +1,183 @@
+package com.worldheatmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HeatmapArchiveTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void writesArchivesThatZipReadersRead() throws IOException
+	{
+		byte[] small = "x,y,z,value\n3200,3200,0,5\n".getBytes(StandardCharsets.UTF_8);
+		byte[] large = randomBytes(300_000, 1);
+		byte[] empty = new byte[0];
+		File first = folder.newFile("first.heatmaps");
+		writeArchive(first, "TYPE_A.csv", small, "TYPE_B.bin", large);
+
+		// The second archive copies an entry of the first, still compressed, between two new ones
+		File second = folder.newFile("second.heatmaps");
+		try (FileChannel source = FileChannel.open(first.toPath(), StandardOpenOption.READ);
+			 HeatmapArchive.Writer archive = new HeatmapArchive.Writer(second.toPath()))
+		{
+			write(archive, "DEATHS.bin", empty);
+			for (HeatmapArchive.Entry entry : HeatmapArchive.readEntries(source))
+			{
+				if (entry.name.equals("TYPE_B.bin"))
+				{
+					archive.copyEntry(source, entry);
+				}
+			}
+			write(archive, "TYPE_A.csv", small);
+			archive.finish();
+			archive.sync();
+			archive.verify();
+		}
+
+		try (ZipFile zip = new ZipFile(second))
+		{
+			assertEquals(3, zip.size());
+			assertArrayEquals(empty, read(zip, "DEATHS.bin"));
+			assertArrayEquals(large, read(zip, "TYPE_B.bin"));
+			assertArrayEquals(small, read(zip, "TYPE_A.csv"));
+		}
+		try (FileSystem fs = FileSystems.newFileSystem(URI.create("jar:" + second.toURI()), new HashMap<>()))
+		{
+			assertArrayEquals(empty, Files.readAllBytes(fs.getPath("DEATHS.bin")));
+			assertArrayEquals(large, Files.readAllBytes(fs.getPath("TYPE_B.bin")));
+			assertArrayEquals(small, Files.readAllBytes(fs.getPath("TYPE_A.csv")));
+		}
+		try (FileChannel channel = FileChannel.open(second.toPath(), StandardOpenOption.READ))
+		{
+			List<HeatmapArchive.Entry> entries = HeatmapArchive.readEntries(channel);
+			assertEquals(3, entries.size());
+			try (InputStream in = HeatmapArchive.openEntry(channel, entries.get(1)))
+			{
+				assertArrayEquals(large, in.readAllBytes());
+			}
+		}
+	}
+
+	@Test
+	public void archivesCutShortFailToRead() throws IOException
+	{
+		File file = folder.newFile("cut.heatmaps");
+		try (HeatmapArchive.Writer archive = new HeatmapArchive.Writer(file.toPath()))
+		{
+			write(archive, "TYPE_A.bin", randomBytes(100_000, 2));
+			archive.finish();
+			archive.sync();
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+			{
+				// As if the write never made it all the way to the disk
+				raf.setLength(raf.length() - 10);
+			}
+			try
+			{
+				archive.verify();
+				fail("A cut short archive was verified");
+			}
+			catch (IOException expected)
+			{
+			}
+		}
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			HeatmapArchive.readEntries(channel);
+			fail("A cut short archive was read");
+		}
+		catch (IOException expected)
+		{
+		}
+	}
+
+	@Test
+	public void rejectsACentralDirectoryLargerThanTheFile() throws IOException
+	{
+		File file = folder.newFile("corrupt.heatmaps");
+		writeArchive(file, "TYPE_A.csv", new byte[]{1, 2, 3});
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+		{
+			// The end record's central directory size, as if it said 2 GB
+			raf.seek(raf.length() - 22 + 12);
+			raf.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(Integer.MAX_VALUE).array());
+		}
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			HeatmapArchive.readEntries(channel);
+			fail("A corrupt archive was read");
+		}
+		catch (IOException expected)
+		{
+		}
+	}
+
+	private static void writeArchive(File file, Object... namesAndContents) throws IOException
+	{
+		try (HeatmapArchive.Writer archive = new HeatmapArchive.Writer(file.toPath()))
+		{
+			for (int i = 0; i < namesAndContents.length; i += 2)
+			{
+				write(archive, (String) namesAndContents[i], (byte[]) namesAndContents[i + 1]);
+			}
+			archive.finish();
+			archive.verify();
+		}
+	}
+
+	private static void write(HeatmapArchive.Writer archive, String name, byte[] contents) throws IOException
+	{
+		try (OutputStream out = archive.newEntry(name))
+		{
+			out.write(contents);
+		}
+	}
+
+	private static byte[] read(ZipFile zip, String name) throws IOException
+	{
+		ZipEntry entry = zip.getEntry(name);
+		try (InputStream in = zip.getInputStream(entry))
+		{
+			return in.readAllBytes();
+		}
+	}
+
+	/**
+	 * Bytes that compress somewhat, like tile data
+	 */
+	private static byte[] randomBytes(int length, long seed)
+	{
+		Random random = new Random(seed);
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++)
+		{
+			bytes[i] = (byte) random.nextInt(16);
+		}
+		return bytes;
+	}
+}
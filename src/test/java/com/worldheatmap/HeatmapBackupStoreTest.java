@@ -0,0 +1,135 @@
+package com.worldheatmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HeatmapBackupStoreTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void readsBackupsBackAfterReopening() throws IOException
+	{
+		File directory = folder.newFolder();
+		HeatmapNew heatmap = randomHeatmap(HeatmapNew.HeatmapType.TYPE_A, 1);
+		try (HeatmapBackupStore store = HeatmapBackupStore.open(directory))
+		{
+			store.backup(Arrays.asList(heatmap, randomHeatmap(HeatmapNew.HeatmapType.TYPE_B, 2)), "2025-01-01_00-00");
+		}
+
+		// Once from the index, and once from the pack alone
+		for (int i = 0; i < 2; i++)
+		{
+			try (HeatmapBackupStore store = HeatmapBackupStore.open(directory))
+			{
+				Map<HeatmapNew.HeatmapType, HeatmapNew> read = store.read(new File(directory, "2025-01-01_00-00" + HeatmapBackupStore.BACKUP_EXTENSION));
+				assertEquals(2, read.size());
+				assertSameTiles(heatmap, read.get(HeatmapNew.HeatmapType.TYPE_A));
+			}
+			assertTrue(new File(directory, "chunks.idx").delete());
+		}
+	}
+
+	@Test
+	public void onlyStoresChangedRegionsAgain() throws IOException
+	{
+		File directory = folder.newFolder();
+		HeatmapNew heatmap = randomHeatmap(HeatmapNew.HeatmapType.TYPE_A, 1);
+		try (HeatmapBackupStore store = HeatmapBackupStore.open(directory))
+		{
+			store.backup(Arrays.asList(heatmap), "2025-01-01_00-00");
+			heatmap.increment(1000, 3000, 0, 5);
+			store.backup(Arrays.asList(heatmap), "2025-01-01_00-01");
+			// The changed region, and the heatmap's list of regions
+			assertEquals(2, store.getChunksAdded());
+		}
+		try (HeatmapBackupStore store = HeatmapBackupStore.open(directory))
+		{
+			assertSameTiles(heatmap, store.read(new File(directory, "2025-01-01_00-01" + HeatmapBackupStore.BACKUP_EXTENSION)).get(HeatmapNew.HeatmapType.TYPE_A));
+		}
+	}
+
+	@Test
+	public void dropsChunksOfDeletedBackups() throws IOException
+	{
+		File directory = folder.newFolder();
+		File pack = new File(directory, "chunks.pack");
+		HeatmapNew kept = randomHeatmap(HeatmapNew.HeatmapType.TYPE_A, 1);
+		try (HeatmapBackupStore store = HeatmapBackupStore.open(directory))
+		{
+			store.backup(Arrays.asList(randomHeatmap(HeatmapNew.HeatmapType.TYPE_A, 2)), "2025-01-01_00-00");
+			store.backup(Arrays.asList(randomHeatmap(HeatmapNew.HeatmapType.TYPE_A, 3)), "2025-01-01_00-01");
+		}
+		long fullSize = pack.length();
+		List<File> backups = HeatmapBackupStore.getBackups(directory);
+		assertEquals(2, backups.size());
+		assertTrue(backups.get(0).delete());
+		assertTrue(backups.get(1).delete());
+
+		try (HeatmapBackupStore store = HeatmapBackupStore.open(directory))
+		{
+			store.backup(Arrays.asList(kept), "2025-01-01_00-02");
+		}
+		assertTrue(pack.length() < fullSize * 2 / 3);
+		try (HeatmapBackupStore store = HeatmapBackupStore.open(directory))
+		{
+			assertSameTiles(kept, store.read(new File(directory, "2025-01-01_00-02" + HeatmapBackupStore.BACKUP_EXTENSION)).get(HeatmapNew.HeatmapType.TYPE_A));
+		}
+	}
+
+	@Test
+	public void cutsOffPartlyWrittenChunks() throws IOException
+	{
+		File directory = folder.newFolder();
+		HeatmapNew heatmap = randomHeatmap(HeatmapNew.HeatmapType.TYPE_A, 1);
+		try (HeatmapBackupStore store = HeatmapBackupStore.open(directory))
+		{
+			store.backup(Arrays.asList(heatmap), "2025-01-01_00-00");
+		}
+		File pack = new File(directory, "chunks.pack");
+		long size = pack.length();
+		try (RandomAccessFile file = new RandomAccessFile(pack, "rw"))
+		{
+			// As if a crash cut short a chunk being added
+			file.setLength(size + 30);
+		}
+
+		try (HeatmapBackupStore store = HeatmapBackupStore.open(directory))
+		{
+			assertEquals(size, pack.length());
+			assertSameTiles(heatmap, store.read(new File(directory, "2025-01-01_00-00" + HeatmapBackupStore.BACKUP_EXTENSION)).get(HeatmapNew.HeatmapType.TYPE_A));
+		}
+	}
+
+	private static HeatmapNew randomHeatmap(HeatmapNew.HeatmapType type, long seed)
+	{
+		Random random = new Random(seed);
+		HeatmapNew heatmap = new HeatmapNew(type, 1, 0, null, 3);
+		for (int i = 0; i < 30_000; i++)
+		{
+			heatmap.increment(1024 + random.nextInt(1000), 2500 + random.nextInt(1000), 0, 1 + random.nextInt(1000));
+		}
+		return heatmap;
+	}
+
+	private static void assertSameTiles(HeatmapNew expected, HeatmapNew actual)
+	{
+		assertEquals(expected.getTileCount(), actual.getTileCount());
+		TileCursor tile = expected.cursor();
+		while (tile.next())
+		{
+			assertEquals(tile.getValue(), actual.get(tile.getX(), tile.getY(), tile.getPlane()));
+		}
+	}
+}
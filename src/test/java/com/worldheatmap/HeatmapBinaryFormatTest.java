@@ -0,0 +1,60 @@
+package com.worldheatmap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class HeatmapBinaryFormatTest
+{
+	@Test
+	public void sortsValuesAlongWithTheirKeys()
+	{
+		Random random = new Random(11);
+		int count = 50_000;
+		long[] keys = new long[count];
+		long[] values = new long[count];
+		for (int i = 0; i < count; i++)
+		{
+			keys[i] = HeatmapBinaryFormat.sortKey(1024 + random.nextInt(3000), 2500 + random.nextInt(1600), random.nextInt(4));
+			// Each value is derived from its key, so a value that got separated from its key shows
+			values[i] = keys[i] * 31 + 7;
+		}
+		long[] expected = keys.clone();
+		Arrays.sort(expected);
+
+		HeatmapBinaryFormat.sortByKey(keys, values, count);
+		assertArrayEquals(expected, keys);
+		for (int i = 0; i < count; i++)
+		{
+			assertEquals(keys[i] * 31 + 7, values[i]);
+		}
+	}
+
+	@Test
+	public void roundTripsColumnSnapshots() throws Exception
+	{
+		// The encoder must not need to look tiles up, which is slow on a column's snapshot
+		ColumnarTileStore store = new ColumnarTileStore();
+		HeatmapNew heatmap = new HeatmapNew(HeatmapNew.HeatmapType.TYPE_A, 1, 0, null, 3, store.newColumn());
+		Random random = new Random(13);
+		for (int i = 0; i < 20_000; i++)
+		{
+			heatmap.increment(1024 + random.nextInt(500), 2500 + random.nextInt(500), random.nextInt(2), 1 + random.nextInt(1000));
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		HeatmapBinaryFormat.write(heatmap.snapshot(), out);
+		HeatmapNew read = HeatmapBinaryFormat.read(new ByteArrayInputStream(out.toByteArray()), null);
+
+		assertEquals(heatmap.getTileCount(), read.getTileCount());
+		TileCursor tile = heatmap.cursor();
+		while (tile.next())
+		{
+			assertEquals(tile.getValue(), read.get(tile.getX(), tile.getY(), tile.getPlane()));
+		}
+	}
+}
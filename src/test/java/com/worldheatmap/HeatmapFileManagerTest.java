@@ -0,0 +1,95 @@
+package com.worldheatmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HeatmapFileManagerTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void readsTheCsvAnOlderVersionPlayedOnAfterTheBinary() throws IOException
+	{
+		HeatmapNew binary = newHeatmap(1000, 1);
+		HeatmapNew csv = binary.snapshot();
+		csv.setGameTimeTicks(1500);
+		csv.increment(3300, 3300, 0, 7);
+		File file = writeDowngradedFile(binary, csv);
+
+		HeatmapNew read = readTypeA(file);
+		assertEquals(7, read.get(3300, 3300, 0));
+		assertEquals(1500, read.getGameTimeTicks());
+	}
+
+	@Test
+	public void readsTheBinaryOverAFreshCsvOfAnOlderVersion() throws IOException
+	{
+		HeatmapNew binary = newHeatmap(1000, 1);
+		// As if the older version didn't find a CSV entry and started over
+		HeatmapNew csv = newHeatmap(20, 0);
+		File file = writeDowngradedFile(binary, csv);
+
+		HeatmapNew read = readTypeA(file);
+		assertEquals(binary.getTileCount(), read.getTileCount());
+		assertEquals(1000, read.getGameTimeTicks());
+		assertEquals(binary.getJournalSequence(), read.getJournalSequence());
+	}
+
+	private static HeatmapNew newHeatmap(int gameTimeTicks, int value)
+	{
+		HeatmapNew heatmap = new HeatmapNew(HeatmapNew.HeatmapType.TYPE_A, 1, 0, null, 3);
+		heatmap.setGameTimeTicks(gameTimeTicks);
+		heatmap.setJournalSequence(42);
+		if (value > 0)
+		{
+			heatmap.increment(3200, 3200, 0, value);
+			heatmap.increment(3201, 3200, 0, value);
+		}
+		return heatmap;
+	}
+
+	/**
+	 * A file saved with the binary entry and its state, then saved again by a version that only writes CSV entries and
+	 * leaves the others as they were
+	 */
+	private File writeDowngradedFile(HeatmapNew binary, HeatmapNew csv) throws IOException
+	{
+		File file = folder.newFile("downgraded.heatmaps");
+		try (HeatmapArchive.Writer archive = new HeatmapArchive.Writer(file.toPath()))
+		{
+			try (OutputStream os = archive.newEntry(HeatmapFileManager.getEntryName(HeatmapNew.HeatmapType.TYPE_A, HeatmapFileFormat.BINARY).substring(1)))
+			{
+				HeatmapBinaryFormat.write(binary, os);
+			}
+			long binaryCrc = archive.getLastEntryCrc();
+			try (OutputStreamWriter osw = new OutputStreamWriter(archive.newEntry(HeatmapFileManager.STATE_ENTRY_NAME), StandardCharsets.UTF_8))
+			{
+				osw.write("heatmapType,entryCRC,gameTimeTicks,journalSequence\n");
+				osw.write("TYPE_A," + binaryCrc + "," + binary.getGameTimeTicks() + "," + binary.getJournalSequence() + "\n");
+			}
+			try (OutputStreamWriter osw = new OutputStreamWriter(archive.newEntry(HeatmapFileManager.getEntryName(HeatmapNew.HeatmapType.TYPE_A, HeatmapFileFormat.CSV).substring(1)), StandardCharsets.UTF_8))
+			{
+				csv.toCSV(osw);
+			}
+			archive.finish();
+		}
+		return file;
+	}
+
+	private static HeatmapNew readTypeA(File file) throws IOException
+	{
+		HeatmapFileManager fileManager = new HeatmapFileManager(new WorldHeatmapPlugin());
+		Map<HeatmapNew.HeatmapType, HeatmapNew> heatmaps = fileManager.readHeatmapsFromFile(file, Collections.singletonList(HeatmapNew.HeatmapType.TYPE_A), false);
+		return heatmaps.get(HeatmapNew.HeatmapType.TYPE_A);
+	}
+}
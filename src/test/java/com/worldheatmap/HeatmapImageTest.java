@@ -0,0 +1,211 @@
+package com.worldheatmap;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Random;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class HeatmapImageTest
+{
+	private static final int WIDTH = 800;
+	private static final int HEIGHT = 600;
+
+	@Test
+	public void shadesLikeConvertingEachPixelToHsbAndBack()
+	{
+		HeatmapNew heatmap = randomHeatmap(WIDTH, HEIGHT, 20_000, 7);
+		for (int imageType : new int[]{BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_INT_RGB})
+		{
+			BufferedImage worldMap = randomWorldMap(WIDTH, HEIGHT, imageType, 3);
+			for (float transparency : new float[]{0, 0.5f, 0.87f})
+			{
+				for (int sensitivity : new int[]{1, 4, 9})
+				{
+					BufferedImage expected = copy(worldMap);
+					shadeByHsb(expected, heatmap, transparency, sensitivity);
+					BufferedImage actual = copy(worldMap);
+					// Strips of 75 pixels, so that some tiles straddle two of them
+					newHeatmapImage(heatmap, worldMap, 8, transparency, sensitivity).processImageRegion(actual, new Rectangle(0, 0, WIDTH, HEIGHT));
+					assertEquivalent(expected, actual);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void shadesEachPixelOnceWhenDrawnAStripAtATime()
+	{
+		HeatmapNew heatmap = randomHeatmap(WIDTH, HEIGHT, 20_000, 9);
+		BufferedImage worldMap = randomWorldMap(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR, 5);
+		BufferedImage expected = copy(worldMap);
+		shadeByHsb(expected, heatmap, 0.5f, 4);
+
+		HeatmapImage image = newHeatmapImage(heatmap, worldMap, 8, 0.5f, 4);
+		BufferedImage actual = copy(worldMap);
+		int stripHeight = image.getTileHeight();
+		for (int strip = 0; strip < 8; strip++)
+		{
+			Rectangle region = new Rectangle(0, strip * stripHeight, WIDTH, stripHeight);
+			image.processImageRegion(actual.getSubimage(region.x, region.y, region.width, region.height), region);
+		}
+		assertEquivalent(expected, actual);
+	}
+
+	@Test
+	public void rendersTheSameStripsAhead()
+	{
+		HeatmapNew heatmap = randomHeatmap(WIDTH, HEIGHT, 20_000, 11);
+		BufferedImage worldMap = randomWorldMap(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR, 13);
+		try (HeatmapImage expected = newHeatmapImage(heatmap, worldMap, 8, 0.5f, 4, 1);
+			 HeatmapImage actual = newHeatmapImage(heatmap, worldMap, 8, 0.5f, 4, 4))
+		{
+			for (int strip = 0; strip < 8; strip++)
+			{
+				assertArrayEquals(((DataBufferByte) expected.getTile(0, strip).getDataBuffer()).getData(),
+					((DataBufferByte) actual.getTile(0, strip).getDataBuffer()).getData());
+			}
+		}
+	}
+
+	/**
+	 * Each colour component may be off by one, from the float rounding of the table lookups
+	 */
+	private static void assertEquivalent(BufferedImage expected, BufferedImage actual)
+	{
+		int maxDifference = 0;
+		for (int y = 0; y < expected.getHeight(); y++)
+		{
+			for (int x = 0; x < expected.getWidth(); x++)
+			{
+				int expectedRGB = expected.getRGB(x, y);
+				int actualRGB = actual.getRGB(x, y);
+				for (int shift = 0; shift <= 24; shift += 8)
+				{
+					maxDifference = Math.max(maxDifference, Math.abs(((expectedRGB >> shift) & 0xFF) - ((actualRGB >> shift) & 0xFF)));
+				}
+			}
+		}
+		assertTrue("Colour components differ by up to " + maxDifference, maxDifference <= 1);
+	}
+
+	static HeatmapImage newHeatmapImage(HeatmapNew heatmap, BufferedImage worldMap, int numYTiles, float transparency, int sensitivity)
+	{
+		return newHeatmapImage(heatmap, worldMap, numYTiles, transparency, sensitivity, 1);
+	}
+
+	static HeatmapImage newHeatmapImage(HeatmapNew heatmap, BufferedImage worldMap, int numYTiles, float transparency, int sensitivity, int stripsInFlight)
+	{
+		return new HeatmapImage(heatmap, new HeatmapImage.WorldMap()
+		{
+			@Override
+			public int getWidth()
+			{
+				return worldMap.getWidth();
+			}
+
+			@Override
+			public int getHeight()
+			{
+				return worldMap.getHeight();
+			}
+
+			@Override
+			public BufferedImage read(Rectangle region)
+			{
+				return copy(worldMap.getSubimage(region.x, region.y, region.width, region.height));
+			}
+
+			@Override
+			public void close()
+			{
+			}
+		}, numYTiles, transparency, sensitivity, 0, 0, stripsInFlight);
+	}
+
+	/**
+	 * Tiles at distinct spots within the image, mostly with small values like most heatmaps, but some too large for the hue table
+	 */
+	static HeatmapNew randomHeatmap(int width, int height, int tileCount, long seed)
+	{
+		Random random = new Random(seed);
+		HeatmapNew heatmap = new HeatmapNew(HeatmapNew.HeatmapType.TYPE_A, 1, 0, null, 3);
+		while (heatmap.getTileCount() < tileCount)
+		{
+			long value = random.nextInt(20) == 0 ? 1 + random.nextInt(500_000) : 1 + random.nextInt(300);
+			heatmap.set(random.nextInt(width / 4), 1 + random.nextInt(height / 4), 0, value);
+		}
+		return heatmap;
+	}
+
+	static BufferedImage randomWorldMap(int width, int height, int imageType, long seed)
+	{
+		Random random = new Random(seed);
+		BufferedImage image = new BufferedImage(width, height, imageType);
+		for (int y = 0; y < height; y++)
+		{
+			for (int x = 0; x < width; x++)
+			{
+				image.setRGB(x, y, 0xff000000 | random.nextInt(1 << 24));
+			}
+		}
+		return image;
+	}
+
+	static BufferedImage copy(BufferedImage image)
+	{
+		BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
+		copy.getGraphics().drawImage(image, 0, 0, null);
+		return copy;
+	}
+
+	/**
+	 * How heatmap pixels were shaded before the hue and brightness tables, converting each pixel to HSB and back,
+	 * kept here as the reference they must agree with. Assumes the heatmap's tiles are all on plane 0 and within the image
+	 */
+	static void shadeByHsb(BufferedImage image, HeatmapNew heatmap, float transparency, int sensitivity)
+	{
+		long maxVal = 0;
+		long minVal = Long.MAX_VALUE;
+		TileCursor tile = heatmap.cursor();
+		while (tile.next())
+		{
+			maxVal = Math.max(maxVal, tile.getValue());
+			minVal = Math.min(minVal, tile.getValue());
+		}
+		tile = heatmap.cursor();
+		while (tile.next())
+		{
+			int tileX = 4 * tile.getX();
+			int tileY = image.getHeight() - 4 * tile.getY();
+			double currHue = calculateHue(tile.getValue(), sensitivity, minVal, maxVal);
+			for (int x = tileX; x < tileX + 4; x++)
+			{
+				for (int y = tileY; y < tileY + 4; y++)
+				{
+					int srcRGB = image.getRGB(x, y);
+					int r = (srcRGB >> 16) & 0xFF;
+					int g = (srcRGB >> 8) & 0xFF;
+					int b = srcRGB & 0xFF;
+					float brightness = Color.RGBtoHSB(r, g, b, null)[2] * (1 - transparency) + transparency;
+					image.setRGB(x, y, Color.HSBtoRGB((float) currHue, 1, brightness));
+				}
+			}
+		}
+	}
+
+	private static double calculateHue(long tileValue, int heatmapSensitivity, long minVal, long maxVal)
+	{
+		double nthRoot = 1 + (heatmapSensitivity - 1.0) / 2;
+		int logBase = 4;
+		double minHue = 1 / 3.0;
+		double maxHue = 0.0;
+		double currHue = (float) ((Math.log(tileValue) / Math.log(logBase)) / (Math.log(maxVal + 1 - minVal) / Math.log(logBase)));
+		currHue = Math.pow(currHue, 1.0 / nthRoot);
+		currHue = (float) (minHue + (currHue * (maxHue - minHue)));
+		return currHue;
+	}
+}
@@ -0,0 +1,177 @@
+package com.worldheatmap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HeatmapJournalTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void replaysFlushedChangesAfterACrash() throws IOException
+	{
+		File file = new File(folder.getRoot(), HeatmapJournal.FILE_NAME);
+		HeatmapJournal journal = HeatmapJournal.open(file);
+		HeatmapNew heatmap = newHeatmap(HeatmapNew.HeatmapType.TYPE_A);
+		// As saved before the session
+		HeatmapNew saved = heatmap.snapshot();
+		journal.attach(heatmap);
+		incrementRandomly(heatmap, 1, 5_000);
+		journal.flush();
+		// Changes after the last flush are lost in the crash, and the journal is never closed
+
+		HeatmapJournal reopened = HeatmapJournal.open(file);
+		HeatmapNew loaded = load(saved);
+		reopened.attach(loaded);
+		assertSameTiles(heatmap, loaded);
+		assertEquals(heatmap.getJournalSequence(), loaded.getJournalSequence());
+		reopened.close();
+		journal.close();
+	}
+
+	@Test
+	public void checkpointDropsTheChangesThatWereSaved() throws IOException
+	{
+		File file = new File(folder.getRoot(), HeatmapJournal.FILE_NAME);
+		HeatmapJournal journal = HeatmapJournal.open(file);
+		HeatmapNew heatmap = newHeatmap(HeatmapNew.HeatmapType.TYPE_A);
+		journal.attach(heatmap);
+		incrementRandomly(heatmap, 2, 3_000);
+		HeatmapNew saved = heatmap.snapshot();
+		journal.checkpoint(Collections.singletonList(saved));
+		incrementRandomly(heatmap, 3, 3_000);
+		journal.close();
+
+		// Replaying everything onto the saved heatmap would count the saved changes twice
+		HeatmapJournal reopened = HeatmapJournal.open(file);
+		HeatmapNew loaded = load(saved);
+		reopened.attach(loaded);
+		assertSameTiles(heatmap, loaded);
+		reopened.close();
+	}
+
+	@Test
+	public void onlyReplaysOntoTheRightTypes() throws IOException
+	{
+		File file = new File(folder.getRoot(), HeatmapJournal.FILE_NAME);
+		HeatmapJournal journal = HeatmapJournal.open(file);
+		HeatmapNew typeA = newHeatmap(HeatmapNew.HeatmapType.TYPE_A);
+		HeatmapNew typeB = newHeatmap(HeatmapNew.HeatmapType.TYPE_B);
+		HeatmapNew savedA = typeA.snapshot();
+		HeatmapNew savedB = typeB.snapshot();
+		journal.attach(typeA);
+		journal.attach(typeB);
+		incrementRandomly(typeA, 4, 2_000);
+		incrementRandomly(typeB, 5, 1_000);
+		journal.close();
+
+		HeatmapJournal reopened = HeatmapJournal.open(file);
+		HeatmapNew loadedA = load(savedA);
+		HeatmapNew loadedB = load(savedB);
+		reopened.attach(loadedA);
+		reopened.attach(loadedB);
+		assertSameTiles(typeA, loadedA);
+		assertSameTiles(typeB, loadedB);
+		reopened.close();
+	}
+
+	@Test
+	public void heatmapsOfUnknownSequenceDiscardOldChangesButKeepNewOnes() throws IOException
+	{
+		File file = new File(folder.getRoot(), HeatmapJournal.FILE_NAME);
+		HeatmapJournal journal = HeatmapJournal.open(file);
+		HeatmapNew other = newHeatmap(HeatmapNew.HeatmapType.TYPE_A);
+		journal.attach(other);
+		incrementRandomly(other, 6, 100);
+
+		// A heatmap from a file that doesn't say what it includes, such as a backup, of a type that has no records
+		HeatmapNew unknown = newHeatmap(HeatmapNew.HeatmapType.DEATHS);
+		unknown.setJournalSequence(HeatmapNew.UNKNOWN_JOURNAL_SEQUENCE);
+		journal.attach(unknown);
+		assertTrue(unknown.getJournalSequence() >= other.getJournalSequence());
+		// Saved before it changes, as the rarely changed types are
+		HeatmapNew saved = unknown.snapshot();
+		journal.checkpoint(Collections.singletonList(saved));
+		unknown.increment(3200, 3200, 0, 1);
+		journal.close();
+
+		HeatmapJournal reopened = HeatmapJournal.open(file);
+		HeatmapNew loaded = load(saved);
+		reopened.attach(loaded);
+		assertEquals(1, loaded.get(3200, 3200, 0));
+		reopened.close();
+
+		// And one whose type does have records replays none of them, since its data may already include them
+		HeatmapJournal again = HeatmapJournal.open(file);
+		HeatmapNew unknownAgain = newHeatmap(HeatmapNew.HeatmapType.DEATHS);
+		unknownAgain.setJournalSequence(HeatmapNew.UNKNOWN_JOURNAL_SEQUENCE);
+		again.attach(unknownAgain);
+		assertEquals(0, unknownAgain.getTileCount());
+		assertTrue(unknownAgain.getJournalSequence() >= loaded.getJournalSequence());
+		again.close();
+	}
+
+	@Test
+	public void ignoresATornBlockAtTheEnd() throws IOException
+	{
+		File file = new File(folder.getRoot(), HeatmapJournal.FILE_NAME);
+		HeatmapJournal journal = HeatmapJournal.open(file);
+		HeatmapNew heatmap = newHeatmap(HeatmapNew.HeatmapType.TYPE_A);
+		HeatmapNew saved = heatmap.snapshot();
+		journal.attach(heatmap);
+		incrementRandomly(heatmap, 7, 1_000);
+		journal.close();
+		try (FileOutputStream out = new FileOutputStream(file, true))
+		{
+			// The length and CRC of a block whose payload never made it to disk
+			out.write(new byte[]{0, 0, 1, 0, 1, 2, 3, 4, 5});
+		}
+
+		HeatmapJournal reopened = HeatmapJournal.open(file);
+		HeatmapNew loaded = load(saved);
+		reopened.attach(loaded);
+		assertSameTiles(heatmap, loaded);
+		reopened.close();
+	}
+
+	private static HeatmapNew newHeatmap(HeatmapNew.HeatmapType type)
+	{
+		return new HeatmapNew(type, 1, 0, null, 3);
+	}
+
+	/**
+	 * As if the snapshot were saved and then loaded again
+	 */
+	private static HeatmapNew load(HeatmapNew saved)
+	{
+		return saved.copyTo(TileStore.Layout.HASH.create());
+	}
+
+	private static void incrementRandomly(HeatmapNew heatmap, long seed, int count)
+	{
+		Random random = new Random(seed);
+		for (int i = 0; i < count; i++)
+		{
+			heatmap.increment(3000 + random.nextInt(200), 3000 + random.nextInt(200), random.nextInt(2), 1 + random.nextInt(5));
+		}
+	}
+
+	private static void assertSameTiles(HeatmapNew expected, HeatmapNew actual)
+	{
+		assertEquals(expected.getTileCount(), actual.getTileCount());
+		TileCursor tile = expected.cursor();
+		while (tile.next())
+		{
+			assertEquals(tile.getValue(), actual.get(tile.getX(), tile.getY(), tile.getPlane()));
+		}
+	}
+}
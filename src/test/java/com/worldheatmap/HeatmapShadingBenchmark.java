@@ -0,0 +1,39 @@
+package com.worldheatmap;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * Compares the pixels per second shaded by HeatmapImage's hue and brightness tables against converting each pixel
+ * to HSB and back as before, over a 4096x3840 world map (the layout that PNGs are read in) with 600k tiles.
+ */
+public class HeatmapShadingBenchmark
+{
+	private static final int WIDTH = 4096;
+	private static final int HEIGHT = 3840;
+	private static final int TILE_COUNT = 600_000;
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args)
+	{
+		HeatmapNew heatmap = HeatmapImageTest.randomHeatmap(WIDTH, HEIGHT, TILE_COUNT, 1);
+		BufferedImage worldMap = HeatmapImageTest.randomWorldMap(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR, 2);
+		double pixels = TILE_COUNT * 16.0;
+		for (int round = 0; round < ROUNDS; round++)
+		{
+			BufferedImage image = HeatmapImageTest.copy(worldMap);
+			long startTime = System.nanoTime();
+			HeatmapImageTest.shadeByHsb(image, heatmap, 0.5f, 4);
+			long oldNanos = System.nanoTime() - startTime;
+
+			image = HeatmapImageTest.copy(worldMap);
+			startTime = System.nanoTime();
+			// Including the tables' precomputation, which every render pays for
+			HeatmapImage heatmapImage = HeatmapImageTest.newHeatmapImage(heatmap, worldMap, 24, 0.5f, 4);
+			heatmapImage.processImageRegion(image, new Rectangle(0, 0, WIDTH, HEIGHT));
+			long newNanos = System.nanoTime() - startTime;
+			System.out.printf("Round %d: HSB round trip %.1f Mpx/s, tables %.1f Mpx/s%n",
+				round + 1, pixels / oldNanos * 1000, pixels / newNanos * 1000);
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package com.worldheatmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import org.junit.After;
+import org.junit.Test;
+
+public class SaveSchedulerTest
+{
+	private final SaveScheduler scheduler = new SaveScheduler();
+	private final List<String> written = Collections.synchronizedList(new ArrayList<>());
+
+	@After
+	public void shutDown()
+	{
+		scheduler.shutdown();
+	}
+
+	@Test
+	public void mergesRequestsWaitingToBeWritten()
+	{
+		CountDownLatch release = blockWriter();
+		scheduler.request(SaveScheduler.SaveType.HEATMAPS_FILE, SaveScheduler.Priority.AUTOSAVE, write("first"));
+		scheduler.request(SaveScheduler.SaveType.HEATMAPS_FILE, SaveScheduler.Priority.AUTOSAVE, write("second"));
+		scheduler.request(SaveScheduler.SaveType.NEW_HEATMAPS_FILE, SaveScheduler.Priority.USER, write("new file"));
+		scheduler.request(SaveScheduler.SaveType.NEW_HEATMAPS_FILE, SaveScheduler.Priority.USER, write("another new file"));
+		release.countDown();
+		scheduler.awaitPendingSaves();
+
+		assertEquals(Arrays.asList("blocker", "second", "new file", "another new file"), written);
+		assertEquals(1, scheduler.getMergedCount());
+	}
+
+	@Test
+	public void writesTheMoreUrgentQueueFirst()
+	{
+		CountDownLatch release = blockWriter();
+		scheduler.request(SaveScheduler.SaveType.BACKUP, SaveScheduler.Priority.BACKUP, write("backup"));
+		scheduler.request(SaveScheduler.SaveType.HEATMAPS_FILE, SaveScheduler.Priority.AUTOSAVE, write("autosave"));
+		// Merging raises the save's priority to the more urgent request's
+		scheduler.request(SaveScheduler.SaveType.HEATMAPS_FILE, SaveScheduler.Priority.FLUSH, write("flush"));
+		release.countDown();
+		scheduler.awaitPendingSaves();
+
+		assertEquals(Arrays.asList("blocker", "flush", "backup"), written);
+	}
+
+	@Test
+	public void waitsOnlyForTheSavesRequestedBeforehand() throws InterruptedException
+	{
+		CountDownLatch release = blockWriter();
+		scheduler.request(SaveScheduler.SaveType.HEATMAPS_FILE, SaveScheduler.Priority.AUTOSAVE, write("before"));
+		Thread waiter = new Thread(scheduler::awaitPendingSaves);
+		waiter.start();
+		while (waiter.getState() != Thread.State.WAITING)
+		{
+			Thread.sleep(1);
+		}
+
+		// Saves requested after the wait began, one of which never finishes until the test lets it
+		CountDownLatch releaseLater = new CountDownLatch(1);
+		scheduler.request(SaveScheduler.SaveType.NEW_HEATMAPS_FILE, SaveScheduler.Priority.AUTOSAVE, () -> await(releaseLater));
+		scheduler.request(SaveScheduler.SaveType.NEW_HEATMAPS_FILE, SaveScheduler.Priority.AUTOSAVE, write("after"));
+		release.countDown();
+		waiter.join(10_000);
+
+		assertFalse("Waited on saves requested later", waiter.isAlive());
+		assertEquals(Arrays.asList("blocker", "before"), written);
+		releaseLater.countDown();
+		scheduler.awaitPendingSaves();
+		assertEquals(Arrays.asList("blocker", "before", "after"), written);
+	}
+
+	/**
+	 * Keeps the writer thread busy with a save until the returned latch is released, so that the requests made
+	 * meanwhile queue up
+	 */
+	private CountDownLatch blockWriter()
+	{
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		scheduler.request(SaveScheduler.SaveType.READ_HEATMAPS_FILE, SaveScheduler.Priority.USER, () -> {
+			started.countDown();
+			await(release);
+			written.add("blocker");
+		});
+		await(started);
+		return release;
+	}
+
+	private Runnable write(String name)
+	{
+		return () -> written.add(name);
+	}
+
+	private static void await(CountDownLatch latch)
+	{
+		try
+		{
+			latch.await();
+		}
+		catch (InterruptedException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package com.worldheatmap;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Times writing a full-map-sized heatmap TIFF with 1, 2, 4 and 8 strips rendered at once, with the image writer
+ * settings of writeHeatmapImage. Each count only helps as far as there are cores to render on, which it prints.
+ */
+public class StripRenderBenchmark
+{
+	private static final int WIDTH = 4096;
+	private static final int HEIGHT = 4000;
+	private static final int STRIP_HEIGHT = 400;
+	private static final int TILE_COUNT = 400_000;
+	private static final int ROUNDS = 3;
+
+	public static void main(String[] args) throws IOException
+	{
+		HeatmapNew heatmap = HeatmapImageTest.randomHeatmap(WIDTH, HEIGHT, TILE_COUNT, 1);
+		BufferedImage worldMap = HeatmapImageTest.randomWorldMap(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR, 2);
+		File imageFile = File.createTempFile("heatmap", ".tif");
+		imageFile.deleteOnExit();
+		System.out.printf("%d processors, %d MB max heap%n", Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().maxMemory() >> 20);
+		for (int round = 0; round < ROUNDS; round++)
+		{
+			for (int stripsInFlight : new int[]{1, 2, 4, 8})
+			{
+				long startTime = System.nanoTime();
+				try (ImageOutputStream ios = ImageIO.createImageOutputStream(imageFile);
+					 HeatmapImage heatmapImage = HeatmapImageTest.newHeatmapImage(heatmap, worldMap, HEIGHT / STRIP_HEIGHT, 0.5f, 4, stripsInFlight))
+				{
+					ImageWriter writer = ImageIO.getImageWritersByFormatName("tif").next();
+					writer.setOutput(ios);
+					ImageWriteParam writeParam = writer.getDefaultWriteParam();
+					writeParam.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+					writeParam.setTiling(WIDTH, STRIP_HEIGHT, 0, 0);
+					writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+					writeParam.setCompressionType("Deflate");
+					writeParam.setCompressionQuality(0);
+					writer.write(null, new IIOImage(heatmapImage, null, null), writeParam);
+					writer.dispose();
+				}
+				System.out.printf("Round %d, %d strips in flight: %d ms%n", round + 1, stripsInFlight, (System.nanoTime() - startTime) / 1_000_000);
+			}
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package com.worldheatmap;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import net.runelite.api.coords.WorldPoint;
+
+/**
+ * Compares the heap used per tile, and the time to increment tiles, of the HashMap&lt;WorldPoint, Integer&gt; that
+ * HeatmapNew used to keep its tiles in against TileHashMap. Run with a heap of at least 1 GB.
+ */
+public class TileHashMapBenchmark
+{
+	private static final int TILE_COUNT = 1_000_000;
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args)
+	{
+		int[] xs = new int[TILE_COUNT];
+		int[] ys = new int[TILE_COUNT];
+		int[] values = new int[TILE_COUNT];
+		// Plane 0 tiles over the overworld, with mostly small values, like a long-lived TYPE_A heatmap
+		Random random = new Random(1);
+		Map<Long, Boolean> seen = new HashMap<>();
+		for (int i = 0; i < TILE_COUNT; )
+		{
+			int x = 1024 + random.nextInt(2752);
+			int y = 2496 + random.nextInt(1664);
+			if (seen.put(TileKey.pack(x, y, 0), true) == null)
+			{
+				xs[i] = x;
+				ys[i] = y;
+				values[i] = 1 + random.nextInt(random.nextInt(10) == 0 ? 10_000 : 50);
+				i++;
+			}
+		}
+		seen = null;
+
+		long before = usedMemory();
+		Map<WorldPoint, Integer> hashMap = new HashMap<>();
+		for (int i = 0; i < TILE_COUNT; i++)
+		{
+			hashMap.put(new WorldPoint(xs[i], ys[i], 0), values[i]);
+		}
+		long hashMapBytes = usedMemory() - before;
+
+		before = usedMemory();
+		TileHashMap tileHashMap = new TileHashMap();
+		for (int i = 0; i < TILE_COUNT; i++)
+		{
+			tileHashMap.put(xs[i], ys[i], 0, values[i]);
+		}
+		long tileHashMapBytes = usedMemory() - before;
+
+		System.out.printf("Heap per tile, %d tiles:%n", TILE_COUNT);
+		System.out.printf("  HashMap<WorldPoint, Integer>: %.1f bytes/tile%n", (double) hashMapBytes / TILE_COUNT);
+		System.out.printf("  TileHashMap:                  %.1f bytes/tile (getMemoryUsage() says %.1f)%n",
+			(double) tileHashMapBytes / TILE_COUNT, (double) tileHashMap.getMemoryUsage() / TILE_COUNT);
+
+		for (int round = 0; round < ROUNDS; round++)
+		{
+			long startTime = System.nanoTime();
+			for (int i = 0; i < TILE_COUNT; i++)
+			{
+				WorldPoint point = new WorldPoint(xs[i], ys[i], 0);
+				hashMap.put(point, hashMap.getOrDefault(point, 0) + 1);
+			}
+			long hashMapNanos = System.nanoTime() - startTime;
+
+			startTime = System.nanoTime();
+			for (int i = 0; i < TILE_COUNT; i++)
+			{
+				tileHashMap.put(xs[i], ys[i], 0, tileHashMap.get(xs[i], ys[i], 0) + 1);
+			}
+			long tileHashMapNanos = System.nanoTime() - startTime;
+			System.out.printf("Increment every tile, round %d: HashMap %.1f ns/tile, TileHashMap %.1f ns/tile%n",
+				round + 1, (double) hashMapNanos / TILE_COUNT, (double) tileHashMapNanos / TILE_COUNT);
+		}
+		// Keep both maps reachable until the end
+		System.out.println(hashMap.size() + tileHashMap.size() == 2 * TILE_COUNT ? "" : "Tile counts differ");
+	}
+
+	private static long usedMemory()
+	{
+		for (int i = 0; i < 5; i++)
+		{
+			System.gc();
+		}
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,143 @@
+package com.worldheatmap;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class TileHashMapTest
+{
+	@Test
+	public void packsCoordinatesIntoKeys()
+	{
+		int[][] tiles = {
+			{0, 0, 0},
+			{3200, 3200, 0},
+			{3200, 3200, 3},
+			{-1, -1, 0},
+			{-5, 12000, 1},
+			// The extremes of the 24 bits that x and y are packed into
+			{(1 << 23) - 1, -(1 << 23), 2},
+			{-(1 << 23), (1 << 23) - 1, 3},
+		};
+		for (int[] tile : tiles)
+		{
+			long key = TileKey.pack(tile[0], tile[1], tile[2]);
+			assertTrue(key != TileKey.NONE);
+			assertEquals(tile[0], TileKey.getX(key));
+			assertEquals(tile[1], TileKey.getY(key));
+			assertEquals(tile[2], TileKey.getPlane(key));
+		}
+		assertTrue(TileKey.pack(1, 2, 0) != TileKey.pack(2, 1, 0));
+		assertTrue(TileKey.pack(1, 2, 0) != TileKey.pack(1, 2, 1));
+		assertTrue(TileKey.pack(-1, 0, 0) != TileKey.pack(0, -1, 0));
+	}
+
+	@Test
+	public void storesAndRemovesTiles()
+	{
+		TileHashMap tiles = new TileHashMap();
+		assertEquals(0, tiles.put(3200, 3200, 0, 5));
+		assertEquals(5, tiles.put(3200, 3200, 0, 7));
+		assertEquals(7, tiles.get(3200, 3200, 0));
+		assertEquals(0, tiles.get(3200, 3200, 1));
+		assertEquals(1, tiles.size());
+
+		// Setting a tile to 0 removes it
+		assertEquals(7, tiles.put(3200, 3200, 0, 0));
+		assertEquals(0, tiles.get(3200, 3200, 0));
+		assertEquals(0, tiles.size());
+		assertTrue(tiles.isEmpty());
+
+		// And setting an absent tile to 0 doesn't add it
+		assertEquals(0, tiles.put(1, 1, 0, 0));
+		assertEquals(0, tiles.size());
+	}
+
+	@Test
+	public void widensValuesThatOutgrowAnInt()
+	{
+		TileHashMap tiles = new TileHashMap();
+		tiles.put(1, 1, 0, 1);
+		tiles.put(2, 2, 0, Integer.MAX_VALUE + 10L);
+		tiles.put(3, 3, 0, -1);
+		assertEquals(1, tiles.get(1, 1, 0));
+		assertEquals(Integer.MAX_VALUE + 10L, tiles.get(2, 2, 0));
+		assertEquals(-1, tiles.get(3, 3, 0));
+	}
+
+	/**
+	 * Random puts and removes over a small area, so that probe runs collide and wrap around, checked against a HashMap.
+	 * Covers backward-shift deletion and growing through several resizes
+	 */
+	@Test
+	public void matchesHashMapUnderRandomPutsAndRemoves()
+	{
+		Random random = new Random(1);
+		for (int round = 0; round < 20; round++)
+		{
+			TileHashMap tiles = new TileHashMap();
+			Map<Long, Long> expected = new HashMap<>();
+			int range = 8 + random.nextInt(200);
+			for (int i = 0; i < 20_000; i++)
+			{
+				int x = random.nextInt(range) - range / 2;
+				int y = random.nextInt(range) - range / 2;
+				int z = random.nextInt(4);
+				long value = random.nextInt(3) == 0 ? 0 : random.nextInt(1000) - 100;
+				Long previous = value == 0 ? expected.remove(TileKey.pack(x, y, z)) : expected.put(TileKey.pack(x, y, z), value);
+				assertEquals(previous == null ? 0 : previous, tiles.put(x, y, z, value));
+			}
+			assertEquals(expected.size(), tiles.size());
+			for (Map.Entry<Long, Long> entry : expected.entrySet())
+			{
+				long key = entry.getKey();
+				assertEquals((long) entry.getValue(), tiles.get(TileKey.getX(key), TileKey.getY(key), TileKey.getPlane(key)));
+			}
+
+			// The cursor visits every tile exactly once
+			Map<Long, Long> visited = new HashMap<>();
+			TileCursor tile = tiles.cursor();
+			while (tile.next())
+			{
+				assertEquals(null, visited.put(TileKey.pack(tile.getX(), tile.getY(), tile.getPlane()), tile.getValue()));
+			}
+			assertEquals(expected, visited);
+
+			// Removing everything leaves nothing behind
+			for (long key : expected.keySet())
+			{
+				tiles.put(TileKey.getX(key), TileKey.getY(key), TileKey.getPlane(key), 0);
+			}
+			assertTrue(tiles.isEmpty());
+			assertFalse(tiles.cursor().next());
+		}
+	}
+
+	@Test
+	public void snapshotsAreIndependent()
+	{
+		TileHashMap tiles = new TileHashMap();
+		for (int i = 0; i < 1000; i++)
+		{
+			tiles.put(i, i, 0, i + 1);
+		}
+		TileStore snapshot = tiles.snapshot();
+		tiles.put(0, 0, 0, 100);
+		tiles.put(5000, 5000, 0, 1);
+		tiles.put(1, 1, 0, 0);
+		snapshot.put(2, 2, 0, 200);
+
+		assertEquals(1, snapshot.get(0, 0, 0));
+		assertEquals(0, snapshot.get(5000, 5000, 0));
+		assertEquals(2, snapshot.get(1, 1, 0));
+		assertEquals(1000, snapshot.size());
+		assertEquals(100, tiles.get(0, 0, 0));
+		assertEquals(0, tiles.get(1, 1, 0));
+		assertEquals(3, tiles.get(2, 2, 0));
+		assertEquals(1000, tiles.size());
+	}
+}
@@ -0,0 +1,117 @@
+package com.worldheatmap;
+
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class TileStatisticsTest
+{
+	@Test
+	public void matchesTheTilesUnderRandomChanges()
+	{
+		Random random = new Random(7);
+		TileHashMap tiles = new TileHashMap();
+		TileStatistics statistics = new TileStatistics();
+		for (int i = 0; i < 200_000; i++)
+		{
+			int x = random.nextInt(40);
+			int y = random.nextInt(40);
+			long oldValue = tiles.get(x, y, 0);
+			long newValue;
+			switch (random.nextInt(4))
+			{
+				case 0:
+					newValue = 0;
+					break;
+				case 1:
+					newValue = Math.max(oldValue - 1, 0);
+					break;
+				default:
+					newValue = oldValue + 1 + random.nextInt(3);
+					break;
+			}
+			if (newValue == oldValue)
+			{
+				continue;
+			}
+			tiles.put(x, y, 0, newValue);
+			statistics.onValueChanged(oldValue, newValue);
+			if (statistics.isStale())
+			{
+				statistics.recompute(tiles.cursor(), 0);
+			}
+			assertMatches(tiles, statistics);
+		}
+	}
+
+	@Test
+	public void incrementingTheBusiestTileKeepsTheMax()
+	{
+		TileStatistics statistics = new TileStatistics();
+		statistics.onValueChanged(0, 3);
+		statistics.onValueChanged(0, 10);
+		for (long value = 10; value < 1000; value++)
+		{
+			statistics.onValueChanged(value, value + 1);
+			assertFalse(statistics.isStale());
+			assertEquals(value + 1, statistics.getMax());
+			assertEquals(3, statistics.getMin());
+		}
+
+		// As is decrementing the quietest tile for the min
+		for (long value = 3; value > 1; value--)
+		{
+			statistics.onValueChanged(value, value - 1);
+			assertFalse(statistics.isStale());
+			assertEquals(value - 1, statistics.getMin());
+		}
+	}
+
+	@Test
+	public void theMinGoingStaleLeavesTheMaxReadable()
+	{
+		TileStatistics statistics = new TileStatistics();
+		statistics.onValueChanged(0, 1);
+		statistics.onValueChanged(0, 50);
+		// The only tile at the min rises past it, so the min is no longer known
+		statistics.onValueChanged(1, 2);
+		assertTrue(statistics.isStale());
+		assertFalse(statistics.isMaxStale());
+		statistics.onValueChanged(50, 51);
+		assertFalse(statistics.isMaxStale());
+		assertEquals(51, statistics.getMax());
+	}
+
+	@Test
+	public void heatmapReadsTheMaxAndMinPastAStaleMin()
+	{
+		HeatmapNew heatmap = new HeatmapNew(HeatmapNew.HeatmapType.TYPE_A, 1, 0, null, 3);
+		heatmap.increment(3200, 3200, 0, 1);
+		heatmap.increment(3201, 3200, 0, 50);
+		heatmap.increment(3202, 3200, 1, 70);
+		heatmap.increment(3200, 3200, 0, 1);
+		assertEquals(70, heatmap.getMaxValue());
+		assertEquals(2, heatmap.getStatistics(0).getMin());
+		assertEquals(50, heatmap.getStatistics(0).getMax());
+	}
+
+	private static void assertMatches(TileHashMap tiles, TileStatistics statistics)
+	{
+		long max = 0;
+		long min = 0;
+		int tileCount = 0;
+		TileCursor tile = tiles.cursor();
+		while (tile.next())
+		{
+			long value = tile.getValue();
+			max = Math.max(max, value);
+			min = min == 0 ? value : Math.min(min, value);
+			tileCount++;
+		}
+		assertEquals(tileCount, statistics.getTileCount());
+		assertEquals(max, statistics.getMax());
+		assertEquals(min, statistics.getMin());
+	}
+}
@@ -0,0 +1,83 @@
+package com.worldheatmap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import net.runelite.api.Point;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class UtilsTest
+{
+	@Test
+	public void walkLineVisitsTheSameTilesAsGetPointsBetween()
+	{
+		// Every line within a small square, which covers every direction and the rounding ties
+		for (int x1 = -12; x1 <= 12; x1++)
+		{
+			for (int y1 = -12; y1 <= 12; y1++)
+			{
+				assertSameTiles(3200, 3200, 3200 + x1, 3200 + y1);
+			}
+		}
+
+		// And long lines, like teleports across the overworld
+		Random random = new Random(5);
+		for (int i = 0; i < 20_000; i++)
+		{
+			assertSameTiles(1024 + random.nextInt(2752), 2496 + random.nextInt(1664),
+				1024 + random.nextInt(2752), 2496 + random.nextInt(1664));
+		}
+	}
+
+	@Test
+	public void walkLineVisitsJustTheEndOfAnEmptyLine()
+	{
+		List<Point> tiles = walkLine(3200, 3200, 3200, 3200);
+		assertEquals(1, tiles.size());
+		assertEquals(new Point(3200, 3200), tiles.get(0));
+	}
+
+	private static void assertSameTiles(int x0, int y0, int x1, int y1)
+	{
+		Point[] expected = getPointsBetween(new Point(x0, y0), new Point(x1, y1));
+		List<Point> actual = walkLine(x0, y0, x1, y1);
+		assertEquals(expected.length, actual.size());
+		for (int i = 0; i < expected.length; i++)
+		{
+			assertEquals(expected[i], actual.get(i));
+		}
+	}
+
+	static List<Point> walkLine(int x0, int y0, int x1, int y1)
+	{
+		List<Point> tiles = new ArrayList<>();
+		Utils.walkLine(x0, y0, x1, y1, (x, y) -> tiles.add(new Point(x, y)));
+		return tiles;
+	}
+
+	/**
+	 * The allocating line interpolation that walkLine replaced, kept here as the reference it must agree with
+	 */
+	static Point[] getPointsBetween(Point p0, Point p1)
+	{
+		if (p0.equals(p1))
+		{
+			return new Point[]{p1};
+		}
+		int N = Math.max(Math.abs(p1.getX() - p0.getX()), Math.abs(p1.getY() - p0.getY()));
+		Point[] points = new Point[N];
+		for (int step = 1; step <= N; step++)
+		{
+			float t = step / (float) N;
+			float[] point = new float[]{lerp(p0.getX(), p1.getX(), t), lerp(p0.getY(), p1.getY(), t)};
+			points[step - 1] = new Point(Math.round(point[0]), Math.round(point[1]));
+		}
+		return points;
+	}
+
+	private static float lerp(int p0, int p1, float t)
+	{
+		return p0 + (p1 - p0) * t;
+	}
+}
@@ -0,0 +1,46 @@
+package com.worldheatmap;
+
+import net.runelite.api.Point;
+
+/**
+ * Compares the time to visit the tiles of a line with Utils.walkLine against the allocating
+ * getPointsBetween it replaced, for a 3-tile line (a run) and a 300-tile line (a teleport).
+ */
+public class WalkLineBenchmark
+{
+	private static final int ROUNDS = 5;
+	private static final long TILES_PER_ROUND = 30_000_000;
+
+	private static long sink;
+
+	public static void main(String[] args)
+	{
+		for (int length : new int[]{3, 300})
+		{
+			int lines = (int) (TILES_PER_ROUND / length);
+			for (int round = 0; round < ROUNDS; round++)
+			{
+				long startTime = System.nanoTime();
+				for (int i = 0; i < lines; i++)
+				{
+					int x0 = 3200 + (i & 63);
+					for (Point tile : UtilsTest.getPointsBetween(new Point(x0, 3200), new Point(x0 + length, 3200 + length / 3)))
+					{
+						sink += tile.getX() ^ tile.getY();
+					}
+				}
+				long oldNanos = System.nanoTime() - startTime;
+
+				startTime = System.nanoTime();
+				for (int i = 0; i < lines; i++)
+				{
+					int x0 = 3200 + (i & 63);
+					Utils.walkLine(x0, 3200, x0 + length, 3200 + length / 3, (x, y) -> sink += x ^ y);
+				}
+				long newNanos = System.nanoTime() - startTime;
+				System.out.printf("%d-tile lines, round %d: getPointsBetween %.1f ns/tile, walkLine %.1f ns/tile%n",
+					length, round + 1, (double) oldNanos / TILES_PER_ROUND, (double) newNanos / TILES_PER_ROUND);
+			}
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package com.worldheatmap;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+import javax.imageio.ImageIO;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WorldMapCacheTest
+{
+	private static final String MAP_FILE_NAME = "osrs_world_map.png";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void downloadsADamagedCachedFileAgain() throws IOException
+	{
+		File source = folder.newFolder();
+		File cacheDirectory = folder.newFolder();
+		byte[] offsets = "fullX,fullY,overworldX,overworldY\n1,2,3,4".getBytes(StandardCharsets.UTF_8);
+		Files.write(new File(source, WorldMapCache.OFFSETS_FILE_NAME).toPath(), offsets);
+		WorldMapCache cache = new WorldMapCache(cacheDirectory, source.toURI().toString());
+		assertArrayEquals(offsets, cache.getFile(WorldMapCache.OFFSETS_FILE_NAME));
+
+		File cachedFile = new File(cacheDirectory, WorldMapCache.OFFSETS_FILE_NAME);
+		Files.write(cachedFile.toPath(), "fullX,fullY,overworldX,overworldY\n1,2,3,5".getBytes(StandardCharsets.UTF_8));
+		assertArrayEquals(offsets, cache.getFile(WorldMapCache.OFFSETS_FILE_NAME));
+		assertArrayEquals(offsets, Files.readAllBytes(cachedFile.toPath()));
+	}
+
+	@Test
+	public void replacesADamagedCachedFileWhenCheckingForUpdates() throws IOException
+	{
+		File source = folder.newFolder();
+		File cacheDirectory = folder.newFolder();
+		byte[] offsets = "fullX,fullY,overworldX,overworldY\n1,2,3,4".getBytes(StandardCharsets.UTF_8);
+		Files.write(new File(source, WorldMapCache.OFFSETS_FILE_NAME).toPath(), offsets);
+		WorldMapCache cache = new WorldMapCache(cacheDirectory, source.toURI().toString());
+		cache.getFile(WorldMapCache.OFFSETS_FILE_NAME);
+
+		File cachedFile = new File(cacheDirectory, WorldMapCache.OFFSETS_FILE_NAME);
+		Files.write(cachedFile.toPath(), new byte[0]);
+		makeStale(cacheDirectory, WorldMapCache.OFFSETS_FILE_NAME);
+		cache.refreshStaleFiles();
+		assertArrayEquals(offsets, Files.readAllBytes(cachedFile.toPath()));
+	}
+
+	@Test
+	public void decodesAgainWhenTheDecodedImageIsOfAnotherImage() throws IOException
+	{
+		File source = folder.newFolder();
+		File cacheDirectory = folder.newFolder();
+		writeMap(new File(source, MAP_FILE_NAME), 0x102030);
+		WorldMapCache cache = new WorldMapCache(cacheDirectory, source.toURI().toString());
+		try (HeatmapImage.WorldMap worldMap = cache.openWorldMap(MAP_FILE_NAME))
+		{
+			assertEquals(0x102030, worldMap.read(new Rectangle(0, 0, 8, 8)).getRGB(3, 3) & 0xFFFFFF);
+		}
+
+		// As if the new image were cached by another render while this one was decoding the old one
+		writeMap(new File(source, MAP_FILE_NAME), 0x405060);
+		Files.delete(new File(cacheDirectory, MAP_FILE_NAME + ".properties").toPath());
+		cache.getFile(MAP_FILE_NAME);
+		try (HeatmapImage.WorldMap worldMap = cache.openWorldMap(MAP_FILE_NAME))
+		{
+			assertEquals(0x405060, worldMap.read(new Rectangle(0, 0, 8, 8)).getRGB(3, 3) & 0xFFFFFF);
+		}
+	}
+
+	private static void writeMap(File file, int rgb) throws IOException
+	{
+		BufferedImage image = new BufferedImage(64, 32, BufferedImage.TYPE_3BYTE_BGR);
+		for (int y = 0; y < image.getHeight(); y++)
+		{
+			for (int x = 0; x < image.getWidth(); x++)
+			{
+				image.setRGB(x, y, rgb);
+			}
+		}
+		ImageIO.write(image, "png", file);
+	}
+
+	private static void makeStale(File cacheDirectory, String fileName) throws IOException
+	{
+		File propertiesFile = new File(cacheDirectory, fileName + ".properties");
+		Properties properties = new Properties();
+		try (InputStream inputStream = new FileInputStream(propertiesFile))
+		{
+			properties.load(inputStream);
+		}
+		properties.setProperty("lastChecked", "0");
+		try (OutputStream outputStream = new FileOutputStream(propertiesFile))
+		{
+			properties.store(outputStream, null);
+		}
+	}
+}